@@ -0,0 +1,28 @@
+package de.incentergy.test.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so the allocation rate is
+ * reported next to the throughput. All JMH command line options can be used
+ * e.g.
+ *
+ * java -jar target/benchmarks.jar SerializeBenchmark -p shape=DEEP_CHAIN
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args)
+			throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,29 @@
+package de.incentergy.test.benchmarks;
+
+/**
+ * A bean that is chained to build deep graphs.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public class ChainBean {
+	private int value;
+	private ChainBean next;
+
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		this.value = value;
+	}
+
+	public ChainBean getNext() {
+		return next;
+	}
+
+	public void setNext(ChainBean next) {
+		this.next = next;
+	}
+}
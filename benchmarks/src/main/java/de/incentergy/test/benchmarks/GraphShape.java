@@ -0,0 +1,199 @@
+package de.incentergy.test.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates synthetic object graphs of a given size. The graphs are
+ * deterministic, so every run serializes the same code.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public enum GraphShape {
+
+	/**
+	 * A list of beans with many flat properties
+	 */
+	WIDE_BEANS {
+		@Override
+		Graph create(int size) {
+			List<WideBean> list = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				WideBean bean = new WideBean();
+				bean.setInt0(i);
+				bean.setInt1(i * 31);
+				bean.setInt2(-i);
+				bean.setInt3(i % 7);
+				bean.setLong0(i * 1000000007L);
+				bean.setLong1(i);
+				bean.setLong2(-i);
+				bean.setLong3(i % 11);
+				bean.setDouble0(i / 3.0);
+				bean.setDouble1(i * 0.5);
+				bean.setDouble2(-i);
+				bean.setDouble3(Math.sqrt(i));
+				bean.setBoolean0(i % 2 == 0);
+				bean.setBoolean1(i % 3 == 0);
+				bean.setString0("name" + i);
+				bean.setString1("EUR");
+				bean.setString2("street " + i);
+				bean.setString3(i % 5 == 0 ? null : "city" + i % 100);
+				list.add(bean);
+			}
+			return new Graph(list, size + 1);
+		}
+	},
+
+	/**
+	 * A single chain of beans, it is as deep as it is large
+	 */
+	DEEP_CHAIN {
+		@Override
+		Graph create(int size) {
+			ChainBean head = null;
+			for (int i = 0; i < size; i++) {
+				ChainBean bean = new ChainBean();
+				bean.setValue(i);
+				bean.setNext(head);
+				head = bean;
+			}
+			return new Graph(head, size);
+		}
+	},
+
+	/**
+	 * A large list of Strings, boxed values and enums
+	 */
+	LARGE_LIST {
+		@Override
+		Graph create(int size) {
+			List<Object> list = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				switch (i % 4) {
+				case 0:
+					list.add("item" + i);
+					break;
+				case 1:
+					list.add(i);
+					break;
+				case 2:
+					list.add((long) i * i);
+					break;
+				default:
+					list.add(OrderBean.Status.values()[i % 3]);
+					break;
+				}
+			}
+			return new Graph(list, size + 1);
+		}
+	},
+
+	/**
+	 * A large map from Strings to small beans
+	 */
+	LARGE_MAP {
+		@Override
+		Graph create(int size) {
+			Map<String, ChainBean> map = new LinkedHashMap<>();
+			for (int i = 0; i < size; i++) {
+				ChainBean bean = new ChainBean();
+				bean.setValue(i);
+				map.put("key" + i, bean);
+			}
+			return new Graph(map, size * 2 + 1);
+		}
+	},
+
+	/**
+	 * A tree whose nodes reference their parents, so it is full of back
+	 * references
+	 */
+	CYCLIC {
+		@Override
+		Graph create(int size) {
+			NodeBean root = new NodeBean();
+			root.setName("root");
+			List<NodeBean> nodes = new ArrayList<>(size);
+			nodes.add(root);
+			for (int i = 1; i < size; i++) {
+				NodeBean parent = nodes.get((i - 1) / 4);
+				NodeBean node = new NodeBean();
+				node.setName("node" + i);
+				node.setParent(parent);
+				parent.getChildren().add(node);
+				nodes.add(node);
+			}
+			// every node has a children list
+			return new Graph(root, size * 2);
+		}
+	},
+
+	/**
+	 * A list of beans with all kinds of properties like the TestBean of the
+	 * unit tests
+	 */
+	TEST_BEAN {
+		@Override
+		Graph create(int size) {
+			List<OrderBean> list = new ArrayList<>(size);
+			OrderBean previous = null;
+			for (int i = 0; i < size; i++) {
+				OrderBean bean = new OrderBean();
+				bean.setMyByte((byte) i);
+				bean.setMyShort((short) i);
+				bean.setMyInt(i);
+				bean.setMyLong(i * 7L);
+				bean.setMyFloat(i / 2f);
+				bean.setMyDouble(i / 4.0);
+				bean.setMyBoolean(i % 2 == 0);
+				bean.setMyBigDecimal(new BigDecimal("0.19"));
+				bean.setMyChar((char) ('a' + i % 26));
+				bean.setMyString("order" + i);
+				bean.setStatus(OrderBean.Status.values()[i % 3]);
+				bean.setTags(Arrays.asList("a", "b" + i % 10));
+				Map<String, OrderBean> related = new HashMap<>();
+				if (previous != null) {
+					related.put("previous", previous);
+				}
+				bean.setRelated(related);
+				bean.setParent(previous);
+				list.add(bean);
+				previous = bean;
+			}
+			// beans, tag lists and related maps
+			return new Graph(list, size * 3 + 1);
+		}
+	};
+
+	/**
+	 * Creates a graph.
+	 *
+	 * @param size
+	 *            the amount of main objects in the graph
+	 * @return the graph
+	 */
+	abstract Graph create(int size);
+
+	/**
+	 * A generated graph.
+	 */
+	static final class Graph {
+		final Object root;
+		/**
+		 * The amount of beans, collections and maps in the graph
+		 */
+		final int objects;
+
+		Graph(Object root, int objects) {
+			this.root = root;
+			this.objects = objects;
+		}
+	}
+}
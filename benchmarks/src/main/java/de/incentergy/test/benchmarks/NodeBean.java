@@ -0,0 +1,41 @@
+package de.incentergy.test.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A tree node that knows its parent, so every graph of nodes has cycles.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public class NodeBean {
+	private String name;
+	private NodeBean parent;
+	private List<NodeBean> children = new ArrayList<>();
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public NodeBean getParent() {
+		return parent;
+	}
+
+	public void setParent(NodeBean parent) {
+		this.parent = parent;
+	}
+
+	public List<NodeBean> getChildren() {
+		return children;
+	}
+
+	public void setChildren(List<NodeBean> children) {
+		this.children = children;
+	}
+}
@@ -0,0 +1,147 @@
+package de.incentergy.test.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A bean shaped like the TestBean of the unit tests: all primitive types, a
+ * BigDecimal, an enum, a collection, a map and a reference to another bean.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public class OrderBean {
+
+	public static enum Status {
+		NEW, PAID, SHIPPED;
+	}
+
+	private byte myByte;
+	private short myShort;
+	private int myInt;
+	private long myLong;
+	private float myFloat;
+	private double myDouble;
+	private boolean myBoolean;
+	private BigDecimal myBigDecimal;
+	private char myChar;
+	private String myString;
+	private Status status;
+	private Collection<String> tags;
+	private Map<String, OrderBean> related;
+	private OrderBean parent;
+
+	public byte getMyByte() {
+		return myByte;
+	}
+
+	public void setMyByte(byte myByte) {
+		this.myByte = myByte;
+	}
+
+	public short getMyShort() {
+		return myShort;
+	}
+
+	public void setMyShort(short myShort) {
+		this.myShort = myShort;
+	}
+
+	public int getMyInt() {
+		return myInt;
+	}
+
+	public void setMyInt(int myInt) {
+		this.myInt = myInt;
+	}
+
+	public long getMyLong() {
+		return myLong;
+	}
+
+	public void setMyLong(long myLong) {
+		this.myLong = myLong;
+	}
+
+	public float getMyFloat() {
+		return myFloat;
+	}
+
+	public void setMyFloat(float myFloat) {
+		this.myFloat = myFloat;
+	}
+
+	public double getMyDouble() {
+		return myDouble;
+	}
+
+	public void setMyDouble(double myDouble) {
+		this.myDouble = myDouble;
+	}
+
+	public boolean isMyBoolean() {
+		return myBoolean;
+	}
+
+	public void setMyBoolean(boolean myBoolean) {
+		this.myBoolean = myBoolean;
+	}
+
+	public BigDecimal getMyBigDecimal() {
+		return myBigDecimal;
+	}
+
+	public void setMyBigDecimal(BigDecimal myBigDecimal) {
+		this.myBigDecimal = myBigDecimal;
+	}
+
+	public char getMyChar() {
+		return myChar;
+	}
+
+	public void setMyChar(char myChar) {
+		this.myChar = myChar;
+	}
+
+	public String getMyString() {
+		return myString;
+	}
+
+	public void setMyString(String myString) {
+		this.myString = myString;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public Collection<String> getTags() {
+		return tags;
+	}
+
+	public void setTags(Collection<String> tags) {
+		this.tags = tags;
+	}
+
+	public Map<String, OrderBean> getRelated() {
+		return related;
+	}
+
+	public void setRelated(Map<String, OrderBean> related) {
+		this.related = related;
+	}
+
+	public OrderBean getParent() {
+		return parent;
+	}
+
+	public void setParent(OrderBean parent) {
+		this.parent = parent;
+	}
+}
@@ -0,0 +1,108 @@
+package de.incentergy.test.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.incentergy.test.Object2CodeObjectOutputStream;
+import de.incentergy.test.Serialize;
+
+/**
+ * Measures how fast graphs of different shapes and sizes are serialized into
+ * a String and into a file. Run it with the GC profiler to see the
+ * allocation rate, see {@link BenchmarkMain}. The output counters report the
+ * bytes of code per object of the graph.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializeBenchmark {
+
+	@Param({ "WIDE_BEANS", "DEEP_CHAIN", "LARGE_LIST", "LARGE_MAP", "CYCLIC",
+			"TEST_BEAN" })
+	public GraphShape shape;
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	private GraphShape.Graph graph;
+
+	private File file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		graph = shape.create(size);
+		file = File.createTempFile("object2code", ".java");
+		file.deleteOnExit();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Counts the written code per serialized object.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Output {
+		public long bytes;
+		public long objects;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+			objects = 0;
+		}
+
+		public double bytesPerObject() {
+			return objects == 0 ? 0 : (double) bytes / objects;
+		}
+	}
+
+	@Benchmark
+	public String object2code(Output output) {
+		String code = Serialize.object2code(graph.root);
+		// the code is ASCII except for unusual Strings
+		output.bytes += code.length();
+		output.objects += graph.objects;
+		return code;
+	}
+
+	@Benchmark
+	public long streamToFile(Output output) throws IOException {
+		try (Object2CodeObjectOutputStream out = new Object2CodeObjectOutputStream(
+				new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			out.writeObject(graph.root);
+		}
+		long bytes = file.length();
+		output.bytes += bytes;
+		output.objects += graph.objects;
+		return bytes;
+	}
+}
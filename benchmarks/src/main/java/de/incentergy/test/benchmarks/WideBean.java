@@ -0,0 +1,173 @@
+package de.incentergy.test.benchmarks;
+
+/**
+ * A bean with many flat properties.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public class WideBean {
+	private int int0;
+	private int int1;
+	private int int2;
+	private int int3;
+	private long long0;
+	private long long1;
+	private long long2;
+	private long long3;
+	private double double0;
+	private double double1;
+	private double double2;
+	private double double3;
+	private boolean boolean0;
+	private boolean boolean1;
+	private String string0;
+	private String string1;
+	private String string2;
+	private String string3;
+
+	public int getInt0() {
+		return int0;
+	}
+
+	public void setInt0(int int0) {
+		this.int0 = int0;
+	}
+
+	public int getInt1() {
+		return int1;
+	}
+
+	public void setInt1(int int1) {
+		this.int1 = int1;
+	}
+
+	public int getInt2() {
+		return int2;
+	}
+
+	public void setInt2(int int2) {
+		this.int2 = int2;
+	}
+
+	public int getInt3() {
+		return int3;
+	}
+
+	public void setInt3(int int3) {
+		this.int3 = int3;
+	}
+
+	public long getLong0() {
+		return long0;
+	}
+
+	public void setLong0(long long0) {
+		this.long0 = long0;
+	}
+
+	public long getLong1() {
+		return long1;
+	}
+
+	public void setLong1(long long1) {
+		this.long1 = long1;
+	}
+
+	public long getLong2() {
+		return long2;
+	}
+
+	public void setLong2(long long2) {
+		this.long2 = long2;
+	}
+
+	public long getLong3() {
+		return long3;
+	}
+
+	public void setLong3(long long3) {
+		this.long3 = long3;
+	}
+
+	public double getDouble0() {
+		return double0;
+	}
+
+	public void setDouble0(double double0) {
+		this.double0 = double0;
+	}
+
+	public double getDouble1() {
+		return double1;
+	}
+
+	public void setDouble1(double double1) {
+		this.double1 = double1;
+	}
+
+	public double getDouble2() {
+		return double2;
+	}
+
+	public void setDouble2(double double2) {
+		this.double2 = double2;
+	}
+
+	public double getDouble3() {
+		return double3;
+	}
+
+	public void setDouble3(double double3) {
+		this.double3 = double3;
+	}
+
+	public boolean isBoolean0() {
+		return boolean0;
+	}
+
+	public void setBoolean0(boolean boolean0) {
+		this.boolean0 = boolean0;
+	}
+
+	public boolean isBoolean1() {
+		return boolean1;
+	}
+
+	public void setBoolean1(boolean boolean1) {
+		this.boolean1 = boolean1;
+	}
+
+	public String getString0() {
+		return string0;
+	}
+
+	public void setString0(String string0) {
+		this.string0 = string0;
+	}
+
+	public String getString1() {
+		return string1;
+	}
+
+	public void setString1(String string1) {
+		this.string1 = string1;
+	}
+
+	public String getString2() {
+		return string2;
+	}
+
+	public void setString2(String string2) {
+		this.string2 = string2;
+	}
+
+	public String getString3() {
+		return string3;
+	}
+
+	public void setString3(String string3) {
+		this.string3 = string3;
+	}
+}
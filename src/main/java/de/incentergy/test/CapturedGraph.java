@@ -0,0 +1,775 @@
+package de.incentergy.test;
+
+import java.beans.IntrospectionException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.incentergy.test.ClassPlan.Kind;
+import de.incentergy.test.ClassPlan.PropertyPlan;
+
+/**
+ * A snapshot of the values of an object graph that is written later, e.g.
+ * by another thread, several times or after it was sent to another JVM.
+ *
+ * CapturedGraph graph = CapturedGraph.capture(myBean, config);
+ *
+ * long size = graph.getCodeLength(config);
+ *
+ * String code = graph.toCode(config);
+ *
+ * Capturing walks the graph once and reads everything that is written: the
+ * values of the properties, the items of collections, the entries of maps
+ * and the elements of arrays. The processors are applied and the code of
+ * custom constructors is built while capturing. The code is the same as the
+ * code of {@link Object2CodeObjectOutputStream#writeObject(Object, boolean)}
+ * at the time of the capture.
+ *
+ * The graph is kept in a few parallel arrays instead of an object per node.
+ * Every bean, collection, map and object array is a node with a kind, the
+ * id of its class and a range of slots. A slot holds a reference to a value:
+ * 0 for null, n &gt; 0 for the node n - 1 and n &lt; 0 for the value -n - 1
+ * in the table of values. Strings, boxed values, BigDecimals and enums are
+ * kept in the table because they are immutable, primitive arrays are copied
+ * into it. The slots of a bean are its properties by their index, a
+ * primitive property holds its value as described in
+ * {@link PropertyPlan#getPrimitive(Object)}.
+ *
+ * The path filter of the configuration is applied while capturing, values
+ * that it skips are not read or not kept. Lazy associations that are not
+ * loaded are not walked, see {@link LazinessDetector}.
+ *
+ * A captured graph is immutable and can be written by several threads at
+ * once. It is {@link Serializable} if the classes of the graph can be
+ * loaded where it is read. It must be written with a configuration that has
+ * the same properties as the one it was captured with.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class CapturedGraph implements Serializable {
+
+	private static final long serialVersionUID = 4329104795164871926L;
+
+	private static final Logger log = Logger
+			.getLogger(CapturedGraph.class.getName());
+
+	static final byte COLLECTION = 0;
+
+	static final byte MAP = 1;
+
+	static final byte ARRAY = 2;
+
+	static final byte BEAN = 3;
+
+	/**
+	 * A bean whose code was built by a custom constructor generator, its
+	 * only slot references the code
+	 */
+	static final byte CUSTOM = 4;
+
+	/**
+	 * A bean without no-args constructor, it has no slots
+	 */
+	static final byte NO_CONSTRUCTOR = 5;
+
+	/**
+	 * A lazy association that was not loaded, it has no slots
+	 */
+	static final byte UNINITIALIZED = 6;
+
+	/**
+	 * Returned while capturing for a value that the path filter skips, never
+	 * kept in a slot
+	 */
+	private static final long PRUNED = Long.MIN_VALUE;
+
+	/**
+	 * The kind of every node
+	 */
+	private final byte[] kinds;
+
+	/**
+	 * The index of the class of every node in {@link #classes}
+	 */
+	private final int[] classIds;
+
+	/**
+	 * The first slot of every node, the slots of node i end where the slots
+	 * of node i + 1 start
+	 */
+	private final int[] slotStarts;
+
+	/**
+	 * The references to the values or the primitive values of all nodes
+	 */
+	private final long[] slots;
+
+	/**
+	 * The slots of the primitive properties that the path filter skips
+	 */
+	private final BitSet prunedSlots;
+
+	private final Class<?>[] classes;
+
+	/**
+	 * The names of the properties of every bean class in the order of their
+	 * slots or null for other classes
+	 */
+	private final String[][] propertyNames;
+
+	/**
+	 * The immutable values and the copied primitive arrays
+	 */
+	private final Object[] values;
+
+	/**
+	 * The reference to the root
+	 */
+	private final long root;
+
+	/**
+	 * If the root is written as literal that is followed by its code
+	 */
+	private final boolean literalRoot;
+
+	private final boolean onlyPropertiesWithMatchingField;
+
+	private CapturedGraph(Capture capture, long root, boolean literalRoot) {
+		this.kinds = Arrays.copyOf(capture.kinds, capture.nodeCount);
+		this.classIds = Arrays.copyOf(capture.classIds, capture.nodeCount);
+		this.slotStarts = Arrays.copyOf(capture.slotStarts,
+				capture.nodeCount + 1);
+		this.slotStarts[capture.nodeCount] = capture.slotCount;
+		this.slots = Arrays.copyOf(capture.slots, capture.slotCount);
+		this.prunedSlots = capture.prunedSlots;
+		this.classes = capture.classIds2class
+				.toArray(new Class<?>[capture.classIds2class.size()]);
+		this.propertyNames = capture.propertyNames
+				.toArray(new String[capture.propertyNames.size()][]);
+		this.values = Arrays.copyOf(capture.values, capture.valueCount);
+		this.root = root;
+		this.literalRoot = literalRoot;
+		this.onlyPropertiesWithMatchingField = capture.onlyPropertiesWithMatchingField;
+	}
+
+	/**
+	 * Captures the graph of the given object with all properties.
+	 *
+	 * @param o
+	 *            the root of the graph
+	 * @param config
+	 *            the configuration the graph is written with
+	 * @return the captured graph
+	 */
+	public static CapturedGraph capture(Object o, SerializerConfig config) {
+		try {
+			return capture(o, config, false);
+		} catch (IntrospectionException | ReflectiveOperationException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException(
+					"Could not capture the given object. Please see the warnings in the log.");
+		}
+	}
+
+	/**
+	 * Captures the graph of the given object.
+	 *
+	 * @param o
+	 *            the root of the graph
+	 * @param config
+	 *            the configuration the graph is written with
+	 * @param onlyPropertiesWithMatchingField
+	 *            use only properties that have a corresponding field
+	 * @return the captured graph
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	static CapturedGraph capture(Object o, SerializerConfig config,
+			boolean onlyPropertiesWithMatchingField)
+			throws IntrospectionException, ReflectiveOperationException {
+		Kind kind = o != null ? config.getPlan(o.getClass()).getKind()
+				: null;
+		return capture(config.process(o), config,
+				onlyPropertiesWithMatchingField,
+				kind == Kind.PRIMITIVE || kind == Kind.STRING);
+	}
+
+	/**
+	 * Captures the graph of an object that was already processed.
+	 *
+	 * @param o
+	 *            the processed root of the graph
+	 * @param config
+	 *            the configuration the graph is written with
+	 * @param onlyPropertiesWithMatchingField
+	 *            use only properties that have a corresponding field
+	 * @param literalRoot
+	 *            if the code of a literal root is appended
+	 * @return the captured graph
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	static CapturedGraph capture(Object o, SerializerConfig config,
+			boolean onlyPropertiesWithMatchingField, boolean literalRoot)
+			throws IntrospectionException, ReflectiveOperationException {
+		Capture capture = new Capture(config, onlyPropertiesWithMatchingField);
+		PathFilter pathFilter = config.getPathFilter();
+		// the root is always written
+		long root = capture.accepted(o,
+				pathFilter != null ? pathFilter.start() : null);
+		capture.run();
+		return new CapturedGraph(capture, root, literalRoot);
+	}
+
+	/**
+	 * Writes the code of the graph.
+	 *
+	 * @param config
+	 *            the configuration to write with
+	 * @return the code
+	 */
+	public String toCode(SerializerConfig config) {
+		StringBuilder code = new StringBuilder();
+		appendTo(code, config);
+		return code.toString();
+	}
+
+	/**
+	 * Appends the code of the graph.
+	 *
+	 * @param appendable
+	 *            the target of the code
+	 * @param config
+	 *            the configuration to write with
+	 */
+	public void appendTo(Appendable appendable, SerializerConfig config) {
+		try {
+			CodeWriter out = new CodeWriter(appendable,
+					CodeWriter.DEFAULT_FLUSH_THRESHOLD);
+			write(out, config);
+			out.flush();
+		} catch (IOException | IntrospectionException
+				| ReflectiveOperationException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException(
+					"Could not write the captured graph. Please see the warnings in the log.");
+		}
+	}
+
+	/**
+	 * Returns the exact amount of chars of the code of this graph without
+	 * keeping the code, e.g. to allocate a buffer or to check a limit before
+	 * the code is written.
+	 *
+	 * @param config
+	 *            the configuration to write with
+	 * @return the length of the code
+	 */
+	public long getCodeLength(SerializerConfig config) {
+		try {
+			CodeWriter out = new CodeWriter(new NullWriter(),
+					CodeWriter.DEFAULT_FLUSH_THRESHOLD);
+			write(out, config);
+			return out.getPosition();
+		} catch (IOException | IntrospectionException
+				| ReflectiveOperationException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException(
+					"Could not write the captured graph. Please see the warnings in the log.");
+		}
+	}
+
+	/**
+	 * @return the amount of beans, collections, maps and object arrays
+	 */
+	public int getNodeCount() {
+		return kinds.length;
+	}
+
+	/**
+	 * Writes the code of the graph like
+	 * {@link Object2CodeObjectOutputStream#writeObject(Object, boolean)}.
+	 *
+	 * @return what was cut because of the budget
+	 */
+	Truncation write(CodeWriter out, SerializerConfig config)
+			throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		checkProperties(config);
+		ObjectGraphWriter writer = new ObjectGraphWriter(out, config,
+				onlyPropertiesWithMatchingField);
+		String name = writer.writeCaptured(new Nodes().value(root));
+		if (literalRoot) {
+			// write the simple type to the stream
+			out.append(name);
+		}
+		out.drain();
+		return writer.getTruncation();
+	}
+
+	/**
+	 * Returns the root of a writing of the graph that is shared by several
+	 * writers, e.g. in several threads. All nodes are created up front,
+	 * because the writers recognize back references by the identity of the
+	 * nodes.
+	 *
+	 * @return null, a value or the node of the root
+	 */
+	Object sharedRoot() {
+		Nodes nodes = new Nodes();
+		for (int id = 0; id < kinds.length; id++) {
+			nodes.value(id + 1L);
+		}
+		return nodes.value(root);
+	}
+
+	/**
+	 * Checks that the beans have the same properties in the given
+	 * configuration as in the configuration they were captured with.
+	 */
+	private void checkProperties(SerializerConfig config)
+			throws IntrospectionException {
+		for (int i = 0; i < classes.length; i++) {
+			if (propertyNames[i] == null) {
+				continue;
+			}
+			List<PropertyPlan> properties = config.getPlan(classes[i])
+					.getProperties(false);
+			boolean same = properties.size() == propertyNames[i].length;
+			for (int j = 0; same && j < propertyNames[i].length; j++) {
+				same = propertyNames[i][j]
+						.equals(properties.get(j).getName());
+			}
+			if (!same) {
+				throw new IllegalArgumentException("The properties of "
+						+ classes[i].getName()
+						+ " differ from the captured properties "
+						+ Arrays.toString(propertyNames[i]));
+			}
+		}
+	}
+
+	/**
+	 * Walks the graph without recursion and fills the arrays.
+	 */
+	private static final class Capture {
+		private final SerializerConfig config;
+		private final boolean onlyPropertiesWithMatchingField;
+		/**
+		 * The ids of the nodes of the captured objects
+		 */
+		private final IdentityIntMap ids = new IdentityIntMap();
+		/**
+		 * The references of the copies of the primitive arrays
+		 */
+		private final Map<Object, Long> copies = new IdentityHashMap<>();
+		/**
+		 * The objects of the nodes that are not filled yet
+		 */
+		private final Deque<Object> pending = new ArrayDeque<>();
+		/**
+		 * The states of the path filter for the content of the nodes by
+		 * their id or null if nothing is filtered
+		 */
+		private final List<PathFilter.State> paths;
+		private final BitSet prunedSlots = new BitSet();
+		private final Map<Class<?>, Integer> class2id = new IdentityHashMap<>();
+		private final List<Class<?>> classIds2class = new ArrayList<>();
+		private final List<String[]> propertyNames = new ArrayList<>();
+
+		private byte[] kinds = new byte[16];
+		private int[] classIds = new int[16];
+		private int[] slotStarts = new int[17];
+		private int nodeCount;
+		private long[] slots = new long[64];
+		private int slotCount;
+		private Object[] values = new Object[16];
+		private int valueCount;
+
+		Capture(SerializerConfig config,
+				boolean onlyPropertiesWithMatchingField) {
+			this.config = config;
+			this.onlyPropertiesWithMatchingField = onlyPropertiesWithMatchingField;
+			this.paths = config.getPathFilter() != null ? new ArrayList<>()
+					: null;
+		}
+
+		/**
+		 * Returns the reference to the captured value of an object or
+		 * {@link #PRUNED} if the path filter skips it.
+		 */
+		long value(Object o, PathFilter.State path) {
+			o = config.process(o);
+			if (path != null) {
+				path = path.accept(o == null ? null : o.getClass());
+				if (path == null) {
+					return PRUNED;
+				}
+			}
+			return accepted(o, path);
+		}
+
+		/**
+		 * Returns the reference to the captured value of a processed object
+		 * that the path filter accepted. New objects get a node that is
+		 * filled later.
+		 */
+		long accepted(Object o, PathFilter.State path) {
+			if (o == null) {
+				return 0;
+			}
+			int id = ids.get(o);
+			if (id != IdentityIntMap.MISSING) {
+				return id + 1L;
+			}
+			ClassPlan plan = config.getPlan(o.getClass());
+			switch (config.isUninitialized(o) ? Kind.BEAN : plan.getKind()) {
+			case PRIMITIVE:
+			case STRING:
+			case ENUM:
+				return addValue(o);
+			case ARRAY:
+				if (plan.getType().getComponentType().isPrimitive()) {
+					// a primitive array is written completely at once, a
+					// shared one is copied only once
+					Long copy = copies.get(o);
+					if (copy == null) {
+						copy = addValue(copyArray(o));
+						copies.put(o, copy);
+					}
+					return copy;
+				}
+				break;
+			default:
+				break;
+			}
+			id = nodeCount++;
+			if (id == kinds.length) {
+				kinds = Arrays.copyOf(kinds, id * 2);
+				classIds = Arrays.copyOf(classIds, id * 2);
+				slotStarts = Arrays.copyOf(slotStarts, id * 2 + 1);
+			}
+			classIds[id] = classId(plan.getType());
+			ids.put(o, id);
+			pending.add(o);
+			if (paths != null) {
+				paths.add(path);
+			}
+			return id + 1L;
+		}
+
+		private long addValue(Object value) {
+			if (valueCount == values.length) {
+				values = Arrays.copyOf(values, valueCount * 2);
+			}
+			values[valueCount] = value;
+			return -(++valueCount);
+		}
+
+		private int classId(Class<?> clazz) {
+			Integer id = class2id.get(clazz);
+			if (id == null) {
+				id = classIds2class.size();
+				class2id.put(clazz, id);
+				classIds2class.add(clazz);
+				propertyNames.add(null);
+			}
+			return id;
+		}
+
+		private void addSlot(long slot) {
+			if (slotCount == slots.length) {
+				slots = Arrays.copyOf(slots, slotCount * 2);
+			}
+			slots[slotCount++] = slot;
+		}
+
+		private static Object copyArray(Object array) {
+			if (array instanceof int[]) {
+				return ((int[]) array).clone();
+			} else if (array instanceof long[]) {
+				return ((long[]) array).clone();
+			} else if (array instanceof byte[]) {
+				return ((byte[]) array).clone();
+			} else if (array instanceof short[]) {
+				return ((short[]) array).clone();
+			} else if (array instanceof char[]) {
+				return ((char[]) array).clone();
+			} else if (array instanceof double[]) {
+				return ((double[]) array).clone();
+			} else if (array instanceof float[]) {
+				return ((float[]) array).clone();
+			}
+			return ((boolean[]) array).clone();
+		}
+
+		/**
+		 * Fills the nodes in the order of their ids until the whole graph
+		 * is captured, so the slots of every node are contiguous.
+		 */
+		void run() throws IntrospectionException,
+				ReflectiveOperationException {
+			for (int id = 0; !pending.isEmpty(); id++) {
+				slotStarts[id] = slotCount;
+				kinds[id] = fill(pending.poll(), id);
+			}
+		}
+
+		private byte fill(Object o, int id) throws IntrospectionException,
+				ReflectiveOperationException {
+			if (config.isUninitialized(o)) {
+				return UNINITIALIZED;
+			}
+			ClassPlan plan = config.getPlan(o.getClass());
+			PathFilter.State path = paths != null ? paths.get(id) : null;
+			PathFilter.State elements = path != null ? path.element() : null;
+			switch (plan.getKind()) {
+			case COLLECTION:
+				for (Object item : (Collection<?>) o) {
+					long slot = value(item, elements);
+					if (slot != PRUNED) {
+						addSlot(slot);
+					}
+				}
+				return COLLECTION;
+			case MAP:
+				PathFilter.State keys = path != null ? path.key() : null;
+				for (Entry<?, ?> entry : ((Map<?, ?>) o).entrySet()) {
+					long key = value(entry.getKey(), keys);
+					long value = key != PRUNED
+							? value(entry.getValue(), elements)
+							: PRUNED;
+					if (value != PRUNED) {
+						addSlot(key);
+						addSlot(value);
+					}
+				}
+				return MAP;
+			case ARRAY:
+				for (Object element : (Object[]) o) {
+					long slot = value(element, elements);
+					addSlot(slot != PRUNED ? slot : 0);
+				}
+				return ARRAY;
+			default:
+				break;
+			}
+			switch (plan.getConstruction()) {
+			case GENERATOR:
+				addSlot(addValue(plan.getConstructorGenerator().apply(o)));
+				return CUSTOM;
+			case NONE:
+				// the writer writes null without reading the properties
+				return NO_CONSTRUCTOR;
+			default:
+				break;
+			}
+			List<PropertyPlan> all = plan.getProperties(false);
+			int classId = classIds[id];
+			if (propertyNames.get(classId) == null) {
+				String[] names = new String[all.size()];
+				for (int i = 0; i < names.length; i++) {
+					names[i] = all.get(i).getName();
+				}
+				propertyNames.set(classId, names);
+			}
+			int start = slotCount;
+			for (int i = 0; i < all.size(); i++) {
+				addSlot(0);
+			}
+			for (PropertyPlan property : plan
+					.getProperties(onlyPropertiesWithMatchingField)) {
+				PathFilter.State propertyPath = path != null
+						? path.property(property.getName())
+						: null;
+				long slot;
+				if (propertyPath != null
+						&& propertyPath.prunes(property.getType())) {
+					slot = PRUNED;
+				} else if (property.getKind() != Kind.PRIMITIVE) {
+					Object value = property.getAccessor().get(o);
+					// a property that is not loaded is skipped like null
+					slot = config.isUninitialized(value) ? 0
+							: value(value, propertyPath);
+				} else if (propertyPath == null
+						|| propertyPath.accept(property.getType()) != null) {
+					slot = property.getPrimitive(o);
+				} else {
+					slot = PRUNED;
+				}
+				if (slot == PRUNED) {
+					// a skipped object is written like null
+					prunedSlots.set(start + property.getIndex());
+				} else {
+					slots[start + property.getIndex()] = slot;
+				}
+			}
+			return BEAN;
+		}
+	}
+
+	/**
+	 * The nodes of one writing of the graph. The writer recognizes back
+	 * references by the identity of the nodes, so every node has exactly one
+	 * {@link Node} per writing. They are created when the writer reaches
+	 * them.
+	 */
+	private final class Nodes {
+		private final Node[] nodes = new Node[kinds.length];
+
+		/**
+		 * @return null, a value or the node of the reference
+		 */
+		Object value(long reference) {
+			if (reference == 0) {
+				return null;
+			}
+			if (reference < 0) {
+				return values[(int) (-reference - 1)];
+			}
+			int id = (int) (reference - 1);
+			Node node = nodes[id];
+			if (node == null) {
+				node = new Node(this, id);
+				nodes[id] = node;
+			}
+			return node;
+		}
+
+		CapturedGraph graph() {
+			return CapturedGraph.this;
+		}
+	}
+
+	/**
+	 * A captured bean, collection, map or object array while it is written.
+	 */
+	static final class Node {
+		private final Nodes nodes;
+		private final int id;
+
+		private Node(Nodes nodes, int id) {
+			this.nodes = nodes;
+			this.id = id;
+		}
+
+		/**
+		 * @return the class of the captured object
+		 */
+		Class<?> getType() {
+			CapturedGraph graph = nodes.graph();
+			return graph.classes[graph.classIds[id]];
+		}
+
+		/**
+		 * @return the amount of items, entries or elements
+		 */
+		int getSize() {
+			CapturedGraph graph = nodes.graph();
+			int slots = graph.slotStarts[id + 1] - graph.slotStarts[id];
+			return graph.kinds[id] == MAP ? slots / 2 : slots;
+		}
+
+		/**
+		 * @return the items, the keys and values alternating, the elements or
+		 *         the values of the properties by their index
+		 */
+		List<Object> getValues() {
+			CapturedGraph graph = nodes.graph();
+			int start = graph.slotStarts[id];
+			int size = graph.slotStarts[id + 1] - start;
+			return new AbstractList<Object>() {
+				@Override
+				public Object get(int index) {
+					return nodes.value(graph.slots[start + index]);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+
+		/**
+		 * @return the value of a primitive property of a bean
+		 */
+		long getPrimitive(PropertyPlan property) {
+			CapturedGraph graph = nodes.graph();
+			return graph.slots[graph.slotStarts[id] + property.getIndex()];
+		}
+
+		/**
+		 * @return true if the path filter skipped the property of a bean
+		 */
+		boolean isPruned(PropertyPlan property) {
+			CapturedGraph graph = nodes.graph();
+			return graph.prunedSlots
+					.get(graph.slotStarts[id] + property.getIndex());
+		}
+
+		/**
+		 * @return the code of the custom constructor or null
+		 */
+		String getConstructorCode() {
+			CapturedGraph graph = nodes.graph();
+			return graph.kinds[id] == CUSTOM
+					? (String) nodes.value(graph.slots[graph.slotStarts[id]])
+					: null;
+		}
+
+		/**
+		 * @return true if the captured object is a lazy association that was
+		 *         not loaded
+		 */
+		boolean isUninitialized() {
+			return nodes.graph().kinds[id] == UNINITIALIZED;
+		}
+
+		/**
+		 * @return false if the bean has no no-args constructor
+		 */
+		boolean isConstructible() {
+			return nodes.graph().kinds[id] != NO_CONSTRUCTOR;
+		}
+	}
+
+	/**
+	 * Discards the code, only its length is counted.
+	 */
+	private static final class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			// discard
+		}
+
+		@Override
+		public void flush() {
+			// nothing to flush
+		}
+
+		@Override
+		public void close() {
+			// nothing to close
+		}
+	}
+}
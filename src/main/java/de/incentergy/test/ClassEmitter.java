@@ -0,0 +1,179 @@
+package de.incentergy.test;
+
+import java.io.IOException;
+
+/**
+ * Writes the statements of an object graph as a complete class. The
+ * statements are split into private static methods with at most
+ * {@link SerializerConfig#getMaxStatementsPerMethod()} statements and about
+ * {@link #MAX_METHOD_CHARS} chars, so no method hits the 64KB limit of the
+ * JVM and all of them stay small enough to be compiled by the JIT. All variables become static fields, so every method
+ * can reference the variables of the methods before it. The root is returned
+ * by the public static build() method:
+ *
+ * <pre>
+ * package com.example;
+ *
+ * public class Fixture {
+ *
+ * 	private static void build0() {
+ * 		testBean0 = new de.incentergy.test.TestBean();
+ * 		...
+ * 	}
+ *
+ * 	public static de.incentergy.test.TestBean build() {
+ * 		build0();
+ * 		return testBean0;
+ * 	}
+ *
+ * 	private static de.incentergy.test.TestBean testBean0;
+ * }
+ * </pre>
+ *
+ * The fields are collected while the methods are written and are written at
+ * the end of the class.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class ClassEmitter {
+
+	/**
+	 * The amount of chars after which a method is ended. A char of a
+	 * statement compiles to at most about two bytes, e.g. an element of an
+	 * int array literal, so a method stays far below 64KB of byte code.
+	 */
+	static final int MAX_METHOD_CHARS = 16384;
+
+	private final String packageName;
+
+	private final String simpleName;
+
+	private final int maxStatementsPerMethod;
+
+	private final StringBuilder fields = new StringBuilder();
+
+	private int methods;
+
+	private int statements;
+
+	/**
+	 * The position of the target where the current method started
+	 */
+	private long methodStart;
+
+	private boolean methodOpen;
+
+	/**
+	 * Creates an emitter for a class.
+	 *
+	 * @param className
+	 *            the fully qualified name of the class
+	 * @param maxStatementsPerMethod
+	 *            the maximal amount of statements in one method
+	 */
+	ClassEmitter(String className, int maxStatementsPerMethod) {
+		if (className == null || className.isEmpty()) {
+			throw new IllegalArgumentException("The class name is empty");
+		}
+		int dot = className.lastIndexOf('.');
+		this.packageName = dot < 0 ? null : className.substring(0, dot);
+		this.simpleName = className.substring(dot + 1);
+		this.maxStatementsPerMethod = maxStatementsPerMethod;
+	}
+
+	/**
+	 * Writes the package and the start of the class.
+	 */
+	void beginClass(CodeWriter out) throws IOException {
+		if (packageName != null) {
+			out.append("package ").append(packageName).append(";\n\n");
+		}
+		out.append("public class ").append(simpleName).append(" {\n");
+	}
+
+	/**
+	 * Starts a new method if needed and indents the statement.
+	 */
+	void beginStatement(CodeWriter out) throws IOException {
+		if (!methodOpen) {
+			out.append("\n\tprivate static void build").append(methods++)
+					.append("() {\n");
+			methodOpen = true;
+			statements = 0;
+			methodStart = out.getPosition();
+		}
+		out.append("\t\t");
+	}
+
+	/**
+	 * Ends the current method if it has enough statements or chars.
+	 */
+	void endStatement(CodeWriter out) throws IOException {
+		if (++statements >= maxStatementsPerMethod
+				|| out.getPosition() - methodStart >= MAX_METHOD_CHARS) {
+			endMethod(out);
+		}
+	}
+
+	private void endMethod(CodeWriter out) throws IOException {
+		if (methodOpen) {
+			out.append("\t}\n");
+			methodOpen = false;
+		}
+	}
+
+	/**
+	 * Adds a static field for a variable.
+	 *
+	 * @param type
+	 *            the type of the variable
+	 * @param name
+	 *            the name of the variable
+	 */
+	void declareField(String type, String name) {
+		fields.append("\tprivate static ").append(type).append(' ')
+				.append(name).append(";\n");
+	}
+
+	/**
+	 * Adds a static final field for a constant.
+	 *
+	 * @param type
+	 *            the type of the constant
+	 * @param name
+	 *            the name of the constant
+	 * @param code
+	 *            the literal of the constant
+	 */
+	void declareConstant(String type, String name, String code) {
+		fields.append("\tprivate static final ").append(type).append(' ')
+				.append(name).append(" = ").append(code).append(";\n");
+	}
+
+	/**
+	 * Writes the build() method that calls all other methods, the fields and
+	 * the end of the class.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param type
+	 *            the return type of build()
+	 * @param root
+	 *            the variable or literal of the root
+	 */
+	void endClass(CodeWriter out, String type, String root)
+			throws IOException {
+		endMethod(out);
+		out.append("\n\tpublic static ").append(type).append(" build() {\n");
+		for (int i = 0; i < methods; i++) {
+			out.append("\t\tbuild").append(i).append("();\n");
+		}
+		out.append("\t\treturn ").append(root).append(";\n\t}\n");
+		if (fields.length() > 0) {
+			out.append('\n').append(fields.toString());
+		}
+		out.append("}\n");
+	}
+}
@@ -0,0 +1,679 @@
+package de.incentergy.test;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Vector;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * The serialization plan of a class. It is computed once per class and
+ * configuration, see {@link SerializerConfig#getPlan(Class)}, and contains
+ * everything the {@link Object2CodeObjectOutputStream} needs to know
+ * about a class: how values of this class are written and which properties
+ * have to be visited for beans.
+ *
+ * In field access mode the properties of a bean are its fields instead of
+ * the properties of the bean introspection, see
+ * {@link SerializerConfig.Builder#fieldAccess(boolean)}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class ClassPlan {
+
+	private static final Logger log = Logger
+			.getLogger(ClassPlan.class.getName());
+
+	/**
+	 * How a value is written to the code.
+	 */
+	enum Kind {
+		/**
+		 * Primitives, boxed primitives and BigDecimal, written as literal
+		 */
+		PRIMITIVE,
+		/**
+		 * Strings, written as literal
+		 */
+		STRING,
+		/**
+		 * Enums, written as constant reference
+		 */
+		ENUM,
+		/**
+		 * Arrays, written as variable with an array literal or with element
+		 * assignments
+		 */
+		ARRAY,
+		/**
+		 * Collections, written as variable with add statements
+		 */
+		COLLECTION,
+		/**
+		 * Maps, written as variable with put statements
+		 */
+		MAP,
+		/**
+		 * Classes, they are never written
+		 */
+		CLASS,
+		/**
+		 * Everything else, written as variable with setter statements
+		 */
+		BEAN
+	}
+
+	/**
+	 * How a bean is created.
+	 */
+	enum Construction {
+		/**
+		 * With the code of a custom constructor generator
+		 */
+		GENERATOR,
+		/**
+		 * With the public no-args constructor
+		 */
+		NO_ARGS_CONSTRUCTOR,
+		/**
+		 * It can not be created, it is written as null
+		 */
+		NONE
+	}
+
+	private final Class<?> type;
+
+	private final Kind kind;
+
+	/**
+	 * The custom constructor generator of the class or of its nearest super
+	 * type or null
+	 */
+	private final Function<Object, String> constructorGenerator;
+
+	/**
+	 * The type of the variables, the type the constructor generator was
+	 * added for because its code only creates an instance of that type
+	 */
+	private final Class<?> variableType;
+
+	private final Construction construction;
+
+	private final String variableNamePrefix;
+
+	/**
+	 * If the collection or map is created with its initial capacity
+	 */
+	private final boolean capacityConstructor;
+
+	/**
+	 * The collections and maps whose int constructor takes the initial
+	 * capacity. All of them accept 0. The int constructor of other classes
+	 * may take a bound, e.g. LinkedBlockingQueue, or reject 0, e.g.
+	 * PriorityQueue, so they are created with their no-args constructor.
+	 */
+	private static final Set<Class<?>> CAPACITY_CONSTRUCTORS = new HashSet<>(
+			Arrays.asList(ArrayList.class, HashMap.class, LinkedHashMap.class,
+					HashSet.class, LinkedHashSet.class, ArrayDeque.class,
+					Vector.class, Hashtable.class, IdentityHashMap.class));
+
+	/**
+	 * The names of the only properties that should be written or null
+	 */
+	private final Set<String> includes;
+
+	/**
+	 * If the fields are read instead of the getters
+	 */
+	private final boolean fieldAccess;
+
+	/**
+	 * The lazily introspected properties of the class. Only beans need them.
+	 */
+	private volatile Properties properties;
+
+	/**
+	 * The lazily read default values of the properties
+	 */
+	private volatile Defaults defaults;
+
+	/**
+	 * Creates the plan for a class.
+	 *
+	 * @param type
+	 *            the class
+	 * @param includes
+	 *            the names of the only properties that should be written or
+	 *            null if all properties should be written
+	 * @param fieldAccess
+	 *            if the fields are read instead of the getters
+	 * @param constructorGenerator
+	 *            the resolved custom constructor generator or null
+	 * @param generatorType
+	 *            the type the generator was added for, the class itself or
+	 *            one of its super types, or null
+	 */
+	ClassPlan(Class<?> type, Set<String> includes, boolean fieldAccess,
+			Function<Object, String> constructorGenerator,
+			Class<?> generatorType) {
+		this.type = type;
+		this.includes = includes;
+		this.fieldAccess = fieldAccess;
+		this.kind = kindOf(type);
+		this.constructorGenerator = constructorGenerator;
+		this.variableType = constructorGenerator != null ? generatorType
+				: type;
+		if (constructorGenerator != null) {
+			this.construction = Construction.GENERATOR;
+		} else if ((kind == Kind.BEAN || kind == Kind.CLASS)
+				&& hasNoArgsConstructor(type)) {
+			this.construction = Construction.NO_ARGS_CONSTRUCTOR;
+		} else {
+			this.construction = Construction.NONE;
+		}
+		this.variableNamePrefix = variableNamePrefix(type);
+		this.capacityConstructor = CAPACITY_CONSTRUCTORS.contains(type);
+	}
+
+	private static boolean hasNoArgsConstructor(Class<?> type) {
+		try {
+			type.getConstructor();
+			return true;
+		} catch (NoSuchMethodException | SecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Determines how values of the given class are written.
+	 *
+	 * @param clazz
+	 *            the class to check
+	 * @return the kind of the class
+	 */
+	static Kind kindOf(Class<?> clazz) {
+		if (clazz.isPrimitive() || clazz == Integer.class
+				|| clazz == Byte.class || clazz == Boolean.class
+				|| clazz == Short.class || clazz == Long.class
+				|| clazz == Double.class || clazz == Float.class
+				|| clazz == BigDecimal.class || clazz == Character.class) {
+			return Kind.PRIMITIVE;
+		} else if (clazz == String.class) {
+			return Kind.STRING;
+		} else if (clazz.isEnum()) {
+			return Kind.ENUM;
+		} else if (clazz.isArray()) {
+			return Kind.ARRAY;
+		} else if (Collection.class.isAssignableFrom(clazz)) {
+			return Kind.COLLECTION;
+		} else if (Map.class.isAssignableFrom(clazz)) {
+			return Kind.MAP;
+		} else if (clazz == Class.class) {
+			return Kind.CLASS;
+		}
+		return Kind.BEAN;
+	}
+
+	/**
+	 * The prefix of an array is the prefix of its component type followed by
+	 * Array e.g. intArray or testBeanArrayArray.
+	 */
+	private static String variableNamePrefix(Class<?> type) {
+		if (type.isArray()) {
+			return variableNamePrefix(type.getComponentType()) + "Array";
+		}
+		return Introspector.decapitalize(type.getSimpleName());
+	}
+
+	Class<?> getType() {
+		return type;
+	}
+
+	Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the custom constructor generator of the class or of its
+	 *         nearest super type or null
+	 */
+	Function<Object, String> getConstructorGenerator() {
+		return constructorGenerator;
+	}
+
+	/**
+	 * @return the type the variables of this class are declared with
+	 */
+	Class<?> getVariableType() {
+		return variableType;
+	}
+
+	/**
+	 * @return how a bean of this class is created
+	 */
+	Construction getConstruction() {
+		return construction;
+	}
+
+	/**
+	 * Returns the argument for the capacity constructor of a collection or
+	 * map, hash based collections and maps get room for the default load
+	 * factor. IdentityHashMap takes the expected size.
+	 *
+	 * @param size
+	 *            the amount of items or entries
+	 * @return the initial capacity or -1 if the class has no capacity
+	 *         constructor
+	 */
+	int getInitialCapacity(int size) {
+		if (!capacityConstructor) {
+			return -1;
+		}
+		if (type != IdentityHashMap.class && (kind == Kind.MAP
+				|| Set.class.isAssignableFrom(type))) {
+			return (int) Math.min(Integer.MAX_VALUE, size * 4L / 3 + 1);
+		}
+		return size;
+	}
+
+	/**
+	 * @return the decapitalized simple name used to build variable names
+	 */
+	String getVariableNamePrefix() {
+		return variableNamePrefix;
+	}
+
+	/**
+	 * Returns the properties that should be written for this class in the
+	 * order of the bean introspection. In field access mode the fields are
+	 * returned, the fields of the super classes first.
+	 *
+	 * @param onlyPropertiesWithMatchingField
+	 *            only return properties that have a declared field with the
+	 *            same name, fields always match
+	 * @return the properties to write
+	 * @throws IntrospectionException
+	 *             if the class can not be introspected
+	 */
+	List<PropertyPlan> getProperties(boolean onlyPropertiesWithMatchingField)
+			throws IntrospectionException {
+		Properties p = properties;
+		if (p == null) {
+			p = fieldAccess ? Properties.ofFields(type, includes)
+					: new Properties(type, includes);
+			properties = p;
+		}
+		return onlyPropertiesWithMatchingField ? p.withMatchingField : p.all;
+	}
+
+	/**
+	 * @return true if the properties were already introspected
+	 */
+	boolean isIntrospected() {
+		return properties != null;
+	}
+
+	/**
+	 * Returns the default values of the properties. They are read once from
+	 * a prototype that is created with the no-args constructor.
+	 *
+	 * @return the defaults, if no prototype can be created no property has
+	 *         a default
+	 * @throws IntrospectionException
+	 *             if the class can not be introspected
+	 */
+	Defaults getDefaults() throws IntrospectionException {
+		Defaults d = defaults;
+		if (d == null) {
+			d = new Defaults(type, getProperties(false));
+			defaults = d;
+		}
+		return d;
+	}
+
+	/**
+	 * Holds the two filtered lists of properties.
+	 */
+	private static final class Properties {
+		private final List<PropertyPlan> all;
+		private final List<PropertyPlan> withMatchingField;
+
+		Properties(Class<?> clazz, Set<String> includes)
+				throws IntrospectionException {
+			BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+			List<PropertyPlan> all = new ArrayList<>();
+			List<PropertyPlan> withMatchingField = new ArrayList<>();
+			for (PropertyDescriptor propertyDescriptor : beanInfo
+					.getPropertyDescriptors()) {
+				String name = propertyDescriptor.getName();
+				// if we should only include certain fields
+				// check if the current field should be included
+				if (includes != null && !includes.contains(name)) {
+					continue;
+				}
+				Class<?> propertyClass = propertyDescriptor.getPropertyType();
+				if (propertyClass == Class.class) {
+					continue;
+				}
+				Method readMethod = propertyDescriptor.getReadMethod();
+				if (readMethod == null) {
+					log.warning("Could not find read Method for: " + name);
+					continue;
+				}
+				PropertyPlan propertyPlan = new PropertyPlan(all.size(), name,
+						propertyClass, readMethod,
+						propertyDescriptor.getWriteMethod());
+				all.add(propertyPlan);
+				try {
+					clazz.getDeclaredField(name);
+					withMatchingField.add(propertyPlan);
+				} catch (NoSuchFieldException e) {
+					log.info("Skipping method without matching field: "
+							+ name);
+				}
+			}
+			this.all = Collections.unmodifiableList(all);
+			this.withMatchingField = Collections
+					.unmodifiableList(withMatchingField);
+		}
+
+		private Properties(List<PropertyPlan> all,
+				List<PropertyPlan> withMatchingField) {
+			this.all = all;
+			this.withMatchingField = withMatchingField;
+		}
+
+		/**
+		 * Collects the fields of the class and its super classes. Static,
+		 * transient and synthetic fields are skipped. A field is written
+		 * with its setter if it has one, otherwise it is assigned with
+		 * reflection.
+		 */
+		static Properties ofFields(Class<?> clazz, Set<String> includes) {
+			// walk up from the class, so a field that is hidden by a field
+			// of a sub class is known and does not get the setter of the
+			// sub class
+			List<Class<?>> hierarchy = new ArrayList<>();
+			Set<String> names = new HashSet<>();
+			Set<Field> hidden = new HashSet<>();
+			for (Class<?> c = clazz; c != null
+					&& c != Object.class; c = c.getSuperclass()) {
+				hierarchy.add(c);
+				for (Field field : c.getDeclaredFields()) {
+					if (!names.add(field.getName())) {
+						hidden.add(field);
+					}
+				}
+			}
+			List<PropertyPlan> all = new ArrayList<>();
+			for (int i = hierarchy.size() - 1; i >= 0; i--) {
+				for (Field field : hierarchy.get(i).getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers)
+							|| Modifier.isTransient(modifiers)
+							|| field.isSynthetic()
+							|| field.getType() == Class.class
+							|| includes != null
+									&& !includes.contains(field.getName())) {
+						continue;
+					}
+					try {
+						all.add(new PropertyPlan(all.size(), field,
+								hidden.contains(field) ? null
+										: setter(clazz, field)));
+					} catch (IllegalAccessException e) {
+						log.warning("Could not read field: " + field + " "
+								+ e);
+					}
+				}
+			}
+			List<PropertyPlan> fields = Collections.unmodifiableList(all);
+			return new Properties(fields, fields);
+		}
+
+		private static Method setter(Class<?> clazz, Field field) {
+			String name = field.getName();
+			try {
+				return clazz.getMethod("set"
+						+ Character.toUpperCase(name.charAt(0))
+						+ name.substring(1), field.getType());
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * The values of the properties of a freshly constructed instance. Only
+	 * primitive properties and immutable values i.e. Strings, boxed values,
+	 * BigDecimals and enums are known, a setter for any other value is never
+	 * skipped because its identity may matter.
+	 */
+	static final class Defaults {
+		private final boolean[] known;
+		private final long[] primitives;
+		private final Object[] values;
+
+		Defaults(Class<?> type, List<PropertyPlan> properties) {
+			int size = properties.size();
+			known = new boolean[size];
+			primitives = new long[size];
+			values = new Object[size];
+			Object prototype;
+			try {
+				prototype = type.getConstructor().newInstance();
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				log.fine("Could not create a prototype of " + type.getName()
+						+ ": " + e);
+				return;
+			}
+			for (PropertyPlan property : properties) {
+				int i = property.getIndex();
+				try {
+					if (property.getKind() == Kind.PRIMITIVE) {
+						primitives[i] = property.getPrimitive(prototype);
+						known[i] = true;
+					} else {
+						Object value = property.getAccessor().get(prototype);
+						Kind kind = value == null ? null
+								: kindOf(value.getClass());
+						if (kind == null || kind == Kind.PRIMITIVE
+								|| kind == Kind.STRING || kind == Kind.ENUM) {
+							values[i] = value;
+							known[i] = true;
+						}
+					}
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					log.fine("Could not read the default of "
+							+ property.getName() + ": " + e);
+				}
+			}
+		}
+
+		/**
+		 * Checks if a primitive value is the default.
+		 *
+		 * @param property
+		 *            the primitive property
+		 * @param value
+		 *            the value as returned by
+		 *            {@link PropertyPlan#getPrimitive(Object)}
+		 * @return true if the value is the default
+		 */
+		boolean isDefault(PropertyPlan property, long value) {
+			int i = property.getIndex();
+			return known[i] && primitives[i] == value;
+		}
+
+		/**
+		 * Checks if a value is the default.
+		 *
+		 * @param property
+		 *            the property
+		 * @param value
+		 *            the value of the property
+		 * @return true if the value is the default
+		 */
+		boolean isDefault(PropertyPlan property, Object value) {
+			int i = property.getIndex();
+			return known[i] && Objects.equals(values[i], value);
+		}
+	}
+
+	/**
+	 * A single property of a bean with its resolved accessors.
+	 */
+	static final class PropertyPlan {
+		private final int index;
+		private final String name;
+		private final Class<?> type;
+		private final Kind kind;
+		private final Method readMethod;
+		private final Field field;
+		private final PropertyAccessor accessor;
+		private final Method writeMethod;
+
+		PropertyPlan(int index, String name, Class<?> type,
+				Method readMethod, Method writeMethod) {
+			this(index, name, type, readMethod, null,
+					PropertyAccessor.of(readMethod), writeMethod);
+		}
+
+		/**
+		 * Creates a property that is read from a field.
+		 *
+		 * @throws IllegalAccessException
+		 *             if the field can not be made accessible
+		 */
+		PropertyPlan(int index, Field field, Method writeMethod)
+				throws IllegalAccessException {
+			this(index, field.getName(), field.getType(), null, field,
+					PropertyAccessor.of(field), writeMethod);
+		}
+
+		private PropertyPlan(int index, String name, Class<?> type,
+				Method readMethod, Field field, PropertyAccessor accessor,
+				Method writeMethod) {
+			this.index = index;
+			this.name = name;
+			this.type = type;
+			if (type.isPrimitive()) {
+				this.kind = Kind.PRIMITIVE;
+			} else if (type == String.class) {
+				this.kind = Kind.STRING;
+			} else if (Collection.class.isAssignableFrom(type)) {
+				this.kind = Kind.COLLECTION;
+			} else if (Map.class.isAssignableFrom(type)) {
+				this.kind = Kind.MAP;
+			} else {
+				// the runtime value decides how it is written
+				this.kind = Kind.BEAN;
+			}
+			this.readMethod = readMethod;
+			this.field = field;
+			this.accessor = accessor;
+			this.writeMethod = writeMethod;
+		}
+
+		/**
+		 * @return the position of the property in all properties of the
+		 *         class
+		 */
+		int getIndex() {
+			return index;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		Class<?> getType() {
+			return type;
+		}
+
+		/**
+		 * @return the kind of the declared type of the property, for
+		 *         {@link Kind#BEAN} the kind of the runtime value decides
+		 */
+		Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return the getter or null if the field is read
+		 */
+		Method getReadMethod() {
+			return readMethod;
+		}
+
+		/**
+		 * @return the field in field access mode or null
+		 */
+		Field getField() {
+			return field;
+		}
+
+		/**
+		 * Reads a primitive property without boxing it. The value is
+		 * returned as long: int, short, byte and char are widened, float and
+		 * double are the raw bits of the double and boolean is 1 or 0.
+		 *
+		 * @param bean
+		 *            the bean to read from
+		 * @return the value as long
+		 * @throws InvocationTargetException
+		 *             if the getter throws an exception
+		 * @throws IllegalAccessException
+		 *             if the getter is not accessible
+		 */
+		long getPrimitive(Object bean)
+				throws InvocationTargetException, IllegalAccessException {
+			if (type == Long.TYPE) {
+				return accessor.getLong(bean);
+			} else if (type == Double.TYPE || type == Float.TYPE) {
+				return Double.doubleToRawLongBits(accessor.getDouble(bean));
+			} else if (type == Boolean.TYPE) {
+				return accessor.getBoolean(bean) ? 1 : 0;
+			}
+			return accessor.getInt(bean);
+		}
+
+		/**
+		 * @return the bound getter of the property
+		 */
+		PropertyAccessor getAccessor() {
+			return accessor;
+		}
+
+		/**
+		 * @return the write method or null if there is none
+		 */
+		Method getWriteMethod() {
+			return writeMethod;
+		}
+	}
+}
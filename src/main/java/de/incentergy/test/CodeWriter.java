@@ -0,0 +1,285 @@
+package de.incentergy.test;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Collects the generated code in a reusable char buffer and hands it to the
+ * target in large chunks. The target can be an {@link OutputStream}, then the
+ * chars are encoded with an explicit charset, a {@link Writer} or any other
+ * {@link Appendable}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class CodeWriter implements Closeable, Flushable {
+
+	/**
+	 * The default amount of chars that are collected before they are written
+	 * to the target.
+	 */
+	static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+
+	private final char[] buffer;
+
+	private int count;
+
+	/**
+	 * The amount of chars that were handed to the target
+	 */
+	private long drained;
+
+	private final OutputStream out;
+
+	private final CharsetEncoder encoder;
+
+	private final ByteBuffer bytes;
+
+	private final Writer writer;
+
+	private final Appendable appendable;
+
+	/**
+	 * Creates a CodeWriter that encodes the code with the given charset.
+	 *
+	 * @param out
+	 *            the stream to write the encoded code to
+	 * @param charset
+	 *            the charset to use
+	 * @param flushThreshold
+	 *            how many chars are collected before they are written
+	 */
+	CodeWriter(OutputStream out, Charset charset, int flushThreshold) {
+		this.buffer = new char[checkThreshold(flushThreshold)];
+		this.out = out;
+		this.encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(
+				(int) Math.ceil(flushThreshold * encoder.maxBytesPerChar()));
+		this.writer = null;
+		this.appendable = null;
+	}
+
+	/**
+	 * Creates a CodeWriter that appends the code to the given Appendable.
+	 *
+	 * @param appendable
+	 *            the target, if it is a Writer the chars are written in bulk
+	 * @param flushThreshold
+	 *            how many chars are collected before they are written
+	 */
+	CodeWriter(Appendable appendable, int flushThreshold) {
+		this.buffer = new char[checkThreshold(flushThreshold)];
+		this.out = null;
+		this.encoder = null;
+		this.bytes = null;
+		if (appendable instanceof Writer) {
+			this.writer = (Writer) appendable;
+			this.appendable = null;
+		} else {
+			this.writer = null;
+			this.appendable = appendable;
+		}
+	}
+
+	private static int checkThreshold(int flushThreshold) {
+		if (flushThreshold < 16) {
+			throw new IllegalArgumentException(
+					"The flush threshold must be at least 16 but was "
+							+ flushThreshold);
+		}
+		return flushThreshold;
+	}
+
+	/**
+	 * Appends a string.
+	 *
+	 * @param s
+	 *            the string to append
+	 * @return this
+	 * @throws IOException
+	 *             if the buffer could not be written to the target
+	 */
+	CodeWriter append(String s) throws IOException {
+		int length = s.length();
+		int offset = 0;
+		while (offset < length) {
+			if (count == buffer.length) {
+				drain();
+			}
+			int n = Math.min(length - offset, buffer.length - count);
+			s.getChars(offset, offset + n, buffer, count);
+			count += n;
+			offset += n;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a single char.
+	 *
+	 * @param c
+	 *            the char to append
+	 * @return this
+	 * @throws IOException
+	 *             if the buffer could not be written to the target
+	 */
+	CodeWriter append(char c) throws IOException {
+		if (count == buffer.length) {
+			drain();
+		}
+		buffer[count++] = c;
+		return this;
+	}
+
+	/**
+	 * Appends an int without creating a string for it.
+	 *
+	 * @param i
+	 *            the int to append
+	 * @return this
+	 * @throws IOException
+	 *             if the buffer could not be written to the target
+	 */
+	CodeWriter append(int i) throws IOException {
+		if (i < 0) {
+			if (i == Integer.MIN_VALUE) {
+				return append(Integer.toString(i));
+			}
+			append('-');
+			i = -i;
+		}
+		if (i < 10) {
+			return append((char) ('0' + i));
+		}
+		// max 10 digits for a positive int
+		if (buffer.length - count < 10) {
+			drain();
+		}
+		int end = count + digits(i);
+		int position = end;
+		while (i != 0) {
+			buffer[--position] = (char) ('0' + i % 10);
+			i /= 10;
+		}
+		count = end;
+		return this;
+	}
+
+	private static int digits(int i) {
+		int digits = 1;
+		while (i >= 10) {
+			i /= 10;
+			digits++;
+		}
+		return digits;
+	}
+
+	/**
+	 * @return the amount of chars that were appended so far
+	 */
+	long getPosition() {
+		return drained + count;
+	}
+
+	/**
+	 * Writes the collected chars to the target. Chars that can not be encoded
+	 * yet e.g. the first half of a surrogate pair stay in the buffer.
+	 *
+	 * @throws IOException
+	 *             if the target can not be written
+	 */
+	void drain() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		if (writer != null) {
+			writer.write(buffer, 0, count);
+			drained += count;
+			count = 0;
+		} else if (appendable != null) {
+			appendable.append(CharBuffer.wrap(buffer, 0, count));
+			drained += count;
+			count = 0;
+		} else {
+			CharBuffer chars = CharBuffer.wrap(buffer, 0, count);
+			encode(chars, false);
+			// keep the chars that could not be encoded yet
+			int remaining = chars.remaining();
+			System.arraycopy(buffer, chars.position(), buffer, 0, remaining);
+			drained += count - remaining;
+			count = remaining;
+		}
+	}
+
+	private void encode(CharBuffer chars, boolean endOfInput)
+			throws IOException {
+		while (true) {
+			CoderResult result = encoder.encode(chars, bytes, endOfInput);
+			writeBytes();
+			if (result.isUnderflow()) {
+				break;
+			}
+		}
+	}
+
+	private void writeBytes() throws IOException {
+		if (bytes.position() > 0) {
+			out.write(bytes.array(), 0, bytes.position());
+			bytes.clear();
+		}
+	}
+
+	/**
+	 * Writes all collected chars to the target and flushes it.
+	 *
+	 * @throws IOException
+	 *             if the target can not be written
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		if (out != null) {
+			out.flush();
+		} else if (writer != null) {
+			writer.flush();
+		} else if (appendable instanceof Flushable) {
+			((Flushable) appendable).flush();
+		}
+	}
+
+	/**
+	 * Writes all collected chars to the target and closes it.
+	 *
+	 * @throws IOException
+	 *             if the target can not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		drain();
+		if (out != null) {
+			encode(CharBuffer.wrap(buffer, 0, count), true);
+			count = 0;
+			while (encoder.flush(bytes).isOverflow()) {
+				writeBytes();
+			}
+			writeBytes();
+			out.close();
+		} else if (writer != null) {
+			writer.close();
+		} else if (appendable instanceof Closeable) {
+			((Closeable) appendable).close();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package de.incentergy.test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts how often the literals of immutable values are written. A literal
+ * that is written as often as the threshold is hoisted into a constant and
+ * all later uses refer to the constant. The literals are compared by their
+ * code, so e.g. 1 and 1l are different constants.
+ *
+ * Only Strings, BigDecimals and boxed values that are not cached by the JVM
+ * anyway are pooled, see {@link #isPoolable(Object)}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class ConstantPool {
+
+	private final int threshold;
+
+	private final Map<String, Constant> constants = new HashMap<>();
+
+	/**
+	 * Counts the constants per type to number their names
+	 */
+	private final Map<Class<?>, int[]> clazz2count = new HashMap<>();
+
+	/**
+	 * Creates an empty pool.
+	 *
+	 * @param threshold
+	 *            how often a literal is written before it is hoisted
+	 */
+	ConstantPool(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Checks if the value should be pooled. Small integral values, chars
+	 * and booleans are not pooled because their boxes are cached by the JVM.
+	 *
+	 * @param value
+	 *            the value of a literal
+	 * @return true if the value should be pooled
+	 */
+	static boolean isPoolable(Object value) {
+		if (value instanceof String || value instanceof BigDecimal
+				|| value instanceof Double || value instanceof Float) {
+			return true;
+		} else if (value instanceof Integer || value instanceof Long
+				|| value instanceof Short) {
+			long l = ((Number) value).longValue();
+			return l < -128 || l > 127;
+		} else if (value instanceof Character) {
+			return (Character) value > 127;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts a use of a literal.
+	 *
+	 * @param value
+	 *            the value of the literal
+	 * @param code
+	 *            the code of the literal
+	 * @return the constant of the literal, it has no name as long as the
+	 *         literal is not hoisted
+	 */
+	Constant use(Object value, String code) {
+		Constant constant = constants.get(code);
+		if (constant == null) {
+			constant = new Constant();
+			constants.put(code, constant);
+		}
+		if (constant.name == null && ++constant.count >= threshold) {
+			constant.name = newName(value.getClass());
+			constant.undeclared = true;
+		}
+		return constant;
+	}
+
+	/**
+	 * Builds an upper case name from the simple name of the class e.g.
+	 * BIG_DECIMAL_0.
+	 */
+	private String newName(Class<?> type) {
+		int[] count = clazz2count.get(type);
+		if (count == null) {
+			count = new int[1];
+			clazz2count.put(type, count);
+		}
+		String simpleName = type.getSimpleName();
+		StringBuilder name = new StringBuilder(simpleName.length() + 4);
+		for (int i = 0; i < simpleName.length(); i++) {
+			char c = simpleName.charAt(i);
+			if (i > 0 && Character.isUpperCase(c)) {
+				name.append('_');
+			}
+			name.append(Character.toUpperCase(c));
+		}
+		return name.append('_').append(count[0]++).toString();
+	}
+
+	/**
+	 * A counted literal.
+	 */
+	static final class Constant {
+		private int count;
+		private String name;
+		private boolean undeclared;
+
+		/**
+		 * @return the name of the constant or null if the literal is not
+		 *         hoisted
+		 */
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * Checks if the constant still has to be declared. This returns true
+		 * only once, right after the literal was hoisted.
+		 *
+		 * @return true if the constant has to be declared
+		 */
+		boolean declare() {
+			boolean declare = undeclared;
+			undeclared = false;
+			return declare;
+		}
+	}
+}
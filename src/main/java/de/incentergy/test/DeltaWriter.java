@@ -0,0 +1,516 @@
+package de.incentergy.test;
+
+import java.beans.IntrospectionException;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import de.incentergy.test.ClassPlan.Kind;
+import de.incentergy.test.ClassPlan.PropertyPlan;
+
+/**
+ * Writes snapshots of the same graph incrementally. The first snapshot is
+ * written completely. Every later snapshot only writes the statements that
+ * turn the objects of the earlier snapshots into their current state, e.g.
+ *
+ * testBean0.setMyInt(5);
+ *
+ * list0.add(testBean3);
+ *
+ * The code of a later snapshot has to run after the code of the earlier
+ * snapshots in the same scope, because it uses their variables. New objects
+ * get new variables.
+ *
+ * After every snapshot a fingerprint of every written object is kept: the
+ * values of its properties, its items, its keys and values or its elements.
+ * Primitives are kept as long bits, objects by reference. An object changed
+ * if a value is neither the same object nor an equal String, boxed value,
+ * BigDecimal or enum. The fingerprints and the variables keep the written
+ * objects reachable as long as this writer is used. The writer of a snapshot
+ * takes over the variables of the writer before it, so the lookup of a
+ * variable does not depend on the amount of snapshots.
+ *
+ * The path filter of the configuration is applied to the changes as well.
+ * An object keeps the path on which it was compared first.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class DeltaWriter {
+
+	private static final Logger log = Logger
+			.getLogger(DeltaWriter.class.getName());
+
+	private final CodeWriter out;
+
+	private final SerializerConfig config;
+
+	private final boolean onlyPropertiesWithMatchingField;
+
+	/**
+	 * The fingerprints of all written objects
+	 */
+	private final Map<Object, Object[]> fingerprints = new IdentityHashMap<>();
+
+	/**
+	 * The states of the path filter for the content of the compared objects
+	 * or null if nothing is filtered
+	 */
+	private final Map<Object, PathFilter.State> paths;
+
+	/**
+	 * The writer of the last snapshot or null before the first snapshot
+	 */
+	private ObjectGraphWriter last;
+
+	/**
+	 * The writer of the current snapshot
+	 */
+	private ObjectGraphWriter writer;
+
+	/**
+	 * Creates a writer for the snapshots of a graph.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param config
+	 *            the configuration to use
+	 * @param onlyPropertiesWithMatchingField
+	 *            use only properties that have a corresponding field
+	 */
+	DeltaWriter(CodeWriter out, SerializerConfig config,
+			boolean onlyPropertiesWithMatchingField) {
+		this.out = out;
+		this.config = config;
+		this.onlyPropertiesWithMatchingField = onlyPropertiesWithMatchingField;
+		this.paths = config.getPathFilter() != null ? new IdentityHashMap<>()
+				: null;
+	}
+
+	/**
+	 * Checks if the snapshots were written with the given settings.
+	 */
+	boolean isCompatible(SerializerConfig config,
+			boolean onlyPropertiesWithMatchingField) {
+		return this.config == config
+				&& this.onlyPropertiesWithMatchingField == onlyPropertiesWithMatchingField;
+	}
+
+	/**
+	 * Writes the changes since the last snapshot.
+	 *
+	 * @param o
+	 *            the root of the graph
+	 * @return the name of the variable or the literal for the root
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	String write(Object o) throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		if (last == null) {
+			writer = new ObjectGraphWriter(out, config,
+					onlyPropertiesWithMatchingField);
+			// a cut object would never be written by a later snapshot
+			writer.setBudget(null);
+		} else {
+			writer = new ObjectGraphWriter(out, last);
+		}
+		// new objects are written completely, known objects are compared
+		String root = writer.write(o);
+		Deque<Object> queue = new ArrayDeque<>();
+		Set<Object> visited = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		if (paths != null && o != null) {
+			// the root is always written
+			paths.putIfAbsent(writer.process(o),
+					config.getPathFilter().start());
+		}
+		enqueue(queue, visited, o, null);
+		while (!queue.isEmpty()) {
+			Object current = queue.poll();
+			int variable = writer.find(current);
+			ClassPlan plan = config.getPlan(current.getClass());
+			PathFilter.State path = paths != null ? paths.get(current) : null;
+			Object[] before = fingerprints.get(current);
+			Object[] after;
+			switch (plan.getKind()) {
+			case BEAN:
+				after = bean(variable, plan, current, path, before);
+				break;
+			case COLLECTION:
+				after = collection(variable, (Collection<?>) current, path,
+						before);
+				break;
+			case MAP:
+				after = map(variable, (Map<?, ?>) current, path, before);
+				break;
+			case ARRAY:
+				after = array(variable, current, path, before);
+				break;
+			default:
+				continue;
+			}
+			fingerprints.put(current, after);
+			// primitives and other values have no variable and are skipped,
+			// skipped paths are null
+			for (int i = 0; i < after.length; i++) {
+				enqueue(queue, visited, after[i],
+						path != null ? childPath(plan, path, i) : null);
+			}
+		}
+		last = writer;
+		writer = null;
+		return root;
+	}
+
+	/**
+	 * Queues an object that has a variable and whose content was written.
+	 *
+	 * @param path
+	 *            the state of the path filter for the object if it was not
+	 *            compared before or null
+	 */
+	private void enqueue(Deque<Object> queue, Set<Object> visited,
+			Object o, PathFilter.State path) {
+		if (o == null) {
+			return;
+		}
+		o = writer.process(o);
+		if (o == null || config.getConstructorGenerator(o.getClass()) != null
+				|| writer.find(o) == IdentityIntMap.MISSING) {
+			return;
+		}
+		if (path != null && !paths.containsKey(o)) {
+			PathFilter.State content = path.accept(o.getClass());
+			if (content == null) {
+				return;
+			}
+			paths.put(o, content);
+		}
+		if (visited.add(o)) {
+			queue.add(o);
+		}
+	}
+
+	/**
+	 * Returns the state of the path filter for a value of a fingerprint.
+	 */
+	private PathFilter.State childPath(ClassPlan plan, PathFilter.State path,
+			int index) throws IntrospectionException {
+		switch (plan.getKind()) {
+		case BEAN:
+			return path.property(plan
+					.getProperties(onlyPropertiesWithMatchingField)
+					.get(index).getName());
+		case MAP:
+			return index % 2 == 0 ? path.key() : path.element();
+		default:
+			return path.element();
+		}
+	}
+
+	/**
+	 * Checks if the path filter skips a value.
+	 */
+	private boolean isPruned(Object value, PathFilter.State path) {
+		if (path == null) {
+			return false;
+		}
+		Object processed = writer.process(value);
+		return path.accept(
+				processed == null ? null : processed.getClass()) == null;
+	}
+
+	/**
+	 * Compares the properties of a bean and writes a setter for every
+	 * changed property.
+	 *
+	 * @return the fingerprint of the bean
+	 */
+	private Object[] bean(int variable, ClassPlan plan, Object bean,
+			PathFilter.State path, Object[] before) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		List<PropertyPlan> properties = plan
+				.getProperties(onlyPropertiesWithMatchingField);
+		Object[] after = new Object[properties.size()];
+		for (int i = 0; i < after.length; i++) {
+			PropertyPlan property = properties.get(i);
+			PathFilter.State propertyPath = path != null
+					? path.property(property.getName())
+					: null;
+			if (propertyPath != null
+					&& propertyPath.prunes(property.getType())) {
+				// the getter is not called
+				continue;
+			}
+			Object value = property.getKind() == Kind.PRIMITIVE
+					? (Object) property.getPrimitive(bean)
+					: property.getAccessor().get(bean);
+			if (property.getKind() == Kind.PRIMITIVE ? propertyPath != null
+					&& propertyPath.accept(property.getType()) == null
+					: config.isUninitialized(value)
+							|| isPruned(value, propertyPath)) {
+				// a property that is not loaded is not compared
+				continue;
+			}
+			after[i] = value;
+			if (before == null || same(before[i], value)) {
+				continue;
+			}
+			if (property.getWriteMethod() == null
+					&& property.getField() == null) {
+				log.warning("Can not find write method for: "
+						+ plan.getType().getName() + " "
+						+ property.getName());
+				continue;
+			}
+			// the primitive is formatted from the value that was compared
+			String code = property.getKind() == Kind.PRIMITIVE
+					? ObjectGraphWriter.formatPrimitive(property.getType(),
+							(Long) value)
+					: code(value, propertyPath);
+			String name = writer.getVariableName(variable);
+			if (property.getWriteMethod() == null) {
+				writer.writeStatement(variable,
+						FieldAccess.class.getName() + ".set(" + name + ", "
+								+ property.getField().getDeclaringClass()
+										.getCanonicalName()
+								+ ".class, \"" + property.getName() + "\", "
+								+ code + ")");
+			} else {
+				writer.writeStatement(variable, name + "."
+						+ property.getWriteMethod().getName() + "(" + code
+						+ ")");
+			}
+		}
+		return after;
+	}
+
+	/**
+	 * Compares the items of a collection. If items were only appended they
+	 * are added, a set gets remove and add statements, any other collection
+	 * is cleared and filled again.
+	 *
+	 * @return the fingerprint of the collection
+	 */
+	private Object[] collection(int variable, Collection<?> collection,
+			PathFilter.State path, Object[] before) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		PathFilter.State items = path != null ? path.element() : null;
+		Object[] after = collection.toArray();
+		if (items != null) {
+			int size = 0;
+			for (Object item : after) {
+				if (!isPruned(item, items)) {
+					after[size++] = item;
+				}
+			}
+			after = Arrays.copyOf(after, size);
+		}
+		if (before == null || same(before, after)) {
+			return after;
+		}
+		String name = writer.getVariableName(variable);
+		int from;
+		if (isPrefix(before, after)) {
+			from = before.length;
+		} else if (collection instanceof Set) {
+			Members current = new Members(after);
+			Members earlier = new Members(before);
+			for (Object item : before) {
+				if (!current.contains(item)) {
+					writer.writeStatement(variable,
+							name + ".remove(" + code(item, items) + ")");
+				}
+			}
+			for (Object item : after) {
+				if (!earlier.contains(item)) {
+					add(variable, name, item, items);
+				}
+			}
+			return after;
+		} else {
+			writer.writeStatement(variable, name + ".clear()");
+			from = 0;
+		}
+		for (int i = from; i < after.length; i++) {
+			add(variable, name, after[i], items);
+		}
+		return after;
+	}
+
+	private void add(int variable, String name, Object item,
+			PathFilter.State path) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		String code = code(item, path);
+		writer.writeStatement(variable, name + ".add(" + code + ")");
+	}
+
+	/**
+	 * Compares the entries of a map and writes put and remove statements.
+	 *
+	 * @return the fingerprint of the map, the keys and values alternating
+	 */
+	private Object[] map(int variable, Map<?, ?> map, PathFilter.State path,
+			Object[] before) throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		PathFilter.State keys = path != null ? path.key() : null;
+		PathFilter.State values = path != null ? path.element() : null;
+		Object[] after = new Object[map.size() * 2];
+		int i = 0;
+		for (Entry<?, ?> entry : map.entrySet()) {
+			if (isPruned(entry.getKey(), keys)
+					|| isPruned(entry.getValue(), values)) {
+				continue;
+			}
+			after[i++] = entry.getKey();
+			after[i++] = entry.getValue();
+		}
+		if (i < after.length) {
+			after = Arrays.copyOf(after, i);
+		}
+		if (before == null || same(before, after)) {
+			return after;
+		}
+		String name = writer.getVariableName(variable);
+		Map<Object, Object> earlier = new HashMap<>();
+		for (int j = 0; j < before.length; j += 2) {
+			earlier.put(before[j], before[j + 1]);
+			if (!map.containsKey(before[j])) {
+				writer.writeStatement(variable,
+						name + ".remove(" + code(before[j], keys) + ")");
+			}
+		}
+		for (int j = 0; j < after.length; j += 2) {
+			Object key = after[j];
+			Object value = after[j + 1];
+			if (!earlier.containsKey(key)
+					|| !same(earlier.get(key), value)) {
+				String keyCode = code(key, keys);
+				String valueCode = code(value, values);
+				writer.writeStatement(variable, name + ".put(" + keyCode
+						+ ", " + valueCode + ")");
+			}
+		}
+		return after;
+	}
+
+	/**
+	 * Compares the elements of an array and assigns the changed elements.
+	 *
+	 * @return the fingerprint of the array, primitive arrays are copied
+	 */
+	private Object[] array(int variable, Object array, PathFilter.State path,
+			Object[] before) throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		int length = Array.getLength(array);
+		Class<?> component = array.getClass().getComponentType();
+		PathFilter.State elements = path != null && !component.isPrimitive()
+				? path.element()
+				: null;
+		Object[] after = new Object[length];
+		String name = writer.getVariableName(variable);
+		for (int i = 0; i < length; i++) {
+			Object element = Array.get(array, i);
+			if (isPruned(element, elements)) {
+				// a skipped element stays null
+				element = null;
+			}
+			after[i] = element;
+			if (before == null || same(before[i], element)) {
+				continue;
+			}
+			String code = component.isPrimitive()
+					? ObjectGraphWriter.formatType(component, element)
+					: code(element, elements);
+			writer.writeStatement(variable,
+					name + "[" + i + "] = " + code);
+		}
+		return after;
+	}
+
+	/**
+	 * Writes a value if it is new and returns its code.
+	 *
+	 * @param path
+	 *            the state of the path filter for the value or null
+	 */
+	private String code(Object value, PathFilter.State path)
+			throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		return value == null ? "null" : writer.write(value, path);
+	}
+
+	private static boolean isPrefix(Object[] before, Object[] after) {
+		if (before.length > after.length) {
+			return false;
+		}
+		for (int i = 0; i < before.length; i++) {
+			if (!same(before[i], after[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean same(Object[] before, Object[] after) {
+		return before.length == after.length && isPrefix(before, after);
+	}
+
+	/**
+	 * Checks if a value did not change. Objects have to be the same, values
+	 * that are written as literals have to be equal.
+	 */
+	private static boolean same(Object before, Object after) {
+		return before == after || after != null && isValue(after)
+				&& after.equals(before);
+	}
+
+	private static boolean isValue(Object o) {
+		Kind kind = ClassPlan.kindOf(o.getClass());
+		return kind == Kind.PRIMITIVE || kind == Kind.STRING
+				|| kind == Kind.ENUM;
+	}
+
+	/**
+	 * The items of a collection, values are compared by equality and all
+	 * other objects by identity.
+	 */
+	private static final class Members {
+		private final Set<Object> values = new HashSet<>();
+		private final Set<Object> objects = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+
+		Members(Object[] items) {
+			for (Object item : items) {
+				if (item != null && isValue(item)) {
+					values.add(item);
+				} else {
+					objects.add(item);
+				}
+			}
+		}
+
+		boolean contains(Object item) {
+			return item != null && isValue(item) ? values.contains(item)
+					: objects.contains(item);
+		}
+	}
+}
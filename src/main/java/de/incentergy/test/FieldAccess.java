@@ -0,0 +1,70 @@
+package de.incentergy.test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Assigns fields that have no setter. It is called by the code that is
+ * written in field access mode, see
+ * {@link SerializerConfig.Builder#fieldAccess(boolean)}, e.g.
+ *
+ * de.incentergy.test.FieldAccess.set(myBean0, com.example.MyBean.class,
+ * "id", 5l);
+ *
+ * So the generated code needs this class on its class path.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class FieldAccess {
+
+	private static final Logger log = Logger
+			.getLogger(FieldAccess.class.getName());
+
+	/**
+	 * The accessible fields of every class by their names
+	 */
+	private static final ClassValue<Map<String, Field>> fields = new ClassValue<Map<String, Field>>() {
+		@Override
+		protected Map<String, Field> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	private FieldAccess() {
+	}
+
+	/**
+	 * Assigns a field, even if it is private or final.
+	 *
+	 * @param target
+	 *            the object whose field is assigned
+	 * @param declaringClass
+	 *            the class that declares the field
+	 * @param name
+	 *            the name of the field
+	 * @param value
+	 *            the value, primitives are unboxed
+	 */
+	public static void set(Object target, Class<?> declaringClass,
+			String name, Object value) {
+		try {
+			Map<String, Field> declared = fields.get(declaringClass);
+			Field field = declared.get(name);
+			if (field == null) {
+				field = declaringClass.getDeclaredField(name);
+				field.setAccessible(true);
+				declared.put(name, field);
+			}
+			field.set(target, value);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException("Could not set the field " + name
+					+ " of " + declaringClass.getName() + ".", e);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package de.incentergy.test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recognizes the lazy collections and proxies of Hibernate without a
+ * dependency on Hibernate. The interfaces are found by their names, so no
+ * Hibernate class is loaded if Hibernate is not used.
+ *
+ * A collection that implements PersistentCollection is not loaded if
+ * wasInitialized() returns false. A proxy that implements HibernateProxy is
+ * not loaded if getHibernateLazyInitializer().isUninitialized() returns
+ * true. The methods are looked up once per class. If a check fails the value
+ * is treated as not loaded.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class HibernateLazinessDetector implements LazinessDetector {
+
+	private static final Logger log = Logger
+			.getLogger(HibernateLazinessDetector.class.getName());
+
+	/**
+	 * The names of PersistentCollection since Hibernate 4 and before
+	 */
+	private static final Collection<String> COLLECTIONS = Arrays.asList(
+			"org.hibernate.collection.spi.PersistentCollection",
+			"org.hibernate.collection.PersistentCollection");
+
+	private static final Collection<String> PROXIES = Arrays
+			.asList("org.hibernate.proxy.HibernateProxy");
+
+	private static final HibernateLazinessDetector DEFAULT = new HibernateLazinessDetector(
+			COLLECTIONS, PROXIES);
+
+	/**
+	 * The check of a class that is neither a lazy collection nor a proxy
+	 */
+	private static final Check NONE = new Check(null, null, null);
+
+	private final Set<String> collections;
+
+	private final Set<String> proxies;
+
+	/**
+	 * The checks of the classes of the values
+	 */
+	private final ClassValue<Check> checks = new ClassValue<Check>() {
+		@Override
+		protected Check computeValue(Class<?> type) {
+			return check(type);
+		}
+	};
+
+	/**
+	 * Creates a detector for the given interfaces.
+	 *
+	 * @param collections
+	 *            the names of the interfaces with a method wasInitialized()
+	 * @param proxies
+	 *            the names of the interfaces with a method
+	 *            getHibernateLazyInitializer() whose result has a method
+	 *            isUninitialized()
+	 */
+	HibernateLazinessDetector(Collection<String> collections,
+			Collection<String> proxies) {
+		this.collections = new HashSet<>(collections);
+		this.proxies = new HashSet<>(proxies);
+	}
+
+	/**
+	 * @return the shared detector
+	 */
+	public static HibernateLazinessDetector getDefault() {
+		return DEFAULT;
+	}
+
+	@Override
+	public boolean isUninitialized(Object value) {
+		Check check = checks.get(value.getClass());
+		if (check == NONE) {
+			return false;
+		}
+		try {
+			return check.isUninitialized(value);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			return true;
+		}
+	}
+
+	/**
+	 * Searches the interfaces of a class and of its super classes breadth
+	 * first for a lazy collection or a proxy.
+	 */
+	private Check check(Class<?> type) {
+		Deque<Class<?>> queue = new ArrayDeque<>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			queue.addAll(Arrays.asList(c.getInterfaces()));
+		}
+		Set<Class<?>> visited = new HashSet<>();
+		while (!queue.isEmpty()) {
+			Class<?> candidate = queue.poll();
+			if (!visited.add(candidate)) {
+				continue;
+			}
+			try {
+				if (collections.contains(candidate.getName())) {
+					return new Check(candidate.getMethod("wasInitialized"),
+							null, null);
+				}
+				if (proxies.contains(candidate.getName())) {
+					Method initializer = candidate
+							.getMethod("getHibernateLazyInitializer");
+					return new Check(null, initializer,
+							initializer.getReturnType()
+									.getMethod("isUninitialized"));
+				}
+			} catch (NoSuchMethodException e) {
+				log.log(Level.WARNING, "Exception was thrown", e);
+				return NONE;
+			}
+			queue.addAll(Arrays.asList(candidate.getInterfaces()));
+		}
+		return NONE;
+	}
+
+	/**
+	 * The methods that check if a value of a class is loaded.
+	 */
+	private static final class Check {
+		private final Method wasInitialized;
+		private final Method lazyInitializer;
+		private final Method isUninitialized;
+
+		Check(Method wasInitialized, Method lazyInitializer,
+				Method isUninitialized) {
+			this.wasInitialized = wasInitialized;
+			this.lazyInitializer = lazyInitializer;
+			this.isUninitialized = isUninitialized;
+		}
+
+		boolean isUninitialized(Object value)
+				throws ReflectiveOperationException {
+			if (wasInitialized != null) {
+				return !(Boolean) wasInitialized.invoke(value);
+			}
+			Object initializer = lazyInitializer.invoke(value);
+			return initializer != null
+					&& (Boolean) isUninitialized.invoke(initializer);
+		}
+	}
+}
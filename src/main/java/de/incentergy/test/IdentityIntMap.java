@@ -0,0 +1,159 @@
+package de.incentergy.test;
+
+import java.util.Arrays;
+
+/**
+ * A map from objects to int values that compares the keys by identity. It
+ * uses open addressing with linear probing on two parallel arrays, so it does
+ * not allocate an object per entry and never calls hashCode() or equals() of
+ * the keys.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class IdentityIntMap {
+
+	/**
+	 * Returned by {@link #get(Object)} if the key is not in the map.
+	 */
+	static final int MISSING = -1;
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private Object[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	/**
+	 * Creates an empty map.
+	 */
+	IdentityIntMap() {
+		this(DEFAULT_CAPACITY / 2);
+	}
+
+	/**
+	 * Creates an empty map that can take the given amount of entries without
+	 * resizing.
+	 *
+	 * @param expectedSize
+	 *            the expected amount of entries
+	 */
+	IdentityIntMap(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		// the table is kept at most half full
+		while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		keys = new Object[capacity];
+		values = new int[capacity];
+	}
+
+	private static int index(Object key, int mask) {
+		// spread the identity hash code, the lower bits are often similar
+		int h = System.identityHashCode(key) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Returns the value for the key.
+	 *
+	 * @param key
+	 *            the key to look up, must not be null
+	 * @return the value or {@link #MISSING}
+	 */
+	int get(Object key) {
+		Object[] keys = this.keys;
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		Object k;
+		while ((k = keys[i]) != null) {
+			if (k == key) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return MISSING;
+	}
+
+	/**
+	 * Checks if the key is in the map.
+	 *
+	 * @param key
+	 *            the key to look up, must not be null
+	 * @return true if the key is in the map
+	 */
+	boolean containsKey(Object key) {
+		return get(key) != MISSING;
+	}
+
+	/**
+	 * Puts a value for the key into the map.
+	 *
+	 * @param key
+	 *            the key, must not be null
+	 * @param value
+	 *            the value, must not be {@link #MISSING}
+	 * @return the previous value or {@link #MISSING}
+	 */
+	int put(Object key, int value) {
+		Object[] keys = this.keys;
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		Object k;
+		while ((k = keys[i]) != null) {
+			if (k == key) {
+				int previous = values[i];
+				values[i] = value;
+				return previous;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length) {
+			resize();
+		}
+		return MISSING;
+	}
+
+	private void resize() {
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		int capacity = oldKeys.length << 1;
+		if (capacity < 0) {
+			throw new IllegalStateException("IdentityIntMap is full");
+		}
+		keys = new Object[capacity];
+		values = new int[capacity];
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			Object key = oldKeys[j];
+			if (key != null) {
+				int i = index(key, mask);
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = key;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * @return the amount of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all entries and keeps the capacity.
+	 */
+	void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+}
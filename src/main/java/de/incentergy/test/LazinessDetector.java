@@ -0,0 +1,34 @@
+package de.incentergy.test;
+
+/**
+ * Recognizes lazy associations of an ORM that are not loaded yet, e.g. a
+ * lazy collection or a proxy of an entity. Such a value is not walked,
+ * because calling its methods would load it from the database. It is
+ * checked before any processor, getter or method of it is called.
+ *
+ * A property whose value is not loaded is skipped, so the bean keeps the
+ * value of its constructor. Items, elements and map values that are not
+ * loaded are written as null /* uninitialized *&#47;, map entries with a key
+ * that is not loaded are skipped.
+ *
+ * SerializerConfig config = SerializerConfig.builder()
+ * .lazinessDetector(HibernateLazinessDetector.getDefault()).build();
+ *
+ * @see HibernateLazinessDetector
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public interface LazinessDetector {
+
+	/**
+	 * Checks if a value is a lazy association that was not loaded yet. Must
+	 * not load the value and must be thread safe.
+	 *
+	 * @param value
+	 *            the value, never null
+	 * @return true if the value must not be walked
+	 */
+	boolean isUninitialized(Object value);
+}
@@ -3,25 +3,21 @@
  */
 package de.incentergy.test;
 
-import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+
 /**
  * This class serializes a java bean to java code.
  * 
@@ -39,26 +35,46 @@ public class Object2CodeObjectOutputStream implements AutoCloseable {
 			.getLogger(Object2CodeObjectOutputStream.class.getName());
 
 	/**
-	 * This map contains Functions that can generate constructors for classes
+	 * The configuration that is used by all streams that were created without
+	 * an own configuration. It is changed by the static methods of this class
+	 * and is replaced as a whole on every change.
+	 */
+	private static volatile SerializerConfig defaultConfig = SerializerConfig
+			.builder().build();
+
+	/**
+	 * The buffer that collects the code before it is written to the target.
 	 */
-	private static Map<Class<?>, Function<Object, String>> class2constructorGenerator = new HashMap<>();
+	private CodeWriter out;
 
 	/**
-	 * This map can contain for a class a map that decides if only certain
-	 * fields should be serialized. The fields are given as strings
+	 * The configuration of this stream or null if the default configuration
+	 * should be used.
 	 */
-	private static Map<Class<?>, Map<String, Boolean>> class2fieldIncludes = new HashMap<>();
+	private SerializerConfig config;
 
 	/**
-	 * This list contains functions that are applied to all objects before
-	 * processing e.g. it is possible to unwrap HibernateProxies
+	 * What was cut from the last object because of the budget
 	 */
-	private static List<Function<Object, Object>> processors = new ArrayList<>();
+	private Truncation truncation = new Truncation();
 
 	/**
-	 * The OutputStream to write the object to.
+	 * If every object is only written with the changes since the last
+	 * object
 	 */
-	private OutputStream out;
+	private boolean incremental;
+
+	/**
+	 * The writer of the incremental snapshots or null
+	 */
+	private DeltaWriter deltaWriter;
+
+	/**
+	 * The writing of the last graph that was captured with
+	 * {@link #writeObjectAsync(Object)}
+	 */
+	private CompletableFuture<?> rendering = CompletableFuture
+			.completedFuture(null);
 
 	/**
 	 * Generate a new Object2CodeObjectOutputStream based on an OutputStream
@@ -66,42 +82,187 @@ public class Object2CodeObjectOutputStream implements AutoCloseable {
 	 * Object2CodeObjectOutputStream(System.out); There is also a shortcut in
 	 * {@link de.incentergy.test.Serialize#object2code(Object)}
 	 * 
+	 * The code is encoded as UTF-8.
+	 * 
 	 * @param out
 	 *            the outputstream to use to write the code into
 	 */
 	public Object2CodeObjectOutputStream(OutputStream out) {
-		this.out = out;
+		this(out, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on a PrintStream e.g.
+	 * System.out. A PrintStream is an OutputStream and an Appendable, it is
+	 * used as OutputStream and the code is encoded as UTF-8.
+	 * 
+	 * @param out
+	 *            the printstream to use to write the code into
+	 */
+	public Object2CodeObjectOutputStream(PrintStream out) {
+		this((OutputStream) out);
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on an OutputStream
+	 * that encodes the code with the given charset.
+	 * 
+	 * @param out
+	 *            the outputstream to use to write the code into
+	 * @param charset
+	 *            the charset to encode the code with
+	 */
+	public Object2CodeObjectOutputStream(OutputStream out, Charset charset) {
+		this(out, charset, CodeWriter.DEFAULT_FLUSH_THRESHOLD);
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on an OutputStream
+	 * that encodes the code with the given charset.
+	 * 
+	 * @param out
+	 *            the outputstream to use to write the code into
+	 * @param charset
+	 *            the charset to encode the code with
+	 * @param flushThreshold
+	 *            how many chars are buffered before they are encoded and
+	 *            written to the stream
+	 */
+	public Object2CodeObjectOutputStream(OutputStream out, Charset charset,
+			int flushThreshold) {
+		this.out = new CodeWriter(out, charset, flushThreshold);
 	}
 
 	/**
-	 * Only include this field for the class.
+	 * Generate a new Object2CodeObjectOutputStream based on a Writer.
+	 * 
+	 * @param writer
+	 *            the writer to use to write the code into
+	 */
+	public Object2CodeObjectOutputStream(Writer writer) {
+		this((Appendable) writer);
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on an Appendable e.g.
+	 * a StringBuilder.
+	 * 
+	 * @param appendable
+	 *            the appendable to use to write the code into
+	 */
+	public Object2CodeObjectOutputStream(Appendable appendable) {
+		this(appendable, CodeWriter.DEFAULT_FLUSH_THRESHOLD);
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on an Appendable e.g.
+	 * a StringBuilder.
+	 * 
+	 * @param appendable
+	 *            the appendable to use to write the code into
+	 * @param flushThreshold
+	 *            how many chars are buffered before they are appended
+	 */
+	public Object2CodeObjectOutputStream(Appendable appendable,
+			int flushThreshold) {
+		this.out = new CodeWriter(appendable, flushThreshold);
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on an OutputStream
+	 * that uses the given configuration instead of the default configuration.
+	 * The code is encoded as UTF-8.
+	 * 
+	 * @param out
+	 *            the outputstream to use to write the code into
+	 * @param config
+	 *            the configuration to use
+	 */
+	public Object2CodeObjectOutputStream(OutputStream out,
+			SerializerConfig config) {
+		this(out);
+		this.config = config;
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on a PrintStream e.g.
+	 * System.out that uses the given configuration instead of the default
+	 * configuration. The code is encoded as UTF-8.
+	 * 
+	 * @param out
+	 *            the printstream to use to write the code into
+	 * @param config
+	 *            the configuration to use
+	 */
+	public Object2CodeObjectOutputStream(PrintStream out,
+			SerializerConfig config) {
+		this((OutputStream) out, config);
+	}
+
+	/**
+	 * Generate a new Object2CodeObjectOutputStream based on an Appendable e.g.
+	 * a StringBuilder that uses the given configuration instead of the
+	 * default configuration.
+	 * 
+	 * @param appendable
+	 *            the appendable to use to write the code into
+	 * @param config
+	 *            the configuration to use
+	 */
+	public Object2CodeObjectOutputStream(Appendable appendable,
+			SerializerConfig config) {
+		this(appendable);
+		this.config = config;
+	}
+
+	/**
+	 * Returns the default configuration that is used by all streams that
+	 * were created without an own configuration.
+	 * 
+	 * @return the current default configuration
+	 */
+	public static SerializerConfig getDefaultConfig() {
+		return defaultConfig;
+	}
+
+	/**
+	 * Replaces the default configuration.
+	 * 
+	 * @param config
+	 *            the new default configuration
+	 */
+	public static synchronized void setDefaultConfig(SerializerConfig config) {
+		defaultConfig = config;
+	}
+
+	/**
+	 * Only include this field for the class in the default configuration.
 	 * 
 	 * @param clazz
 	 *            the class for that we are adding a field
 	 * @param field
 	 *            the name of the field that we should include
 	 */
-	public static void includeFieldForClass(Class<?> clazz, String field) {
-		Map<String, Boolean> includes = class2fieldIncludes.get(clazz);
-		if (includes == null) {
-			includes = new HashMap<>();
-			class2fieldIncludes.put(clazz, includes);
-		}
-		includes.put(field, true);
+	public static synchronized void includeFieldForClass(Class<?> clazz,
+			String field) {
+		defaultConfig = defaultConfig.toBuilder()
+				.includeFieldForClass(clazz, field).build();
 	}
 
 	/**
-	 * Removes all the includes for the class.
+	 * Removes all the includes for the class from the default configuration.
 	 * 
 	 * @param clazz
 	 *            the class for that we should remove all fields
 	 */
-	public static void removeAllIncludesForClass(Class<?> clazz) {
-		class2fieldIncludes.remove(clazz);
+	public static synchronized void removeAllIncludesForClass(Class<?> clazz) {
+		defaultConfig = defaultConfig.toBuilder()
+				.removeAllIncludesForClass(clazz).build();
 	}
 
 	/**
-	 * Adds a custom constructor generator for a specified class.
+	 * Adds a custom constructor generator for a specified class to the
+	 * default configuration.
 	 * 
 	 * @param clazz
 	 *            the class typically without not args constructors
@@ -110,39 +271,59 @@ public class Object2CodeObjectOutputStream implements AutoCloseable {
 	 * @param <T>
 	 *            the class this constructor should be used for
 	 */
-	@SuppressWarnings("unchecked")
-	public static <T> void addCustomConstructorGenerator(Class<T> clazz,
-			Function<T, String> function) {
-		class2constructorGenerator.put(clazz,
-				(Function<Object, String>) function);
+	public static synchronized <T> void addCustomConstructorGenerator(
+			Class<T> clazz, Function<T, String> function) {
+		defaultConfig = defaultConfig.toBuilder()
+				.addCustomConstructorGenerator(clazz, function).build();
 	}
 
 	/**
-	 * Removes the custom constructor generator for the specified class.
+	 * Removes the custom constructor generator for the specified class from
+	 * the default configuration.
 	 * 
 	 * @param clazz
 	 *            the class for that we should remove the custom constructor
 	 */
-	public static void removeCustomConstructorGenerator(Class<?> clazz) {
-		class2constructorGenerator.remove(clazz);
+	public static synchronized void removeCustomConstructorGenerator(
+			Class<?> clazz) {
+		defaultConfig = defaultConfig.toBuilder()
+				.removeCustomConstructorGenerator(clazz).build();
+	}
+
+	/**
+	 * Adds a processor to process classes before serializing to the default
+	 * configuration.
+	 * 
+	 * @param f
+	 *            processor to add
+	 */
+	public static synchronized void addProcessor(Function<Object, Object> f) {
+		defaultConfig = defaultConfig.toBuilder().addProcessor(f).build();
 	}
 
 	/**
-	 * Adds a processor to process classes before serializing.
+	 * Adds a processor for the instances of a type to the default
+	 * configuration.
 	 * 
+	 * @param clazz
+	 *            the class or interface of the processed objects
 	 * @param f
 	 *            processor to add
+	 * @param <T>
+	 *            the type of the processed objects
 	 */
-	public static void addProcessor(Function<Object, Object> f) {
-		processors.add(f);
+	public static synchronized <T> void addProcessor(Class<T> clazz,
+			Function<? super T, ?> f) {
+		defaultConfig = defaultConfig.toBuilder().addProcessor(clazz, f)
+				.build();
 	}
 
 	/**
-	 * Clear processors.
+	 * Clear processors of the default configuration.
 	 * 
 	 */
-	public static void clearProcessor() {
-		processors.clear();
+	public static synchronized void clearProcessor() {
+		defaultConfig = defaultConfig.toBuilder().clearProcessor().build();
 	}
 
 	/**
@@ -169,439 +350,241 @@ public class Object2CodeObjectOutputStream implements AutoCloseable {
 			log.warning("Given object is null.");
 			return;
 		}
-		// map that counts how many instances of a certain
-		// clazz we already generated.
-		Map<Class<?>, Integer> clazz2count = new HashMap<Class<?>, Integer>();
-		// this map contains a mapping from objects to their assigned names
-		Map<Object, String> object2variableName = new HashMap<Object, String>();
-		String name = writeObject(o, clazz2count, object2variableName,
-				onlyPropertiesWithMatchingField);
+		awaitRendering();
+		SerializerConfig config = getConfig();
 		Class<?> clazz = o.getClass();
-		if (isPrimitiveOrBoxClass(clazz)) {
-			// write the simple type to the stream
-			try {
-				out.write(name.getBytes());
-			} catch (IOException e) {
-				log.log(Level.WARNING, "Exception was thrown", e);
+		try {
+			String name;
+			if (incremental) {
+				if (deltaWriter == null || !deltaWriter.isCompatible(config,
+						onlyPropertiesWithMatchingField)) {
+					deltaWriter = new DeltaWriter(out, config,
+							onlyPropertiesWithMatchingField);
+				}
+				truncation = new Truncation();
+				name = deltaWriter.write(o);
+			} else if (config.getParallelPool() != null
+					&& config.getBudget() == null) {
+				truncation = new Truncation();
+				name = new ParallelGraphWriter(out, config,
+						onlyPropertiesWithMatchingField).write(o);
+			} else {
+				ObjectGraphWriter writer = new ObjectGraphWriter(out, config,
+						onlyPropertiesWithMatchingField);
+				truncation = writer.getTruncation();
+				name = writer.write(o);
 			}
+			if (isPrimitiveOrBoxClass(config, clazz)) {
+				// write the simple type to the stream
+				out.append(name);
+			}
+			// hand the complete object over to the target
+			out.drain();
+		} catch (IOException | IntrospectionException
+				| ReflectiveOperationException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException(
+					"Could not serialize the given object to code. Please see the warnings in the log.");
 		}
 	}
 
 	/**
-	 * Checks if the clazz is a primitive class or if it is a boxed class.
-	 * 
-	 * @param clazz
-	 *            the class to check
+	 * Writes an object asynchronously using all getters and setters, see
+	 * {@link #writeObjectAsync(Object, boolean)}.
+	 *
+	 * @param o
+	 *            the object to write
+	 * @return the future that completes when the code was handed to the
+	 *         target
 	 */
-	private boolean isPrimitiveOrBoxClass(Class<?> clazz) {
-		return isPrimitiveOrBoxClass(clazz, true);
+	public CompletableFuture<Void> writeObjectAsync(Object o) {
+		return writeObjectAsync(o, false);
 	}
 
 	/**
-	 * Checks if the clazz is a primitive class or if it is a boxed class.
-	 * 
-	 * @param clazz
-	 *            the class to check
-	 * @param checkString
-	 *            handle String as primitive class
-	 * @return is it a primitive or box class
+	 * Captures the values of the graph of an object on the calling thread
+	 * and writes the code on the render executor of the configuration, see
+	 * {@link SerializerConfig.Builder#renderExecutor(java.util.concurrent.Executor, int)}.
+	 * The objects may be changed as soon as this method returns. The code
+	 * is the same as the code of {@link #writeObject(Object, boolean)}.
+	 *
+	 * The objects are written in the order of the calls. If too many graphs
+	 * are pending this method waits. The other methods of this stream wait
+	 * until all pending graphs are written. In incremental mode the object
+	 * is written synchronously.
+	 *
+	 * @param o
+	 *            the Object to write
+	 * @param onlyPropertiesWithMatchingField
+	 *            use only fields that have a corresponding private field?
+	 * @return the future that completes when the code was handed to the
+	 *         target or completes exceptionally if it could not be written
 	 */
-	private boolean isPrimitiveOrBoxClass(Class<?> clazz, boolean checkString) {
-		return clazz.isPrimitive() || clazz == Integer.class
-				|| clazz == Byte.class || clazz == Boolean.class
-				|| clazz == Short.class || clazz == Long.class
-				|| clazz == Double.class || clazz == Float.class
-				|| clazz == BigDecimal.class
-				|| clazz == Character.class
-				|| (clazz == String.class && checkString);
+	public CompletableFuture<Void> writeObjectAsync(Object o,
+			boolean onlyPropertiesWithMatchingField) {
+		if (o == null || incremental) {
+			writeObject(o, onlyPropertiesWithMatchingField);
+			return CompletableFuture.completedFuture(null);
+		}
+		SerializerConfig config = getConfig();
+		CapturedGraph graph;
+		try {
+			graph = CapturedGraph.capture(o, config,
+					onlyPropertiesWithMatchingField);
+		} catch (IntrospectionException | ReflectiveOperationException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException(
+					"Could not serialize the given object to code. Please see the warnings in the log.");
+		}
+		CompletableFuture<Void> future = config.getRenderQueue()
+				.submit(rendering, () -> {
+					writeCaptured(graph, config);
+					return null;
+				});
+		rendering = future;
+		return future;
 	}
 
 	/**
-	 * @see Object2CodeObjectOutputStream#writeObject(Object, Map, Map, boolean,
-	 *      int, int)
+	 * Writes a captured graph on the render executor.
 	 */
-	private String writeObject(Object o, Map<Class<?>, Integer> clazz2count,
-			Map<Object, String> object2variableName,
-			boolean onlyPropertiesWithMatchingField) {
-		return writeObject(o, clazz2count, object2variableName,
-				onlyPropertiesWithMatchingField, 0, 0);
+	private void writeCaptured(CapturedGraph graph, SerializerConfig config) {
+		try {
+			truncation = graph.write(out, config);
+		} catch (IOException | IntrospectionException
+				| ReflectiveOperationException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException(
+					"Could not serialize the given object to code. Please see the warnings in the log.");
+		}
 	}
 
 	/**
-	 * Private function that is doing the recursive work.
-	 * 
-	 * @param o
-	 *            the object to write
-	 * @param clazz2count
-	 *            Counting how often a certain class was already produced
-	 * @param object2variableName
-	 *            a map from a certain object that is in a property to the
-	 *            variable name
-	 * @param onlyPropertiesWithMatchingField
-	 *            check that there is a private property for this field
-	 * @param maxRecursions
-	 *            the maximum of recursions that should be done
-	 * @param currentRecursion
-	 *            the current recursion count
-	 * 
-	 * @return the object represented as a string. If the string is compiled it
-	 *         will create the same object again
-	 */
-	@SuppressWarnings("rawtypes")
-	protected String writeObject(Object o, Map<Class<?>, Integer> clazz2count,
-			Map<Object, String> object2variableName,
-			boolean onlyPropertiesWithMatchingField, int maxRecursions,
-			int currentRecursion) {
+	 * Waits until all graphs that were captured with
+	 * {@link #writeObjectAsync(Object)} are written. Failures were already
+	 * reported by their futures.
+	 */
+	private void awaitRendering() {
 		try {
-			for (Function<Object, Object> f : processors) {
-				o = f.apply(o);
-			}
-
-			// if we already serialized the object
-			// we just output the name of the variable
-			// to create a back reference
-			if (object2variableName.containsKey(o)) {
-				return object2variableName.get(o);
-			}
-
-			Class<?> clazz = o.getClass();
-			// write primitive types directly out
-			if (isPrimitiveOrBoxClass(clazz, false)) {
-				return formatType(clazz, o);
-			} else if (clazz == String.class) {
-				return "\"" + o.toString() + "\"";
-			} else if (clazz.isEnum()) {
-				return clazz.getCanonicalName() + "." + ((Enum) o).name();
-			}
-			BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
-			String beanName = getVariableName(clazz, clazz2count);
-			object2variableName.put(o, beanName);
-			out.write((clazz.getCanonicalName() + " " + beanName + " = ").getBytes());
-
-			if (Collection.class.isAssignableFrom(clazz)) {
-				out.write(("new " + clazz.getCanonicalName() + "();\n").getBytes());
-				writeCollection(clazz2count, object2variableName,
-						onlyPropertiesWithMatchingField, (Collection) o,
-						beanName, maxRecursions, currentRecursion);
-				return "";
-			} else if (Map.class.isAssignableFrom(clazz)) {
-				out.write(("new " + clazz.getCanonicalName() + "();\n").getBytes());
-				writeMap(clazz2count, object2variableName,
-						onlyPropertiesWithMatchingField, (Map) o, beanName,
-						maxRecursions, currentRecursion);
-				return "";
-			}
-
-			// if we have no function to generate the constructors
-			if (!class2constructorGenerator.containsKey(clazz)) {
-				// This should throw an exception if there is no
-				// no-args constructor
-				try {
-					clazz.getConstructor();
-				} catch (NoSuchMethodException e) {
-					log.log(Level.WARNING, "Exception was thrown", e);
-					return "null /* Could not generate code for "
-							+ clazz.getCanonicalName()
-							+ " there is not no args constructor */";
-				}
-				out.write(("new " + clazz.getCanonicalName() + "()").getBytes());
-			} else {
-				out.write(class2constructorGenerator.get(clazz).apply(o)
-						.getBytes());
-				out.write((";\n".getBytes()));
-				// do not recursively go down when
-				// a custom constructor was supplied
-				// just return the name of the variable
-				return beanName;
-			}
-			out.write((";\n".getBytes()));
-			for (PropertyDescriptor propertyDescriptor : beanInfo
-					.getPropertyDescriptors()) {
-
-				// if we should only include certain fields
-				if (class2fieldIncludes.containsKey(clazz)) {
-					// check if the current field should
-					// be included
-					if (class2fieldIncludes.get(clazz)
-							.get(propertyDescriptor.getName()) == null
-							|| !class2fieldIncludes.get(clazz)
-									.get(propertyDescriptor.getName())) {
-						// if not continue
-						continue;
-					}
-				}
+			rendering.join();
+		} catch (CompletionException | CancellationException e) {
+			log.log(Level.FINE, "An asynchronous write failed", e);
+		}
+	}
 
-				if (onlyPropertiesWithMatchingField) {
-					try {
-						clazz.getDeclaredField(propertyDescriptor.getName());
-					} catch (NoSuchFieldException e) {
-						log.info("Skipping method without matching field: "
-								+ propertyDescriptor.getName());
-						continue;
-					}
-				}
-				Class<?> propertyClass = propertyDescriptor.getPropertyType();
-				Method readMethod = propertyDescriptor.getReadMethod();
-				if (readMethod == null) {
-					log.warning("Could not find read Method for: "
-							+ propertyDescriptor.getName());
-					continue;
-				}
-				Object propertyValue = readMethod.invoke(o);
-				if (propertyValue != null) {
-					if (propertyClass.isPrimitive()) {
-						Method writeMethod = propertyDescriptor
-								.getWriteMethod();
-						if (writeMethod != null) {
-							out.write(
-									(beanName + "." + writeMethod.getName()
-											+ "("
-											+ formatType(propertyClass,
-													propertyValue)
-											+ ");\n").getBytes());
-						} else {
-							log.warning("Can not find write method for: "
-									+ o.getClass().getName() + " "
-									+ propertyDescriptor.getName());
-						}
-					} else if (propertyClass == String.class) {
-						Method writeMethod = propertyDescriptor
-								.getWriteMethod();
-						if (writeMethod != null) {
-							out.write((beanName + "." + writeMethod.getName()
-									+ "(\"" + propertyValue + "\");\n")
-											.getBytes());
-						} else {
-							log.warning("Can not find write method for: "
-									+ o.getClass().getName() + " "
-									+ propertyDescriptor.getName());
-						}
-					} else {
-						if (Collection.class.isAssignableFrom(propertyClass)) {
-							Collection<?> collection = (Collection<?>) propertyValue;
-							Class<?> collectionImplementation = collection
-									.getClass();
-							String collectionName = getVariableName(
-									collectionImplementation, clazz2count);
-							object2variableName.put(collection, collectionName);
-							out.write((collectionImplementation.getName() + " "
-									+ collectionName + " = new "
-									+ collectionImplementation.getName()
-									+ "();\n").getBytes());
-							writeCollection(clazz2count, object2variableName,
-									onlyPropertiesWithMatchingField, collection,
-									collectionName, maxRecursions,
-									currentRecursion);
-							out.write((beanName + "."
-									+ propertyDescriptor.getWriteMethod()
-											.getName()
-									+ "(" + collectionName + ");\n")
-											.getBytes());
-						} else if (Map.class.isAssignableFrom(propertyClass)) {
-							Map<?, ?> map = (Map<?, ?>) propertyValue;
-							Class<?> mapImplementation = map.getClass();
-							String mapName = getVariableName(mapImplementation,
-									clazz2count);
-							object2variableName.put(map, mapName);
-							out.write((mapImplementation.getName() + " "
-									+ mapName + " = new "
-									+ mapImplementation.getName() + "();\n")
-											.getBytes());
-							writeMap(clazz2count, object2variableName,
-									onlyPropertiesWithMatchingField, map,
-									mapName, maxRecursions, currentRecursion);
-							out.write((beanName + "."
-									+ propertyDescriptor.getWriteMethod()
-											.getName()
-									+ "(" + mapName + ");\n").getBytes());
-						} else if (propertyClass != Class.class) {
-
-							if (maxRecursions == 0
-									|| maxRecursions < currentRecursion) {
-								String newBeanName = object2variableName
-										.containsKey(propertyValue)
-												? object2variableName
-														.get(propertyValue)
-												: writeObject(propertyValue,
-														clazz2count,
-														object2variableName,
-														onlyPropertiesWithMatchingField,
-														maxRecursions,
-														currentRecursion + 1);
-
-								Method writeMethod = propertyDescriptor
-										.getWriteMethod();
-								if (writeMethod != null) {
-									out.write((beanName + "."
-											+ propertyDescriptor
-													.getWriteMethod().getName()
-											+ "(" + newBeanName + ");\n")
-													.getBytes());
-								} else {
-									log.warning(
-											"Can not find write method for: "
-													+ o.getClass().getName()
-													+ " " + propertyDescriptor
-															.getName());
-								}
-							}
-
-						}
-					}
-				}
-			}
-			return beanName;
-		} catch (IntrospectionException e) {
-			log.log(Level.WARNING, "Exception was thrown", e);
-		} catch (SecurityException e) {
-			log.log(Level.WARNING, "Exception was thrown", e);
-		} catch (IOException e) {
-			log.log(Level.WARNING, "Exception was thrown", e);
-		} catch (IllegalAccessException e) {
-			log.log(Level.WARNING, "Exception was thrown", e);
-		} catch (IllegalArgumentException e) {
-			log.log(Level.WARNING, "Exception was thrown", e);
-		} catch (InvocationTargetException e) {
+	/**
+	 * Writes an object as a complete class. The statements are split into
+	 * private static methods with at most
+	 * {@link SerializerConfig#getMaxStatementsPerMethod()} statements and the
+	 * object is returned by the public static build() method of the class.
+	 * The class is always written sequentially.
+	 *
+	 * @param o
+	 *            the Object to write
+	 * @param className
+	 *            the fully qualified name of the class
+	 */
+	public void writeClass(Object o, String className) {
+		awaitRendering();
+		SerializerConfig config = getConfig();
+		ClassEmitter classEmitter = new ClassEmitter(className,
+				config.getMaxStatementsPerMethod());
+		try {
+			ObjectGraphWriter writer = new ObjectGraphWriter(out, config,
+					false, classEmitter);
+			truncation = writer.getTruncation();
+			writer.writeClass(o);
+			out.drain();
+		} catch (IOException | IntrospectionException
+				| ReflectiveOperationException e) {
 			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException(
+					"Could not serialize the given object to code. Please see the warnings in the log.");
 		}
-		throw new RuntimeException(
-				"Could not serialize the given object to code. Please see the warnings in the log.");
 	}
 
 	/**
-	 * Writes a map to the output stream.
-	 * 
-	 * @param clazz2count
-	 *            how many classes were already serialized
-	 * @param object2variableName
-	 *            what is the name of cylic references
-	 * @param onlyPropertiesWithMatchingField
-	 * @param collection
-	 *            the name of the collection variable
-	 * @param collectionName
-	 * @throws IOException
-	 */
-	private void writeCollection(Map<Class<?>, Integer> clazz2count,
-			Map<Object, String> object2variableName,
-			boolean onlyPropertiesWithMatchingField, Collection<?> collection,
-			String collectionName, int maxRecursions, int currentRecursion)
-			throws IOException {
-		if (maxRecursions == 0 || maxRecursions < currentRecursion) {
-			for (Object item : collection) {
-				String itemName = writeObject(item, clazz2count,
-						object2variableName, onlyPropertiesWithMatchingField,
-						maxRecursions, currentRecursion + 1);
-				out.write((collectionName + ".add(" + itemName + ");\n")
-						.getBytes());
-			}
+	 * Switches the incremental mode on or off. In incremental mode the first
+	 * object is written completely. Every later call of
+	 * {@link #writeObject(Object)} only writes the setter, add, put and
+	 * remove statements that turn the objects written so far into their
+	 * current state, e.g. for the same bean before and after a service call.
+	 * New objects are written completely with new variables. The code of a
+	 * later object has to run after the code of the earlier objects in the
+	 * same scope.
+	 *
+	 * The written objects and a fingerprint of their values are kept until
+	 * the mode is switched off. Objects are always written sequentially and
+	 * without budget in this mode.
+	 *
+	 * @param incremental
+	 *            true to write only the changes
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		if (!incremental) {
+			deltaWriter = null;
 		}
 	}
 
 	/**
-	 * Writes a map to the output stream.
-	 * 
-	 * @param clazz2count
-	 *            how often did we already serialize this class
-	 * @param object2variableName
-	 *            what is the variable name of this object
-	 * @param onlyPropertiesWithMatchingField
-	 *            only serialize getters where there is a field
-	 * @param map
-	 *            the map to serialize
-	 * @param mapName
-	 *            the variable name of the map
-	 * @throws IOException
-	 *             is thrown when we can not write to the stream
-	 */
-	private void writeMap(Map<Class<?>, Integer> clazz2count,
-			Map<Object, String> object2variableName,
-			boolean onlyPropertiesWithMatchingField, Map<?, ?> map,
-			String mapName, int maxRecursions, int currentRecursion)
-			throws IOException {
-
-		if (maxRecursions == 0 || maxRecursions == currentRecursion) {
-			for (Entry<?, ?> item : map.entrySet()) {
-				String keyName = object2variableName.containsKey(item.getKey())
-						? object2variableName.get(item.getKey())
-						: writeObject(item.getKey(), clazz2count,
-								object2variableName,
-								onlyPropertiesWithMatchingField, maxRecursions,
-								currentRecursion + 1);
-				String valueName = object2variableName
-						.containsKey(item.getValue())
-								? object2variableName.get(item.getValue())
-								: writeObject(item.getValue(), clazz2count,
-										object2variableName,
-										onlyPropertiesWithMatchingField,
-										maxRecursions, currentRecursion + 1);
-
-				out.write((mapName + ".put(" + keyName + ", " + valueName
-						+ ");\n").getBytes());
-			}
-		}
+	 * @return true if only the changes are written
+	 */
+	public boolean isIncremental() {
+		return incremental;
 	}
 
 	/**
-	 * Formats the given value according to the given class.
-	 * 
-	 * @param clazz
-	 *            primitive class to use for formatting.
-	 * @param value
-	 *            the value of the variable
-	 * @return a string representation of the variable
-	 */
-	private String formatType(Class<?> clazz, Object value) {
-		if (clazz == Byte.TYPE || clazz == Byte.class) {
-			return "(byte) " + value;
-		} else if (clazz == Character.TYPE || clazz == Character.class) {
-			return value.equals('\u0000') ? "''" : "'" + value + "'";
-		} else if (clazz == Short.TYPE || clazz == Short.class) {
-			return "(short)" + value;
-		} else if (clazz == Long.TYPE || clazz == Long.class) {
-			return value + "l";
-		} else if (clazz == Float.TYPE || clazz == Float.class) {
-			return value + "f";
-		} else if (clazz == Boolean.TYPE || clazz == Boolean.class) {
-			return value.toString();
-		} else if (clazz == Double.TYPE || clazz == Double.class) {
-			return value.toString();
-		} else if (clazz == Integer.TYPE || clazz == Integer.class) {
-			return value.toString();
-		} else if (clazz == BigDecimal.class && value instanceof BigDecimal) {
-			return "new BigDecimal(\""+value.toString()+"\")";
-		} else {
-			throw new IllegalArgumentException("Type " + clazz.getCanonicalName()
-					+ " is not a supported primitive type.");
-		}
+	 * Reports what was cut from the last written object because the
+	 * {@link SerializationBudget} of the configuration was exceeded.
+	 *
+	 * @return the report of the last written object
+	 */
+	public Truncation getTruncation() {
+		return truncation;
 	}
 
 	/**
-	 * Get a variable name for the given class this also makes sure if a certain
-	 * class has multiple instance they get different names.
+	 * @return the configuration of this stream or the current default
+	 *         configuration
+	 */
+	public SerializerConfig getConfig() {
+		return config != null ? config : defaultConfig;
+	}
+
+	/**
+	 * Checks if the clazz is a primitive class, a boxed class or a String.
 	 * 
+	 * @param config
+	 *            the configuration with the plan of the class
 	 * @param clazz
-	 *            the class for which we need a new name
-	 * @param clazz2count
-	 *            how many instances of the classes do we already have
-	 */
-	private String getVariableName(Class<?> clazz,
-			Map<Class<?>, Integer> clazz2count) {
-		int count = 0;
-		if (clazz2count.containsKey(clazz)) {
-			count = clazz2count.get(clazz);
-			count++;
-			clazz2count.put(clazz, count);
-		} else {
-			clazz2count.put(clazz, count);
+	 *            the class to check
+	 */
+	private boolean isPrimitiveOrBoxClass(SerializerConfig config,
+			Class<?> clazz) {
+		ClassPlan.Kind kind = config.getPlan(clazz).getKind();
+		return kind == ClassPlan.Kind.PRIMITIVE
+				|| kind == ClassPlan.Kind.STRING;
+	}
+
+	/**
+	 * Writes all buffered code to the target and flushes it.
+	 */
+	public void flush() {
+		awaitRendering();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
 		}
-		return Introspector.decapitalize(clazz.getSimpleName()) + count;
 	}
 
 	/**
-	 * Closes the output stream
+	 * Writes all buffered code to the target and closes it.
 	 */
 	@Override
 	public void close() {
+		awaitRendering();
 		try {
 			out.close();
 		} catch (IOException e) {
@@ -0,0 +1,1961 @@
+package de.incentergy.test;
+
+import java.beans.IntrospectionException;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import de.incentergy.test.ClassPlan.PropertyPlan;
+import de.incentergy.test.SerializationBudget.Limit;
+
+/**
+ * Walks an object graph and writes the code for it. The walk does not
+ * recurse, every bean, collection and map that is currently written is kept
+ * as a frame on an explicit stack on the heap. So the depth of the graph is
+ * not limited by the thread stack and the walk can be paused after any step
+ * with {@link #advance(int)} and resumed later.
+ *
+ * A graph writer is used for a single object graph. A graph writer can also
+ * continue the walk of another graph writer, see
+ * {@link #ObjectGraphWriter(CodeWriter, ObjectGraphWriter, int, Map)}, that
+ * is used to write parts of a graph in parallel.
+ *
+ * Every statement is started with {@link #beginStatement(int)} and ended with
+ * {@link #endStatement()}, so a {@link ClassEmitter} can split the statements
+ * into methods of a class.
+ *
+ * If the configuration has a {@link SerializationBudget} it is checked for
+ * every visited object. Objects beyond the budget are written as
+ * {@link #TRUNCATED}. Once the size, the amount of objects or the time is
+ * exceeded, the frames on the stack stop writing further content and are
+ * finished, so the code stays compilable.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class ObjectGraphWriter {
+
+	private static final Logger log = Logger
+			.getLogger(ObjectGraphWriter.class.getName());
+
+	private final CodeWriter out;
+
+	private final SerializerConfig config;
+
+	private final boolean onlyPropertiesWithMatchingField;
+
+	/**
+	 * The path filter of the configuration or null
+	 */
+	private final PathFilter pathFilter;
+
+	/**
+	 * Returned by {@link #visit(Object, int, PathFilter.State)} if a frame
+	 * was pushed for the object.
+	 */
+	private static final int PENDING = -1;
+
+	/**
+	 * Returned by {@link #visit(Object, int, PathFilter.State)} if the object
+	 * is written as the literal in {@link #literal}.
+	 */
+	private static final int LITERAL = -2;
+
+	/**
+	 * Returned by {@link #visit(Object, int, PathFilter.State)} if the path
+	 * filter skips the object.
+	 */
+	private static final int PRUNED = -3;
+
+	/**
+	 * The maximal amount of items, keys and values count separately, that are
+	 * written with one statement in compact mode
+	 */
+	private static final int BULK_SIZE = 256;
+
+	/**
+	 * The literal of an object that exceeds the budget
+	 */
+	static final String TRUNCATED = "null /* truncated */";
+
+	/**
+	 * The literal of a lazy association that is not loaded, see
+	 * {@link LazinessDetector}
+	 */
+	static final String UNINITIALIZED = "null /* uninitialized */";
+
+	/**
+	 * map that counts how many instances of a certain clazz we already
+	 * generated. The count is kept in a one element array so it can be
+	 * incremented in place.
+	 */
+	private final Map<Class<?>, int[]> clazz2count;
+
+	/**
+	 * this map contains a mapping from objects to the ids of their variables
+	 */
+	private final IdentityIntMap object2variable;
+
+	/**
+	 * The plans of the classes of the variables indexed by the variable id
+	 */
+	private ClassPlan[] variablePlans = new ClassPlan[16];
+
+	/**
+	 * The number of the variables within their class indexed by the variable
+	 * id. The name of a variable is only built when it is written.
+	 */
+	private int[] variableNumbers = new int[16];
+
+	private int variableCount;
+
+	/**
+	 * The emitter that splits the statements into methods or null if the
+	 * statements are written as they are
+	 */
+	private final ClassEmitter classEmitter;
+
+	/**
+	 * The pool of the repeated literals or null if no constants are used
+	 */
+	private final ConstantPool constantPool;
+
+	/**
+	 * The listener of the configuration or null if nothing is measured
+	 */
+	private SerializationListener listener;
+
+	/**
+	 * The variable whose statement is currently written or -1, only tracked
+	 * for the listener
+	 */
+	private int statementOwner = -1;
+
+	/**
+	 * The position of the current statement, only tracked for the listener
+	 */
+	private long statementStart;
+
+	/**
+	 * The budget of the configuration or null
+	 */
+	private SerializationBudget budget;
+
+	/**
+	 * What was cut because of the budget
+	 */
+	private final Truncation truncation = new Truncation();
+
+	/**
+	 * When the writer was created, in nanoseconds
+	 */
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * The position of the target when the writer was created, the size of
+	 * the budget only counts the code of this writer
+	 */
+	private final long startPosition;
+
+	/**
+	 * The amount of objects that were checked against the budget
+	 */
+	private int checks;
+
+	/**
+	 * If the size, the amount of objects or the time is exceeded, then no
+	 * further object is written
+	 */
+	private boolean exhausted;
+
+	/**
+	 * If a {@link CapturedGraph} is written
+	 */
+	private boolean captured;
+
+	/**
+	 * If only the variables are assigned and the code is thrown away. Then
+	 * literals and primitive arrays are not formatted.
+	 */
+	private boolean planning;
+
+	/**
+	 * The graph writer whose variables below {@link #firstVariable} are
+	 * known to this writer or null
+	 */
+	private final ObjectGraphWriter base;
+
+	/**
+	 * The id of the first variable of this writer
+	 */
+	private final int firstVariable;
+
+	/**
+	 * The literal of the last object that was visited as
+	 * {@link #LITERAL}.
+	 */
+	private String literal;
+
+	/**
+	 * The beans, collections and maps that are currently written. The top
+	 * frame is the one that is written right now.
+	 */
+	private final Deque<Frame> stack = new ArrayDeque<>();
+
+	/**
+	 * The literal of the root
+	 */
+	private String result;
+
+	/**
+	 * The variable of the root
+	 */
+	private int resultVariable = PENDING;
+
+	/**
+	 * Creates a writer for a single object graph.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param config
+	 *            the configuration to use
+	 * @param onlyPropertiesWithMatchingField
+	 *            use only properties that have a field with the same name
+	 */
+	ObjectGraphWriter(CodeWriter out, SerializerConfig config,
+			boolean onlyPropertiesWithMatchingField) {
+		this.out = out;
+		this.startPosition = out.getPosition();
+		this.config = config;
+		this.onlyPropertiesWithMatchingField = onlyPropertiesWithMatchingField;
+		this.classEmitter = null;
+		this.constantPool = newConstantPool(config);
+		this.listener = config.getListener();
+		this.budget = config.getBudget();
+		this.pathFilter = config.getPathFilter();
+		this.base = null;
+		this.firstVariable = 0;
+		this.clazz2count = new HashMap<>();
+		this.object2variable = new IdentityIntMap();
+	}
+
+	/**
+	 * Creates a writer that writes a graph as a class, see
+	 * {@link #writeClass(Object)}.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param config
+	 *            the configuration
+	 * @param onlyPropertiesWithMatchingField
+	 *            use only properties that have a corresponding field
+	 * @param classEmitter
+	 *            the emitter for the class
+	 */
+	ObjectGraphWriter(CodeWriter out, SerializerConfig config,
+			boolean onlyPropertiesWithMatchingField,
+			ClassEmitter classEmitter) {
+		this.out = out;
+		this.startPosition = out.getPosition();
+		this.config = config;
+		this.onlyPropertiesWithMatchingField = onlyPropertiesWithMatchingField;
+		this.classEmitter = classEmitter;
+		this.constantPool = newConstantPool(config);
+		this.listener = config.getListener();
+		this.budget = config.getBudget();
+		this.pathFilter = config.getPathFilter();
+		this.base = null;
+		this.firstVariable = 0;
+		this.clazz2count = new HashMap<>();
+		this.object2variable = new IdentityIntMap();
+	}
+
+	/**
+	 * Creates a writer that continues the walk of the given base writer at a
+	 * point where it had created the given amount of variables. The
+	 * variables of the base writer below that point can be referenced, all
+	 * other objects are written again with the same variable ids. The base
+	 * writer must not be changed while this writer is used.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param base
+	 *            the writer to continue
+	 * @param firstVariable
+	 *            the amount of variables the base writer had at that point
+	 * @param clazz2count
+	 *            the counts of the base writer at that point, see
+	 *            {@link #copyCounts()}
+	 */
+	ObjectGraphWriter(CodeWriter out, ObjectGraphWriter base,
+			int firstVariable, Map<Class<?>, int[]> clazz2count) {
+		this.out = out;
+		this.startPosition = out.getPosition();
+		this.config = base.config;
+		this.onlyPropertiesWithMatchingField = base.onlyPropertiesWithMatchingField;
+		this.classEmitter = null;
+		this.constantPool = null;
+		this.listener = base.config.getListener();
+		this.budget = null;
+		this.pathFilter = base.pathFilter;
+		this.captured = base.captured;
+		this.base = base;
+		this.firstVariable = firstVariable;
+		this.clazz2count = new HashMap<>(clazz2count);
+		this.object2variable = new IdentityIntMap();
+	}
+
+	/**
+	 * Creates a writer that continues after the given writer. It takes over
+	 * all variables and counts of the given writer instead of looking them
+	 * up in it, so the given writer must not be used anymore.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param previous
+	 *            the writer whose variables are taken over
+	 */
+	ObjectGraphWriter(CodeWriter out, ObjectGraphWriter previous) {
+		this.out = out;
+		this.startPosition = out.getPosition();
+		this.config = previous.config;
+		this.onlyPropertiesWithMatchingField = previous.onlyPropertiesWithMatchingField;
+		this.classEmitter = null;
+		this.constantPool = null;
+		this.listener = previous.config.getListener();
+		this.budget = null;
+		this.pathFilter = previous.pathFilter;
+		this.base = previous.base;
+		this.firstVariable = previous.firstVariable;
+		this.clazz2count = previous.clazz2count;
+		this.object2variable = previous.object2variable;
+		this.variablePlans = previous.variablePlans;
+		this.variableNumbers = previous.variableNumbers;
+		this.variableCount = previous.variableCount;
+	}
+
+	/**
+	 * Writes the complete graph of the given object.
+	 *
+	 * @param o
+	 *            the root of the graph
+	 * @return the variable name of the root or the literal if the root is a
+	 *         primitive
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	String write(Object o) throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		return writeProcessed(process(o));
+	}
+
+	/**
+	 * Writes the given graph whose root was already processed with
+	 * {@link #process(Object)}.
+	 *
+	 * @param o
+	 *            the processed root of the graph
+	 * @return the name of the variable or the literal for the root
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	String writeProcessed(Object o) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		return writeProcessed(o, rootPath());
+	}
+
+	/**
+	 * Writes the graph of an object that is reached on the given path, e.g.
+	 * a new value of a property.
+	 *
+	 * @param o
+	 *            the object to write
+	 * @param path
+	 *            the state of the path filter for the object or null if
+	 *            nothing is filtered
+	 * @return the name of the variable, the literal for the object or null if
+	 *         the path filter skips it
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	String write(Object o, PathFilter.State path) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		o = process(o);
+		if (path != null) {
+			path = path.accept(o == null ? null : planOf(o).getType());
+			if (path == null) {
+				return null;
+			}
+		}
+		return writeProcessed(o, path);
+	}
+
+	/**
+	 * Writes a graph whose root was processed and accepted by the path
+	 * filter, the path is the state for the content of the root.
+	 */
+	private String writeProcessed(Object o, PathFilter.State path)
+			throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		setResult(visitProcessed(o, 0, path));
+		while (!advance(Integer.MAX_VALUE)) {
+			// advance until the graph is done
+		}
+		return getResult();
+	}
+
+	/**
+	 * Writes a graph that was captured before, e.g. by another thread. The
+	 * processors are not applied again.
+	 *
+	 * @param root
+	 *            the root of the captured graph, a value or a node
+	 * @return the name of the variable or the literal for the root
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	String writeCaptured(Object root) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		setCaptured();
+		return writeProcessed(root);
+	}
+
+	/**
+	 * Marks that this writer writes the nodes of a {@link CapturedGraph}
+	 * instead of objects, see {@link CapturedGraph#sharedRoot()}.
+	 */
+	void setCaptured() {
+		captured = true;
+	}
+
+	/**
+	 * Only assigns the variables, e.g. to find out which objects a later
+	 * writer can reference. The code that is written is incomplete.
+	 */
+	void setPlanning() {
+		planning = true;
+	}
+
+	/**
+	 * @return the state of the path filter for the root or null if nothing is
+	 *         filtered. The root itself is always written.
+	 */
+	private PathFilter.State rootPath() {
+		return pathFilter != null && !captured ? pathFilter.start() : null;
+	}
+
+	private static ConstantPool newConstantPool(SerializerConfig config) {
+		int threshold = config.getConstantThreshold();
+		return threshold > 0 ? new ConstantPool(threshold) : null;
+	}
+
+	/**
+	 * Replaces the listener of the configuration.
+	 *
+	 * @param listener
+	 *            the listener or null to measure nothing
+	 */
+	void setListener(SerializationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Replaces the budget of the configuration.
+	 *
+	 * @param budget
+	 *            the budget or null to write the complete graph
+	 */
+	void setBudget(SerializationBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return what was cut because of the budget
+	 */
+	Truncation getTruncation() {
+		return truncation;
+	}
+
+	/**
+	 * Writes the given graph as a complete class with the
+	 * {@link ClassEmitter} of this writer.
+	 *
+	 * @param o
+	 *            the root of the graph
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	void writeClass(Object o) throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		classEmitter.beginClass(out);
+		String root = write(o);
+		String type = resultVariable >= 0
+				? plan(resultVariable).getVariableType().getCanonicalName()
+				: "Object";
+		classEmitter.endClass(out, type, root);
+	}
+
+	/**
+	 * Applies the processors of the configuration to the object.
+	 *
+	 * @param o
+	 *            the object to process
+	 * @return the processed object
+	 */
+	Object process(Object o) {
+		if (captured) {
+			// the processors were applied while capturing
+			return o;
+		}
+		return config.process(o);
+	}
+
+	/**
+	 * Writes the declaration of a collection or map that is the root of the
+	 * graph. The items or entries are then written one by one with
+	 * {@link #writeItem(int, Object)} or {@link #writeEntry(int, Entry)}.
+	 *
+	 * @param container
+	 *            the already processed collection or map or its node
+	 * @return the id of the variable of the container
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	int declareContainer(Object container) throws IOException {
+		ClassPlan plan = planOf(container);
+		int variable = declare(container, plan);
+		appendNewContainer(container, plan,
+				plan.getType().getCanonicalName());
+		return variable;
+	}
+
+	/**
+	 * Writes an item of the collection that was declared with
+	 * {@link #declareContainer(Object)}.
+	 *
+	 * @param collection
+	 *            the variable of the collection
+	 * @param item
+	 *            the item to write
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	void writeItem(int collection, Object item) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		stack.push(new CollectionFrame(collection,
+				Collections.singleton(item).iterator(), 0, rootPath()));
+		while (!advance(Integer.MAX_VALUE)) {
+			// advance until the item is done
+		}
+	}
+
+	/**
+	 * Writes an entry of the map that was declared with
+	 * {@link #declareContainer(Object)}.
+	 *
+	 * @param map
+	 *            the variable of the map
+	 * @param entry
+	 *            the entry to write
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	void writeEntry(int map, Entry<?, ?> entry) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		stack.push(new MapFrame(map,
+				Collections.<Entry<?, ?>> singleton(entry).iterator(), 0,
+				rootPath()));
+		while (!advance(Integer.MAX_VALUE)) {
+			// advance until the entry is done
+		}
+	}
+
+	/**
+	 * @return the ids that were given to variables so far
+	 */
+	int getVariableCount() {
+		return firstVariable + variableCount;
+	}
+
+	/**
+	 * @return a copy of the current counts of the variables per class
+	 */
+	Map<Class<?>, int[]> copyCounts() {
+		Map<Class<?>, int[]> copy = new HashMap<>();
+		for (Entry<Class<?>, int[]> entry : clazz2count.entrySet()) {
+			copy.put(entry.getKey(), entry.getValue().clone());
+		}
+		return copy;
+	}
+
+	/**
+	 * Starts writing the given graph. If the root needs no frames e.g.
+	 * because it is a primitive the graph is done directly.
+	 *
+	 * @param o
+	 *            the root of the graph
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	void start(Object o) throws IOException {
+		setResult(visitProcessed(process(o), 0, rootPath()));
+	}
+
+	private void setResult(int ref) {
+		result = ref == LITERAL ? literal : null;
+		// a frame sets the variable when it is done
+		resultVariable = ref >= 0 ? ref : PENDING;
+	}
+
+	/**
+	 * Advances the walk by the given amount of steps. A step writes at most
+	 * one bean, collection or map until it reaches a child that needs its own
+	 * frame.
+	 *
+	 * @param maxSteps
+	 *            how many steps to do at most
+	 * @return true if the graph is completely written
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	boolean advance(int maxSteps) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		for (int i = 0; i < maxSteps && !stack.isEmpty(); i++) {
+			Frame frame = stack.peek();
+			if (frame.step()) {
+				stack.pop();
+				Frame parent = stack.peek();
+				if (parent == null) {
+					resultVariable = frame.variable;
+				} else {
+					parent.resume(frame.variable);
+				}
+			}
+		}
+		return isDone();
+	}
+
+	/**
+	 * @return true if the graph is completely written
+	 */
+	boolean isDone() {
+		return stack.isEmpty();
+	}
+
+	/**
+	 * @return the variable name of the root or the literal if the root is a
+	 *         primitive, only available when the graph is done
+	 */
+	String getResult() {
+		return resultVariable >= 0 ? getVariableName(resultVariable) : result;
+	}
+
+	/**
+	 * Visits an object. Objects that are written as literal or that were
+	 * already written return their code directly. For all other objects the
+	 * declaration is written and a frame is pushed that will write their
+	 * content.
+	 *
+	 * @param o
+	 *            the object to visit
+	 * @param depth
+	 *            the depth of the object in the graph
+	 * @param path
+	 *            the state of the path filter for the object or null if
+	 *            nothing is filtered
+	 * @return the id of the variable of the object, {@link #LITERAL} if the
+	 *         object is written as {@link #literal}, {@link #PENDING} if a
+	 *         frame was pushed or {@link #PRUNED} if the path filter skips
+	 *         the object
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	private int visit(Object o, int depth, PathFilter.State path)
+			throws IOException {
+		o = process(o);
+		if (path != null) {
+			path = path.accept(o == null ? null : planOf(o).getType());
+			if (path == null) {
+				return PRUNED;
+			}
+		}
+		return visitProcessed(o, depth, path);
+	}
+
+	/**
+	 * Visits an object that was processed and accepted by the path filter.
+	 * The path is the state for the content of the object.
+	 */
+	@SuppressWarnings("rawtypes")
+	private int visitProcessed(Object o, int depth, PathFilter.State path)
+			throws IOException {
+		if (o == null) {
+			return literal("null");
+		}
+		if (o instanceof CapturedGraph.Node
+				? ((CapturedGraph.Node) o).isUninitialized()
+				: config.isUninitialized(o)) {
+			return literal(UNINITIALIZED);
+		}
+
+		// if we already serialized the object
+		// we just output the name of the variable
+		// to create a back reference
+		int variable = lookup(o);
+		if (variable != IdentityIntMap.MISSING) {
+			return variable;
+		}
+
+		ClassPlan plan = planOf(o);
+		Class<?> clazz = plan.getType();
+		if (budget != null && exceedsBudget(depth)) {
+			truncation.truncate(clazz);
+			return literal(TRUNCATED);
+		}
+		if (listener != null) {
+			listener.objectVisited(clazz, depth);
+		}
+		switch (plan.getKind()) {
+		case PRIMITIVE:
+			return literal(
+					planning ? "" : constant(o, formatType(clazz, o)));
+		case STRING:
+			return literal(planning ? ""
+					: constant(o, "\"" + o.toString() + "\""));
+		case ENUM:
+			return literal(planning ? ""
+					: clazz.getCanonicalName() + "." + ((Enum) o).name());
+		case COLLECTION:
+			variable = declare(o, plan);
+			appendNewContainer(o, plan, clazz.getCanonicalName());
+			stack.push(new CollectionFrame(variable, items(o), depth, path));
+			return PENDING;
+		case MAP:
+			variable = declare(o, plan);
+			appendNewContainer(o, plan, clazz.getCanonicalName());
+			stack.push(new MapFrame(variable, entries(o), depth, path));
+			return PENDING;
+		case ARRAY:
+			return visitArray(o, plan, depth, path);
+		default:
+			break;
+		}
+
+		String constructorCode = constructorCode(o, plan);
+		if (constructorCode != null) {
+			variable = declare(o, plan);
+			out.append(constructorCode);
+			endStatement();
+			// do not go down when
+			// a custom constructor was supplied
+			// just return the name of the variable
+			return variable;
+		}
+		if (!isConstructible(o, plan)) {
+			return literal("null /* Could not generate code for "
+					+ clazz.getCanonicalName()
+					+ " there is not no args constructor */");
+		}
+		variable = declare(o, plan);
+		out.append("new ").append(clazz.getCanonicalName()).append("()");
+		endStatement();
+		stack.push(new BeanFrame(variable, o, plan, depth, path));
+		return PENDING;
+	}
+
+	/**
+	 * Returns the plan of the class of an object or of a captured object.
+	 */
+	private ClassPlan planOf(Object o) {
+		return config.getPlan(o instanceof CapturedGraph.Node
+				? ((CapturedGraph.Node) o).getType()
+				: o.getClass());
+	}
+
+	/**
+	 * Returns the code of the custom constructor of a bean or null if its
+	 * class has no constructor generator.
+	 */
+	private String constructorCode(Object o, ClassPlan plan) {
+		if (o instanceof CapturedGraph.Node) {
+			return ((CapturedGraph.Node) o).getConstructorCode();
+		}
+		Function<Object, String> constructorGenerator = plan
+				.getConstructorGenerator();
+		return constructorGenerator != null ? constructorGenerator.apply(o)
+				: null;
+	}
+
+	/**
+	 * Checks if a bean can be created with a no-args constructor.
+	 */
+	private boolean isConstructible(Object o, ClassPlan plan) {
+		boolean constructible = o instanceof CapturedGraph.Node
+				? ((CapturedGraph.Node) o).isConstructible()
+				: plan.getConstruction() == ClassPlan.Construction.NO_ARGS_CONSTRUCTOR;
+		if (!constructible) {
+			log.warning("There is no no-args constructor for "
+					+ plan.getType().getName());
+		}
+		return constructible;
+	}
+
+	/**
+	 * @return the items of a collection or of a captured collection
+	 */
+	private static Iterator<?> items(Object collection) {
+		return collection instanceof CapturedGraph.Node
+				? ((CapturedGraph.Node) collection).getValues().iterator()
+				: ((Collection<?>) collection).iterator();
+	}
+
+	/**
+	 * @return the entries of a map or of a captured map
+	 */
+	private static Iterator<? extends Entry<?, ?>> entries(Object map) {
+		if (!(map instanceof CapturedGraph.Node)) {
+			return ((Map<?, ?>) map).entrySet().iterator();
+		}
+		Iterator<Object> keysAndValues = ((CapturedGraph.Node) map)
+				.getValues().iterator();
+		return new Iterator<Entry<?, ?>>() {
+			@Override
+			public boolean hasNext() {
+				return keysAndValues.hasNext();
+			}
+
+			@Override
+			public Entry<?, ?> next() {
+				return new AbstractMap.SimpleImmutableEntry<>(
+						keysAndValues.next(), keysAndValues.next());
+			}
+		};
+	}
+
+	/**
+	 * @return the amount of items or entries of a container
+	 */
+	private static int sizeOf(Object container) {
+		if (container instanceof CapturedGraph.Node) {
+			return ((CapturedGraph.Node) container).getSize();
+		}
+		return container instanceof Map ? ((Map<?, ?>) container).size()
+				: ((Collection<?>) container).size();
+	}
+
+	/**
+	 * Checks if an object at the given depth exceeds the budget.
+	 */
+	private boolean exceedsBudget(int depth) {
+		if (exhausted) {
+			return true;
+		}
+		if (getVariableCount() >= budget.getMaxObjects()) {
+			exhaust(Limit.OBJECTS);
+		} else if (out.getPosition() - startPosition >= budget
+				.getMaxChars()) {
+			exhaust(Limit.CHARS);
+		} else if (++checks % SerializationBudget.TIME_CHECK_INTERVAL == 0
+				&& System.nanoTime() - startNanos > budget.getTimeoutNanos()) {
+			exhaust(Limit.TIME);
+		} else if (depth > budget.getMaxDepth()) {
+			truncation.exceed(Limit.DEPTH);
+			return true;
+		}
+		return exhausted;
+	}
+
+	private void exhaust(Limit limit) {
+		log.warning("The serialization exceeded the limit " + limit
+				+ " of its budget and is truncated.");
+		truncation.exceed(limit);
+		exhausted = true;
+	}
+
+	/**
+	 * Checks if a frame has to stop writing its content because the budget
+	 * is exhausted and records that its object is incomplete.
+	 */
+	private boolean stop(Frame frame) {
+		if (!exhausted) {
+			return false;
+		}
+		truncation.leaveIncomplete(plan(frame.variable).getType());
+		return true;
+	}
+
+	private int literal(String code) {
+		literal = code;
+		return LITERAL;
+	}
+
+	/**
+	 * Counts the use of a literal and returns the name of its constant if it
+	 * is hoisted. A new constant is declared before the statement that uses
+	 * it, so this must not be called while a statement is written.
+	 *
+	 * @param value
+	 *            the value of the literal
+	 * @param code
+	 *            the code of the literal
+	 * @return the name of the constant or the literal
+	 */
+	private String constant(Object value, String code) throws IOException {
+		if (constantPool == null || !ConstantPool.isPoolable(value)) {
+			return code;
+		}
+		ConstantPool.Constant constant = constantPool.use(value, code);
+		String name = constant.getName();
+		if (name == null) {
+			return code;
+		}
+		if (constant.declare()) {
+			String type = value.getClass().getCanonicalName();
+			if (classEmitter != null) {
+				classEmitter.declareConstant(type, name, code);
+			} else {
+				beginStatement(-1);
+				out.append("final ").append(type).append(' ').append(name)
+						.append(" = ").append(code);
+				endStatement();
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Assigns a variable to the object and writes the start of its
+	 * declaration.
+	 */
+	private int declare(Object o, ClassPlan plan) throws IOException {
+		int variable = newVariable(o, plan);
+		beginDeclaration(plan.getVariableType().getCanonicalName(), variable);
+		return variable;
+	}
+
+	/**
+	 * Assigns a variable to a collection or map that is the value of a
+	 * property. The declaration uses the binary name of the class.
+	 */
+	private int declareProperty(Object o) throws IOException {
+		ClassPlan plan = planOf(o);
+		int variable = newVariable(o, plan);
+		beginDeclaration(plan.getType().getName(), variable);
+		appendNewContainer(o, plan, plan.getType().getName());
+		return variable;
+	}
+
+	/**
+	 * Declares an array. Primitive arrays are written completely, either as
+	 * array literal or Base64 encoded. Object arrays are created with their
+	 * length and a frame assigns the elements.
+	 */
+	private int visitArray(Object array, ClassPlan plan, int depth,
+			PathFilter.State path) throws IOException {
+		Class<?> component = plan.getType().getComponentType();
+		List<?> elements = array instanceof CapturedGraph.Node
+				? ((CapturedGraph.Node) array).getValues()
+				: component.isPrimitive() ? null
+						: Arrays.asList((Object[]) array);
+		int length = elements != null ? elements.size()
+				: Array.getLength(array);
+		int variable = declare(array, plan);
+		if (!component.isPrimitive()) {
+			appendNewArray(plan.getType(), length);
+			endStatement();
+			stack.push(new ArrayFrame(variable, elements, depth, path));
+			return PENDING;
+		}
+		int threshold = config.getBase64ArrayThreshold();
+		if (planning) {
+			// the elements are not needed to assign the variables
+			endStatement();
+			return variable;
+		}
+		boolean encoded = threshold > 0 && length >= threshold
+				&& PrimitiveArrays.isEncodable(component);
+		if (!encoded && (classEmitter == null
+				|| length <= PrimitiveArrays.LITERAL_CHUNK_ELEMENTS)) {
+			out.append("new ").append(plan.getType().getCanonicalName())
+					.append(" {");
+			PrimitiveArrays.appendElements(out, array);
+			out.append('}');
+			endStatement();
+			return variable;
+		}
+		appendNewArray(plan.getType(), length);
+		endStatement();
+		String name = getVariableName(variable);
+		if (!encoded) {
+			// a large literal does not fit into one method of a class
+			int chunk = PrimitiveArrays.LITERAL_CHUNK_ELEMENTS;
+			for (int offset = 0; offset < length; offset += chunk) {
+				beginStatement(variable);
+				PrimitiveArrays.appendCopy(out, name, array, offset,
+						Math.min(chunk, length - offset));
+				endStatement();
+			}
+			return variable;
+		}
+		int chunk = PrimitiveArrays.elementsPerChunk(component);
+		for (int offset = 0; offset < length; offset += chunk) {
+			beginStatement(variable);
+			PrimitiveArrays.appendDecode(out, name, array, offset,
+					Math.min(chunk, length - offset));
+			endStatement();
+		}
+		return variable;
+	}
+
+	/**
+	 * Writes the creation of an empty array e.g. new int[3][] for an int[][]
+	 * with 3 elements.
+	 */
+	private void appendNewArray(Class<?> type, int length)
+			throws IOException {
+		int dimensions = 0;
+		Class<?> element = type;
+		while (element.isArray()) {
+			element = element.getComponentType();
+			dimensions++;
+		}
+		out.append("new ").append(element.getCanonicalName()).append('[')
+				.append(length).append(']');
+		for (int i = 1; i < dimensions; i++) {
+			out.append("[]");
+		}
+	}
+
+	/**
+	 * Writes the constructor call of a collection or map. In compact mode the
+	 * capacity is passed if the int constructor of the class takes the
+	 * initial capacity, see {@link ClassPlan#getInitialCapacity(int)}.
+	 */
+	private void appendNewContainer(Object o, ClassPlan plan, String type)
+			throws IOException {
+		out.append("new ").append(type).append('(');
+		if (config.isCompactCollections()) {
+			int capacity = plan.getInitialCapacity(sizeOf(o));
+			if (capacity >= 0) {
+				out.append(capacity);
+			}
+		}
+		out.append(')');
+		endStatement();
+	}
+
+	/**
+	 * Writes the start of the declaration of a variable. If a class is
+	 * written the variable is a field of the class and is only assigned.
+	 */
+	private void beginDeclaration(String type, int variable)
+			throws IOException {
+		beginStatement(variable);
+		if (classEmitter != null) {
+			classEmitter.declareField(type, getVariableName(variable));
+		} else {
+			out.append(type).append(' ');
+		}
+		appendName(variable);
+		out.append(" = ");
+	}
+
+	/**
+	 * Starts a statement that belongs to the object of the given variable or
+	 * to no object if it is -1.
+	 */
+	private void beginStatement(int owner) throws IOException {
+		if (classEmitter != null) {
+			classEmitter.beginStatement(out);
+		}
+		if (listener != null) {
+			statementOwner = owner;
+			statementStart = out.getPosition();
+		}
+	}
+
+	private void endStatement() throws IOException {
+		out.append(";\n");
+		countStatement();
+	}
+
+	/**
+	 * Ends a statement that is a block and needs no semicolon.
+	 */
+	private void endBlock() throws IOException {
+		out.append('\n');
+		countStatement();
+	}
+
+	private void countStatement() throws IOException {
+		if (listener != null && statementOwner >= 0) {
+			listener.codeWritten(plan(statementOwner).getType(),
+					out.getPosition() - statementStart);
+			statementOwner = -1;
+		}
+		if (classEmitter != null) {
+			classEmitter.endStatement(out);
+		}
+	}
+
+	/**
+	 * Returns the variable of an already written object or visits it. If
+	 * there is a path filter the object is always visited, because the path
+	 * filter decides before the back reference is written.
+	 */
+	private int reference(Object o, int depth, PathFilter.State path)
+			throws IOException {
+		int variable = o == null || path != null ? IdentityIntMap.MISSING
+				: lookup(o);
+		return variable != IdentityIntMap.MISSING ? variable
+				: visit(o, depth, path);
+	}
+
+	/**
+	 * Looks up the variable of an already written object.
+	 *
+	 * @param o
+	 *            the object to look up
+	 * @return the id of the variable or {@link IdentityIntMap#MISSING}
+	 */
+	private int lookup(Object o) {
+		int variable = find(o);
+		if (listener != null && variable != IdentityIntMap.MISSING) {
+			listener.backReference(planOf(o).getType());
+		}
+		return variable;
+	}
+
+	/**
+	 * Finds the variable of an object that was written by this writer or by
+	 * one of its base writers before this writer started.
+	 *
+	 * @param o
+	 *            the object to find
+	 * @return the id of the variable or {@link IdentityIntMap#MISSING}
+	 */
+	int find(Object o) {
+		int variable = object2variable.get(o);
+		if (variable == IdentityIntMap.MISSING && base != null) {
+			variable = base.find(o);
+			if (variable >= firstVariable) {
+				// the base writer wrote it after our starting point
+				return IdentityIntMap.MISSING;
+			}
+		}
+		return variable;
+	}
+
+	/**
+	 * Writes a complete statement.
+	 *
+	 * @param owner
+	 *            the variable the statement belongs to
+	 * @param code
+	 *            the code of the statement without semicolon
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	void writeStatement(int owner, String code) throws IOException {
+		beginStatement(owner);
+		out.append(code);
+		endStatement();
+	}
+
+	/**
+	 * Creates a new variable for the given object. This also makes sure if a
+	 * certain class has multiple instance they get different names.
+	 *
+	 * @param o
+	 *            the object that is stored in the variable
+	 * @param plan
+	 *            the plan of the class of the object
+	 * @return the id of the variable
+	 */
+	private int newVariable(Object o, ClassPlan plan) {
+		int[] count = clazz2count.get(plan.getType());
+		if (count == null) {
+			count = new int[] { -1 };
+			clazz2count.put(plan.getType(), count);
+		}
+		int index = variableCount++;
+		if (index == variablePlans.length) {
+			variablePlans = Arrays.copyOf(variablePlans, index * 2);
+			variableNumbers = Arrays.copyOf(variableNumbers, index * 2);
+		}
+		variablePlans[index] = plan;
+		variableNumbers[index] = ++count[0];
+		int variable = firstVariable + index;
+		object2variable.put(o, variable);
+		return variable;
+	}
+
+	/**
+	 * Writes the name of a variable.
+	 *
+	 * @param variable
+	 *            the id of the variable
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	private void appendName(int variable) throws IOException {
+		if (variable < firstVariable) {
+			base.appendName(out, variable);
+		} else {
+			appendName(out, variable);
+		}
+	}
+
+	private void appendName(CodeWriter out, int variable)
+			throws IOException {
+		int index = variable - firstVariable;
+		out.append(variablePlans[index].getVariableNamePrefix())
+				.append(variableNumbers[index]);
+	}
+
+	/**
+	 * Writes the name of a variable or the literal of the last visit.
+	 *
+	 * @param ref
+	 *            the id of the variable or {@link #LITERAL}
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	private void appendValue(int ref) throws IOException {
+		if (ref == LITERAL) {
+			out.append(literal);
+		} else {
+			appendName(ref);
+		}
+	}
+
+	/**
+	 * Returns the plan of the class of a variable.
+	 */
+	private ClassPlan plan(int variable) {
+		if (variable < firstVariable) {
+			return base.plan(variable);
+		}
+		return variablePlans[variable - firstVariable];
+	}
+
+	/**
+	 * Builds the name of a variable.
+	 *
+	 * @param variable
+	 *            the id of the variable
+	 * @return the name of the variable
+	 */
+	String getVariableName(int variable) {
+		if (variable < firstVariable) {
+			return base.getVariableName(variable);
+		}
+		int index = variable - firstVariable;
+		return variablePlans[index].getVariableNamePrefix()
+				+ variableNumbers[index];
+	}
+
+	/**
+	 * Formats the given value according to the given class.
+	 *
+	 * @param clazz
+	 *            primitive class to use for formatting.
+	 * @param value
+	 *            the value of the variable
+	 * @return a string representation of the variable
+	 */
+	static String formatType(Class<?> clazz, Object value) {
+		if (clazz == Byte.TYPE || clazz == Byte.class) {
+			return "(byte) " + value;
+		} else if (clazz == Character.TYPE || clazz == Character.class) {
+			return value.equals('\u0000') ? "''" : "'" + value + "'";
+		} else if (clazz == Short.TYPE || clazz == Short.class) {
+			return "(short)" + value;
+		} else if (clazz == Long.TYPE || clazz == Long.class) {
+			return value + "l";
+		} else if (clazz == Float.TYPE || clazz == Float.class) {
+			return value + "f";
+		} else if (clazz == Boolean.TYPE || clazz == Boolean.class) {
+			return value.toString();
+		} else if (clazz == Double.TYPE || clazz == Double.class) {
+			return value.toString();
+		} else if (clazz == Integer.TYPE || clazz == Integer.class) {
+			return value.toString();
+		} else if (clazz == BigDecimal.class && value instanceof BigDecimal) {
+			return "new java.math.BigDecimal(\"" + value.toString() + "\")";
+		} else {
+			throw new IllegalArgumentException("Type "
+					+ clazz.getCanonicalName()
+					+ " is not a supported primitive type.");
+		}
+	}
+
+	/**
+	 * Formats the value of a primitive property as it is read with
+	 * {@link PropertyPlan#getPrimitive(Object)}.
+	 *
+	 * @param type
+	 *            the primitive type of the property
+	 * @param value
+	 *            the value as long
+	 * @return the literal of the value
+	 */
+	static String formatPrimitive(Class<?> type, long value) {
+		Object boxed;
+		if (type == Long.TYPE) {
+			boxed = value;
+		} else if (type == Double.TYPE) {
+			boxed = Double.longBitsToDouble(value);
+		} else if (type == Float.TYPE) {
+			boxed = (float) Double.longBitsToDouble(value);
+		} else if (type == Boolean.TYPE) {
+			boxed = value != 0;
+		} else if (type == Character.TYPE) {
+			boxed = (char) value;
+		} else {
+			// byte and short are written like their int value
+			boxed = (int) value;
+		}
+		return formatType(type, boxed);
+	}
+
+	/**
+	 * Writes the value of a primitive property.
+	 *
+	 * @param type
+	 *            the primitive type of the property
+	 * @param value
+	 *            the value as returned by
+	 *            {@link PropertyPlan#getPrimitive(Object)}
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	private void appendPrimitive(Class<?> type, long value)
+			throws IOException {
+		if (type == Integer.TYPE) {
+			out.append((int) value);
+		} else if (type == Byte.TYPE) {
+			out.append("(byte) ").append((int) value);
+		} else if (type == Character.TYPE) {
+			if (value == 0) {
+				out.append("''");
+			} else {
+				out.append('\'').append((char) value).append('\'');
+			}
+		} else if (type == Short.TYPE) {
+			out.append("(short)").append((int) value);
+		} else if (type == Long.TYPE) {
+			out.append(Long.toString(value)).append('l');
+		} else if (type == Float.TYPE) {
+			out.append(Float.toString((float) Double.longBitsToDouble(value)))
+					.append('f');
+		} else if (type == Double.TYPE) {
+			out.append(Double.toString(Double.longBitsToDouble(value)));
+		} else {
+			out.append(value != 0 ? "true" : "false");
+		}
+	}
+
+	/**
+	 * A bean, collection or map whose content is currently written.
+	 */
+	private abstract static class Frame {
+		/**
+		 * The id of the variable of the written object
+		 */
+		final int variable;
+		/**
+		 * The depth of the written object in the graph
+		 */
+		final int depth;
+		/**
+		 * The state of the path filter for the content or null if nothing is
+		 * filtered
+		 */
+		final PathFilter.State path;
+
+		Frame(int variable, int depth, PathFilter.State path) {
+			this.variable = variable;
+			this.depth = depth;
+			this.path = path;
+		}
+
+		/**
+		 * Writes the content until a child needs its own frame.
+		 *
+		 * @return true if the content is completely written
+		 */
+		abstract boolean step() throws IOException, IntrospectionException,
+				ReflectiveOperationException;
+
+		/**
+		 * Continues after the frame of a child was completely written.
+		 *
+		 * @param child
+		 *            the id of the variable of the child
+		 */
+		abstract void resume(int child) throws IOException;
+	}
+
+	/**
+	 * Writes the properties of a bean with its setters.
+	 */
+	private final class BeanFrame extends Frame {
+		private final Object bean;
+		/**
+		 * The bean if it was captured or null
+		 */
+		private final CapturedGraph.Node node;
+		private final ClassPlan plan;
+		private List<PropertyPlan> properties;
+		/**
+		 * The defaults of the class if they are elided or null
+		 */
+		private ClassPlan.Defaults defaults;
+		private int index;
+		/**
+		 * The property whose value is currently written in a child frame
+		 */
+		private PropertyPlan pending;
+
+		BeanFrame(int variable, Object bean, ClassPlan plan, int depth,
+				PathFilter.State path) {
+			super(variable, depth, path);
+			this.bean = bean;
+			this.node = bean instanceof CapturedGraph.Node
+					? (CapturedGraph.Node) bean : null;
+			this.plan = plan;
+		}
+
+		@Override
+		boolean step() throws IOException, IntrospectionException,
+				ReflectiveOperationException {
+			if (properties == null) {
+				if (listener != null) {
+					listener.introspection(plan.getType(),
+							plan.isIntrospected());
+				}
+				properties = plan
+						.getProperties(onlyPropertiesWithMatchingField);
+				if (config.isElideDefaults()) {
+					defaults = plan.getDefaults();
+				}
+			}
+			while (index < properties.size()) {
+				if (stop(this)) {
+					break;
+				}
+				PropertyPlan property = properties.get(index++);
+				PathFilter.State propertyPath = null;
+				if (path != null) {
+					propertyPath = path.property(property.getName());
+					if (propertyPath.prunes(property.getType())) {
+						// the getter is not called
+						continue;
+					}
+				} else if (node != null && node.isPruned(property)) {
+					continue;
+				}
+				if (property.getKind() == ClassPlan.Kind.PRIMITIVE) {
+					if ((propertyPath == null || propertyPath
+							.accept(property.getType()) != null)
+							&& checkWriteMethod(property)) {
+						long start = listener != null ? System.nanoTime() : 0;
+						long value = node != null ? node.getPrimitive(property)
+								: property.getPrimitive(bean);
+						if (listener != null) {
+							listener.propertyRead(plan.getType(),
+									property.getName(),
+									System.nanoTime() - start);
+						}
+						if (planning || defaults != null
+								&& defaults.isDefault(property, value)) {
+							continue;
+						}
+						startSetter(property);
+						appendPrimitive(property.getType(), value);
+						out.append(')');
+						endStatement();
+					}
+					continue;
+				}
+				long start = listener != null ? System.nanoTime() : 0;
+				Object propertyValue = node != null
+						? node.getValues().get(property.getIndex())
+						: property.getAccessor().get(bean);
+				if (listener != null) {
+					listener.propertyRead(plan.getType(), property.getName(),
+							System.nanoTime() - start);
+				}
+				if (node == null && config.isUninitialized(propertyValue)) {
+					// the bean keeps the value of its constructor, the
+					// default is not compared because equals would load it
+					continue;
+				}
+				if (propertyValue == null || defaults != null
+						&& defaults.isDefault(property, propertyValue)) {
+					continue;
+				}
+				PathFilter.State content = propertyPath;
+				if (propertyPath != null
+						&& property.getKind() != ClassPlan.Kind.BEAN) {
+					content = propertyPath
+							.accept(planOf(propertyValue).getType());
+					if (content == null) {
+						continue;
+					}
+				}
+				switch (property.getKind()) {
+				case STRING:
+					if (!planning && checkWriteMethod(property)) {
+						String value = "\"" + propertyValue.toString() + "\"";
+						if (constantPool != null) {
+							value = constant(propertyValue, value);
+						}
+						startSetter(property);
+						out.append(value).append(')');
+						endStatement();
+					}
+					break;
+				case COLLECTION:
+					pending = property;
+					stack.push(new CollectionFrame(
+							declareProperty(propertyValue), items(propertyValue),
+							depth, content));
+					return false;
+				case MAP:
+					pending = property;
+					stack.push(new MapFrame(declareProperty(propertyValue),
+							entries(propertyValue), depth, content));
+					return false;
+				default:
+					int value = reference(propertyValue, depth + 1,
+							propertyPath);
+					if (value == PRUNED) {
+						break;
+					}
+					if (value == PENDING) {
+						pending = property;
+						return false;
+					}
+					if (checkWriteMethod(property)) {
+						startSetter(property);
+						appendValue(value);
+						out.append(')');
+						endStatement();
+					}
+					break;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		void resume(int child) throws IOException {
+			if (checkWriteMethod(pending)) {
+				startSetter(pending);
+				appendName(child);
+				out.append(')');
+				endStatement();
+			}
+			pending = null;
+		}
+
+		private boolean checkWriteMethod(PropertyPlan property) {
+			if (property.getWriteMethod() == null
+					&& property.getField() == null) {
+				log.warning("Can not find write method for: "
+						+ plan.getType().getName() + " "
+						+ property.getName());
+				return false;
+			}
+			return true;
+		}
+
+		private void startSetter(PropertyPlan property) throws IOException {
+			beginStatement(variable);
+			if (property.getWriteMethod() == null) {
+				// a field without setter
+				out.append(FieldAccess.class.getName()).append(".set(");
+				appendName(variable);
+				out.append(", ")
+						.append(property.getField().getDeclaringClass()
+								.getCanonicalName())
+						.append(".class, \"").append(property.getName())
+						.append("\", ");
+				return;
+			}
+			appendName(variable);
+			out.append('.').append(property.getWriteMethod().getName())
+					.append('(');
+		}
+	}
+
+	/**
+	 * Checks if a visited item needs no own declaration, i.e. it is a literal
+	 * or an object that was already written before it was visited.
+	 *
+	 * @param item
+	 *            the result of the visit
+	 * @param variables
+	 *            the amount of variables before the visit
+	 */
+	private boolean isInline(int item, int variables) {
+		return item == LITERAL
+				|| item >= 0 && getVariableCount() == variables;
+	}
+
+	/**
+	 * The comma separated code of items that are written with one statement
+	 * in compact mode.
+	 */
+	private final class Run {
+		private final StringBuilder code = new StringBuilder();
+		private int size;
+
+		void add(int item) {
+			add(item == LITERAL ? literal : getVariableName(item));
+		}
+
+		void add(String item) {
+			if (size++ > 0) {
+				code.append(", ");
+			}
+			code.append(item);
+		}
+
+		boolean isFull() {
+			return size >= BULK_SIZE;
+		}
+
+		void clear() {
+			code.setLength(0);
+			size = 0;
+		}
+
+		@Override
+		public String toString() {
+			return code.toString();
+		}
+	}
+
+	/**
+	 * Writes the items of a collection with add statements.
+	 */
+	private final class CollectionFrame extends Frame {
+		private final Iterator<?> iterator;
+		/**
+		 * The state of the path filter for the items or null
+		 */
+		private final PathFilter.State items;
+		/**
+		 * The items that are added with one statement in compact mode
+		 */
+		private final Run run;
+
+		CollectionFrame(int variable, Iterator<?> iterator, int depth,
+				PathFilter.State path) {
+			super(variable, depth, path);
+			this.iterator = iterator;
+			this.items = path != null ? path.element() : null;
+			this.run = config.isCompactCollections() ? new Run() : null;
+		}
+
+		@Override
+		boolean step() throws IOException {
+			while (iterator.hasNext()) {
+				if (stop(this)) {
+					break;
+				}
+				int variables = getVariableCount();
+				int item = visit(iterator.next(), depth + 1, items);
+				if (item == PRUNED) {
+					continue;
+				}
+				if (item == PENDING) {
+					return false;
+				}
+				if (run != null && isInline(item, variables)) {
+					run.add(item);
+					if (run.isFull()) {
+						writeRun();
+					}
+				} else {
+					resume(item);
+				}
+			}
+			if (run != null) {
+				writeRun();
+			}
+			return true;
+		}
+
+		private void writeRun() throws IOException {
+			if (run.size == 0) {
+				return;
+			}
+			beginStatement(variable);
+			appendName(variable);
+			if (run.size == 1) {
+				out.append(".add(").append(run.toString()).append(')');
+			} else {
+				out.append(".addAll(java.util.Arrays.asList(")
+						.append(run.toString()).append("))");
+			}
+			endStatement();
+			run.clear();
+		}
+
+		@Override
+		void resume(int item) throws IOException {
+			if (run != null) {
+				writeRun();
+			}
+			beginStatement(variable);
+			appendName(variable);
+			out.append(".add(");
+			appendValue(item);
+			out.append(')');
+			endStatement();
+		}
+	}
+
+	/**
+	 * Writes the elements of an object array with assignments. null elements
+	 * are skipped because they are the default.
+	 */
+	private final class ArrayFrame extends Frame {
+		private final List<?> array;
+		private int index;
+
+		ArrayFrame(int variable, List<?> array, int depth,
+				PathFilter.State path) {
+			super(variable, depth, path);
+			this.array = array;
+		}
+
+		@Override
+		boolean step() throws IOException {
+			while (index < array.size()) {
+				Object element = array.get(index);
+				if (element == null) {
+					index++;
+					continue;
+				}
+				if (stop(this)) {
+					break;
+				}
+				int value = visit(element, depth + 1,
+						path != null ? path.element() : null);
+				if (value == PRUNED) {
+					index++;
+					continue;
+				}
+				if (value == PENDING) {
+					return false;
+				}
+				resume(value);
+			}
+			return true;
+		}
+
+		@Override
+		void resume(int element) throws IOException {
+			beginStatement(variable);
+			appendName(variable);
+			out.append('[').append(index++).append("] = ");
+			appendValue(element);
+			endStatement();
+		}
+	}
+
+	/**
+	 * Writes the entries of a map with put statements.
+	 */
+	private final class MapFrame extends Frame {
+		private final Iterator<? extends Entry<?, ?>> iterator;
+		/**
+		 * The entry that is currently written
+		 */
+		private Entry<?, ?> entry;
+		/**
+		 * The variable of the key of the current entry, {@link #LITERAL} if
+		 * it is {@link #keyLiteral} or {@link #PENDING} as long as the key is
+		 * written
+		 */
+		private int key = PENDING;
+		private String keyLiteral;
+		/**
+		 * If the key of the current entry needs no own declaration
+		 */
+		private boolean inlineKey;
+		/**
+		 * The keys and values that are put with one statement in compact
+		 * mode
+		 */
+		private final Run run;
+		/**
+		 * The states of the path filter for the keys and the values or null
+		 */
+		private final PathFilter.State keys;
+		private final PathFilter.State values;
+
+		MapFrame(int variable, Iterator<? extends Entry<?, ?>> iterator,
+				int depth, PathFilter.State path) {
+			super(variable, depth, path);
+			this.iterator = iterator;
+			this.keys = path != null ? path.key() : null;
+			this.values = path != null ? path.element() : null;
+			this.run = config.isCompactCollections() ? new Run() : null;
+		}
+
+		@Override
+		boolean step() throws IOException {
+			while (true) {
+				if (entry == null) {
+					if (!iterator.hasNext() || stop(this)) {
+						if (run != null) {
+							writeRun();
+						}
+						return true;
+					}
+					entry = iterator.next();
+					int variables = getVariableCount();
+					key = reference(entry.getKey(), depth + 1, keys);
+					if (key == PENDING) {
+						inlineKey = false;
+						return false;
+					}
+					if (key == PRUNED || key == LITERAL && (literal == TRUNCATED
+							|| literal == UNINITIALIZED)) {
+						// an entry without its key is useless
+						entry = null;
+						key = PENDING;
+						continue;
+					}
+					keyLiteral = literal;
+					inlineKey = isInline(key, variables);
+				}
+				int variables = getVariableCount();
+				int value = reference(entry.getValue(), depth + 1, values);
+				if (value == PRUNED) {
+					entry = null;
+					key = PENDING;
+					keyLiteral = null;
+					continue;
+				}
+				if (value == PENDING) {
+					return false;
+				}
+				if (run != null && inlineKey && isInline(value, variables)) {
+					if (key == LITERAL) {
+						run.add(keyLiteral);
+					} else {
+						run.add(key);
+					}
+					run.add(value);
+					if (run.isFull()) {
+						writeRun();
+					}
+					entry = null;
+					key = PENDING;
+					keyLiteral = null;
+				} else {
+					resume(value);
+				}
+			}
+		}
+
+		private void writeRun() throws IOException {
+			if (run.size == 0) {
+				return;
+			}
+			beginStatement(variable);
+			if (run.size == 2) {
+				appendName(variable);
+				out.append(".put(").append(run.toString()).append(')');
+				endStatement();
+			} else {
+				out.append("{ Object[] keysAndValues = { ")
+						.append(run.toString())
+						.append(" }; for (int i = 0; i < keysAndValues.length; i += 2) ");
+				appendName(variable);
+				out.append(".put(keysAndValues[i], keysAndValues[i + 1]); }");
+				endBlock();
+			}
+			run.clear();
+		}
+
+		@Override
+		void resume(int child) throws IOException {
+			if (key == PENDING) {
+				key = child;
+				return;
+			}
+			if (run != null) {
+				writeRun();
+			}
+			beginStatement(variable);
+			appendName(variable);
+			out.append(".put(");
+			if (key == LITERAL) {
+				out.append(keyLiteral);
+			} else {
+				appendName(key);
+			}
+			out.append(", ");
+			appendValue(child);
+			out.append(')');
+			endStatement();
+			entry = null;
+			key = PENDING;
+			keyLiteral = null;
+		}
+	}
+}
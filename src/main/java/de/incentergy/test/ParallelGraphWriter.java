@@ -0,0 +1,250 @@
+package de.incentergy.test;
+
+import java.beans.IntrospectionException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Writes the items of a large root collection or map in parallel in the
+ * {@link java.util.concurrent.ForkJoinPool} of the configuration.
+ *
+ * The items are split into chunks of
+ * {@link SerializerConfig#getParallelChunkSize()} items. First the graph is
+ * captured as {@link CapturedGraph}, so every getter and processor is called
+ * once. Then a sequential pass walks the captured graph and only assigns the
+ * variables. It decides which chunk owns an object: the first chunk that
+ * reaches it. For every chunk it remembers the variables that existed before
+ * the chunk started. Then every chunk of the captured graph is written by its
+ * own task into its own buffer. A task creates
+ * variables for the objects it owns and references the variables of earlier
+ * chunks. The buffers are written in order, so the code is the same as the
+ * code of an {@link ObjectGraphWriter}. If
+ * {@link SerializerConfig#isCompactCollections()} or
+ * {@link SerializerConfig#getConstantThreshold()} is set the graph is always
+ * written sequentially.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class ParallelGraphWriter {
+
+	private final CodeWriter out;
+
+	private final SerializerConfig config;
+
+	private final boolean onlyPropertiesWithMatchingField;
+
+	/**
+	 * Creates a writer for a single object graph.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param config
+	 *            the configuration with a parallel pool
+	 * @param onlyPropertiesWithMatchingField
+	 *            use only properties that have a corresponding field
+	 */
+	ParallelGraphWriter(CodeWriter out, SerializerConfig config,
+			boolean onlyPropertiesWithMatchingField) {
+		this.out = out;
+		this.config = config;
+		this.onlyPropertiesWithMatchingField = onlyPropertiesWithMatchingField;
+	}
+
+	/**
+	 * Writes the given graph. Roots that are no collection or map or that are
+	 * not larger than one chunk are written sequentially.
+	 *
+	 * @param o
+	 *            the root of the graph
+	 * @return the name of the variable or the literal for the root
+	 * @throws IOException
+	 *             if the code can not be written
+	 * @throws IntrospectionException
+	 *             if a bean can not be introspected
+	 * @throws ReflectiveOperationException
+	 *             if a getter can not be called
+	 */
+	String write(Object o) throws IOException, IntrospectionException,
+			ReflectiveOperationException {
+		Object root = config.process(o);
+		int chunkSize = config.getParallelChunkSize();
+		// bulk statements and constants span the chunks, so they are
+		// written sequentially
+		if (sizeOf(root) <= chunkSize || config.isCompactCollections()
+				|| config.getConstantThreshold() > 0) {
+			return new ObjectGraphWriter(out, config,
+					onlyPropertiesWithMatchingField).writeProcessed(root);
+		}
+
+		// the graph is read once, the tasks write the captured values
+		Object node = CapturedGraph.capture(root, config,
+				onlyPropertiesWithMatchingField, false).sharedRoot();
+		boolean map = root instanceof Map;
+		Object[] items = items(node, map);
+
+		Sink sink = new Sink();
+		CodeWriter baseOut = new CodeWriter(sink,
+				CodeWriter.DEFAULT_FLUSH_THRESHOLD);
+		ObjectGraphWriter base = new ObjectGraphWriter(baseOut, config,
+				onlyPropertiesWithMatchingField);
+		base.setCaptured();
+		// only the tasks report to the listener
+		base.setListener(null);
+		// the declaration of the root is kept, the rest is thrown away
+		int container = base.declareContainer(node);
+		baseOut.drain();
+		out.append(sink.detach());
+
+		base.setPlanning();
+		int chunks = (items.length + chunkSize - 1) / chunkSize;
+		int[] firstVariables = new int[chunks];
+		List<Map<Class<?>, int[]>> counts = new ArrayList<>(chunks);
+		for (int i = 0; i < items.length; i++) {
+			if (i % chunkSize == 0) {
+				firstVariables[i / chunkSize] = base.getVariableCount();
+				counts.add(base.copyCounts());
+			}
+			writeItem(base, container, items[i], map);
+		}
+
+		List<ForkJoinTask<String>> tasks = new ArrayList<>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			int from = c * chunkSize;
+			int to = Math.min(from + chunkSize, items.length);
+			int firstVariable = firstVariables[c];
+			Map<Class<?>, int[]> chunkCounts = counts.get(c);
+			tasks.add(config.getParallelPool().submit(() -> {
+				StringBuilder code = new StringBuilder();
+				CodeWriter chunkOut = new CodeWriter(code,
+						CodeWriter.DEFAULT_FLUSH_THRESHOLD);
+				ObjectGraphWriter writer = new ObjectGraphWriter(chunkOut,
+						base, firstVariable, chunkCounts);
+				for (int i = from; i < to; i++) {
+					writeItem(writer, container, items[i], map);
+				}
+				chunkOut.drain();
+				return code.toString();
+			}));
+		}
+		for (ForkJoinTask<String> task : tasks) {
+			out.append(join(task));
+		}
+		return base.getVariableName(container);
+	}
+
+	/**
+	 * Returns the amount of items of a collection or map without reading
+	 * them or -1 for any other object.
+	 */
+	private int sizeOf(Object root) {
+		if (root == null || config.isUninitialized(root)) {
+			return -1;
+		}
+		ClassPlan.Kind kind = config.getPlan(root.getClass()).getKind();
+		if (kind == ClassPlan.Kind.COLLECTION) {
+			return ((Collection<?>) root).size();
+		} else if (kind == ClassPlan.Kind.MAP) {
+			return ((Map<?, ?>) root).size();
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the items or the entries of a captured collection or map.
+	 */
+	private static Object[] items(Object node, boolean map) {
+		List<Object> values = ((CapturedGraph.Node) node).getValues();
+		if (!map) {
+			return values.toArray();
+		}
+		Object[] entries = new Object[values.size() / 2];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new SimpleImmutableEntry<>(values.get(i * 2),
+					values.get(i * 2 + 1));
+		}
+		return entries;
+	}
+
+	private static void writeItem(ObjectGraphWriter writer, int container,
+			Object item, boolean map) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		if (map) {
+			writer.writeEntry(container, (Entry<?, ?>) item);
+		} else {
+			writer.writeItem(container, item);
+		}
+	}
+
+	private static String join(ForkJoinTask<String> task) throws IOException,
+			IntrospectionException, ReflectiveOperationException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while writing in parallel");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof IntrospectionException) {
+				throw (IntrospectionException) cause;
+			} else if (cause instanceof ReflectiveOperationException) {
+				throw (ReflectiveOperationException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Keeps the appended chars until they are detached and throws away all
+	 * later chars.
+	 */
+	private static final class Sink implements Appendable {
+		private StringBuilder kept = new StringBuilder();
+
+		String detach() {
+			String s = kept.toString();
+			kept = null;
+			return s;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) {
+			if (kept != null) {
+				kept.append(csq);
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) {
+			if (kept != null) {
+				kept.append(csq, start, end);
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) {
+			if (kept != null) {
+				kept.append(c);
+			}
+			return this;
+		}
+	}
+}
@@ -0,0 +1,494 @@
+package de.incentergy.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.incentergy.test.ClassPlan.Kind;
+
+/**
+ * Selects the parts of a graph that are written by the paths from the root.
+ *
+ * PathFilter filter = PathFilter.builder().include("order.items[*].sku")
+ * .include("order.customer").exclude("order.customer.session")
+ * .exclude("**", HttpSession.class).build();
+ *
+ * A path is a list of steps separated by dots:
+ *
+ * name: the property with this name
+ *
+ * *: any property
+ *
+ * **: any amount of properties and elements, also none
+ *
+ * [*]: appended to a step, an item of a collection, an element of an
+ * array or a key or value of a map, e.g. items[*] or [*] for the items of a
+ * root collection
+ *
+ * A value is excluded if the path to it matches an exclude rule, nothing
+ * below it is written. If there are include rules, a value is only written
+ * if the path to it matches an include rule, is below a match or leads to a
+ * match. So beans, collections, maps and arrays on the way to an included
+ * value are written, but only with their content that leads to an included
+ * value. Excludes win over includes. A rule with a type only matches values
+ * that are instances of the type.
+ *
+ * The rules are compiled into an automaton whose states are created when
+ * they are reached first and are shared by all serializations. Every
+ * property and element moves one step forward. A property is skipped
+ * without calling its getter if its declared type already decides that it
+ * is not written.
+ *
+ * A value that is reachable on several paths is written as it is filtered
+ * on the path it is written first. The keys of a map are only removed by
+ * exclude rules.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class PathFilter {
+
+	private static final int NAME = 0;
+
+	private static final int ANY = 1;
+
+	private static final int DEEP = 2;
+
+	private static final int ELEMENT = 3;
+
+	private final Rule[] rules;
+
+	private final boolean includes;
+
+	/**
+	 * The states by their positions and if they are included
+	 */
+	private final ConcurrentMap<List<Object>, State> states = new ConcurrentHashMap<>();
+
+	private final State start;
+
+	private PathFilter(List<Rule> rules) {
+		this.rules = rules.toArray(new Rule[rules.size()]);
+		boolean includes = false;
+		for (Rule rule : rules) {
+			includes |= rule.include;
+		}
+		this.includes = includes;
+		int[] positions = new int[this.rules.length];
+		for (int r = 0; r < positions.length; r++) {
+			positions[r] = position(r, 0);
+		}
+		this.start = state(closure(positions), false);
+	}
+
+	/**
+	 * @return a builder for a filter without rules
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return the state of the root, the root itself is always written
+	 */
+	State start() {
+		return start;
+	}
+
+	private static int position(int rule, int step) {
+		return rule << 16 | step;
+	}
+
+	/**
+	 * Adds the positions behind ** steps, because they can match no
+	 * property, and sorts the positions.
+	 */
+	private int[] closure(int[] positions) {
+		int[] closed = new int[positions.length * 2 + 1];
+		int size = 0;
+		for (int position : positions) {
+			Rule rule = rules[position >>> 16];
+			int step = position & 0xffff;
+			closed = ensure(closed, size + rule.kinds.length);
+			closed[size++] = position;
+			while (step < rule.kinds.length && rule.kinds[step] == DEEP) {
+				closed[size++] = position(position >>> 16, ++step);
+			}
+		}
+		int[] sorted = Arrays.copyOf(closed, size);
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (unique == 0 || sorted[unique - 1] != sorted[i]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, unique);
+	}
+
+	private static int[] ensure(int[] array, int size) {
+		return array.length >= size ? array
+				: Arrays.copyOf(array, Math.max(size, array.length * 2));
+	}
+
+	/**
+	 * Returns the shared state of the given positions.
+	 */
+	private State state(int[] positions, boolean included) {
+		List<Object> key = Arrays.asList(Arrays.toString(positions),
+				included);
+		State state = states.get(key);
+		if (state == null) {
+			state = states.computeIfAbsent(key,
+					k -> new State(positions, included));
+		}
+		return state;
+	}
+
+	private static boolean isLeaf(Class<?> type) {
+		if (type == null) {
+			return true;
+		}
+		Kind kind = ClassPlan.kindOf(type);
+		return kind == Kind.PRIMITIVE || kind == Kind.STRING
+				|| kind == Kind.ENUM;
+	}
+
+	/**
+	 * A state of the automaton: the positions in all rules that the path to
+	 * a value matches so far.
+	 */
+	final class State {
+		private final int[] positions;
+		/**
+		 * If an include rule matches the path or a part of it
+		 */
+		private final boolean included;
+		/**
+		 * If an exclude rule without type matches the path
+		 */
+		private final boolean excluded;
+		/**
+		 * If an include rule can still match a longer path
+		 */
+		private final boolean onIncludePath;
+		private final Class<?>[] typedIncludes;
+		private final Class<?>[] typedExcludes;
+		private final ConcurrentMap<String, State> properties = new ConcurrentHashMap<>();
+		private volatile State element;
+		private volatile State key;
+		private volatile State withIncluded;
+
+		State(int[] positions, boolean included) {
+			boolean excluded = false;
+			boolean onIncludePath = false;
+			List<Class<?>> typedIncludes = new ArrayList<>();
+			List<Class<?>> typedExcludes = new ArrayList<>();
+			for (int position : positions) {
+				Rule rule = rules[position >>> 16];
+				if ((position & 0xffff) < rule.kinds.length) {
+					onIncludePath |= rule.include;
+				} else if (rule.type != null) {
+					(rule.include ? typedIncludes : typedExcludes)
+							.add(rule.type);
+				} else if (rule.include) {
+					included = true;
+				} else {
+					excluded = true;
+				}
+			}
+			this.positions = positions;
+			this.included = included;
+			this.excluded = excluded;
+			this.onIncludePath = onIncludePath;
+			this.typedIncludes = typedIncludes
+					.toArray(new Class<?>[typedIncludes.size()]);
+			this.typedExcludes = typedExcludes
+					.toArray(new Class<?>[typedExcludes.size()]);
+		}
+
+		/**
+		 * @return the state of the value of a property
+		 */
+		State property(String name) {
+			State next = properties.get(name);
+			if (next == null) {
+				next = properties.computeIfAbsent(name,
+						n -> step(n, false));
+			}
+			return next;
+		}
+
+		/**
+		 * @return the state of an item, an element or a value of a map
+		 */
+		State element() {
+			State next = element;
+			if (next == null) {
+				next = step(null, true);
+				element = next;
+			}
+			return next;
+		}
+
+		/**
+		 * @return the state of a key of a map, only exclude rules apply
+		 */
+		State key() {
+			State next = key;
+			if (next == null) {
+				next = element().withIncluded();
+				key = next;
+			}
+			return next;
+		}
+
+		private State withIncluded() {
+			State next = withIncluded;
+			if (next == null) {
+				next = included ? this : state(positions, true);
+				withIncluded = next;
+			}
+			return next;
+		}
+
+		private State step(String name, boolean isElement) {
+			int[] next = new int[positions.length];
+			int size = 0;
+			for (int position : positions) {
+				Rule rule = rules[position >>> 16];
+				int step = position & 0xffff;
+				if (step == rule.kinds.length || included && rule.include) {
+					// the rule is complete or does not matter any more
+					continue;
+				}
+				next = ensure(next, size + 1);
+				switch (rule.kinds[step]) {
+				case DEEP:
+					next[size++] = position;
+					break;
+				case ELEMENT:
+					if (isElement) {
+						next[size++] = position + 1;
+					}
+					break;
+				case ANY:
+					if (!isElement) {
+						next[size++] = position + 1;
+					}
+					break;
+				default:
+					if (!isElement && rule.names[step].equals(name)) {
+						next[size++] = position + 1;
+					}
+					break;
+				}
+			}
+			return state(closure(Arrays.copyOf(next, size)), included);
+		}
+
+		/**
+		 * Checks if every value of the declared type is skipped, so the
+		 * value does not have to be read.
+		 *
+		 * @param declaredType
+		 *            the type of the property
+		 * @return true if the property is skipped
+		 */
+		boolean prunes(Class<?> declaredType) {
+			if (excluded) {
+				return true;
+			}
+			for (Class<?> type : typedExcludes) {
+				if (type.isAssignableFrom(declaredType)) {
+					return true;
+				}
+			}
+			if (!includes || included || typedIncludes.length > 0) {
+				return false;
+			}
+			return !onIncludePath || isLeaf(declaredType);
+		}
+
+		/**
+		 * Decides if a value is written.
+		 *
+		 * @param type
+		 *            the class of the value or null for null
+		 * @return the state of the content of the value or null if the value
+		 *         is skipped
+		 */
+		State accept(Class<?> type) {
+			if (excluded) {
+				return null;
+			}
+			if (type != null) {
+				for (Class<?> excludedType : typedExcludes) {
+					if (excludedType.isAssignableFrom(type)) {
+						return null;
+					}
+				}
+			}
+			if (!includes || included) {
+				return this;
+			}
+			if (type != null) {
+				for (Class<?> includedType : typedIncludes) {
+					if (includedType.isAssignableFrom(type)) {
+						return withIncluded();
+					}
+				}
+			}
+			return onIncludePath && !isLeaf(type) ? this : null;
+		}
+	}
+
+	/**
+	 * A compiled include or exclude rule.
+	 */
+	private static final class Rule {
+		private final int[] kinds;
+		private final String[] names;
+		private final Class<?> type;
+		private final boolean include;
+
+		Rule(String path, Class<?> type, boolean include) {
+			List<Integer> kinds = new ArrayList<>();
+			List<String> names = new ArrayList<>();
+			if (path.isEmpty()) {
+				throw invalid(path);
+			}
+			for (String segment : path.split("\\.", -1)) {
+				String base = segment;
+				int elements = 0;
+				while (base.endsWith("[*]")) {
+					base = base.substring(0, base.length() - 3);
+					elements++;
+				}
+				if (base.isEmpty()) {
+					if (elements == 0) {
+						throw invalid(path);
+					}
+				} else if (base.equals("**")) {
+					kinds.add(DEEP);
+					names.add(null);
+				} else if (base.equals("*")) {
+					kinds.add(ANY);
+					names.add(null);
+				} else if (isName(base)) {
+					kinds.add(NAME);
+					names.add(base);
+				} else {
+					throw invalid(path);
+				}
+				for (int i = 0; i < elements; i++) {
+					kinds.add(ELEMENT);
+					names.add(null);
+				}
+			}
+			if (kinds.size() > 0xffff) {
+				throw invalid(path);
+			}
+			this.kinds = new int[kinds.size()];
+			for (int i = 0; i < this.kinds.length; i++) {
+				this.kinds[i] = kinds.get(i);
+			}
+			this.names = names.toArray(new String[names.size()]);
+			this.type = type;
+			this.include = include;
+		}
+
+		private static boolean isName(String s) {
+			if (!Character.isJavaIdentifierStart(s.charAt(0))) {
+				return false;
+			}
+			for (int i = 1; i < s.length(); i++) {
+				if (!Character.isJavaIdentifierPart(s.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static IllegalArgumentException invalid(String path) {
+			return new IllegalArgumentException(
+					"Invalid path expression: " + path);
+		}
+	}
+
+	/**
+	 * Builds a {@link PathFilter}. A builder is not thread safe.
+	 */
+	public static final class Builder {
+
+		private final List<Rule> rules = new ArrayList<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * Writes the values of the path and everything below them.
+		 *
+		 * @param path
+		 *            the path expression
+		 * @return this builder
+		 */
+		public Builder include(String path) {
+			rules.add(new Rule(path, null, true));
+			return this;
+		}
+
+		/**
+		 * Writes the values of the path that are instances of the type and
+		 * everything below them.
+		 *
+		 * @param path
+		 *            the path expression
+		 * @param type
+		 *            the class or interface of the included values
+		 * @return this builder
+		 */
+		public Builder include(String path, Class<?> type) {
+			rules.add(new Rule(path, type, true));
+			return this;
+		}
+
+		/**
+		 * Skips the values of the path and everything below them.
+		 *
+		 * @param path
+		 *            the path expression
+		 * @return this builder
+		 */
+		public Builder exclude(String path) {
+			rules.add(new Rule(path, null, false));
+			return this;
+		}
+
+		/**
+		 * Skips the values of the path that are instances of the type and
+		 * everything below them, e.g. exclude("**", HttpSession.class)
+		 * skips all sessions.
+		 *
+		 * @param path
+		 *            the path expression
+		 * @param type
+		 *            the class or interface of the excluded values
+		 * @return this builder
+		 */
+		public Builder exclude(String path, Class<?> type) {
+			rules.add(new Rule(path, type, false));
+			return this;
+		}
+
+		/**
+		 * @return the compiled filter
+		 */
+		public PathFilter build() {
+			return new PathFilter(rules);
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package de.incentergy.test;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Writes the elements of primitive arrays. Every array type has its own loop,
+ * so the elements are never boxed.
+ *
+ * Large arrays can be written Base64 encoded. The bytes are the big endian
+ * elements and are decoded with a {@link ByteBuffer} view when the generated
+ * code runs, see {@link #appendDecode(CodeWriter, String, Object, int, int)}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class PrimitiveArrays {
+
+	/**
+	 * The amount of bytes that are encoded into one string literal. The
+	 * encoded literal stays below the 65535 bytes a constant may have in a
+	 * class file and the amount is a multiple of every element size.
+	 */
+	static final int ENCODED_CHUNK_BYTES = 32768;
+
+	/**
+	 * The amount of elements of a large array literal that are copied with
+	 * one statement when a class is written, see
+	 * {@link #appendCopy(CodeWriter, String, Object, int, int)}.
+	 */
+	static final int LITERAL_CHUNK_ELEMENTS = 1024;
+
+	private PrimitiveArrays() {
+	}
+
+	/**
+	 * Writes the comma separated elements of a primitive array. byte, short
+	 * and char elements are written as int constants, they are narrowed by
+	 * the array initializer.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param array
+	 *            the primitive array
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	static void appendElements(CodeWriter out, Object array)
+			throws IOException {
+		appendElements(out, array, 0, Array.getLength(array));
+	}
+
+	/**
+	 * Writes the comma separated elements of a part of a primitive array.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param array
+	 *            the primitive array
+	 * @param offset
+	 *            the first element to write
+	 * @param length
+	 *            the amount of elements to write
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	static void appendElements(CodeWriter out, Object array, int offset,
+			int length) throws IOException {
+		int end = offset + length;
+		if (array instanceof int[]) {
+			int[] a = (int[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append(a[i]);
+			}
+		} else if (array instanceof byte[]) {
+			byte[] a = (byte[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append(a[i]);
+			}
+		} else if (array instanceof short[]) {
+			short[] a = (short[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append(a[i]);
+			}
+		} else if (array instanceof char[]) {
+			char[] a = (char[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append((int) a[i]);
+			}
+		} else if (array instanceof long[]) {
+			long[] a = (long[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append(Long.toString(a[i]))
+						.append('l');
+			}
+		} else if (array instanceof double[]) {
+			double[] a = (double[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append(doubleLiteral(a[i]));
+			}
+		} else if (array instanceof float[]) {
+			float[] a = (float[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append(floatLiteral(a[i]));
+			}
+		} else if (array instanceof boolean[]) {
+			boolean[] a = (boolean[]) array;
+			for (int i = offset; i < end; i++) {
+				separate(out, i - offset).append(a[i] ? "true" : "false");
+			}
+		} else {
+			throw new IllegalArgumentException("Type "
+					+ array.getClass().getCanonicalName()
+					+ " is not a primitive array.");
+		}
+	}
+
+	private static CodeWriter separate(CodeWriter out, int i)
+			throws IOException {
+		return i == 0 ? out : out.append(", ");
+	}
+
+	private static String doubleLiteral(double d) {
+		if (Double.isNaN(d)) {
+			return "Double.NaN";
+		} else if (Double.isInfinite(d)) {
+			return d > 0 ? "Double.POSITIVE_INFINITY"
+					: "Double.NEGATIVE_INFINITY";
+		}
+		return Double.toString(d);
+	}
+
+	private static String floatLiteral(float f) {
+		if (Float.isNaN(f)) {
+			return "Float.NaN";
+		} else if (Float.isInfinite(f)) {
+			return f > 0 ? "Float.POSITIVE_INFINITY"
+					: "Float.NEGATIVE_INFINITY";
+		}
+		return Float.toString(f) + "f";
+	}
+
+	/**
+	 * Writes a statement that copies a part of the array from an array
+	 * literal into the array variable, e.g.
+	 *
+	 * System.arraycopy(new int[] {1, 2, 3}, 0, intArray0, 1024, 3)
+	 *
+	 * The semicolon is not written.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param variable
+	 *            the name of the array variable
+	 * @param array
+	 *            the array
+	 * @param offset
+	 *            the first element to copy
+	 * @param length
+	 *            the amount of elements to copy
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	static void appendCopy(CodeWriter out, String variable, Object array,
+			int offset, int length) throws IOException {
+		out.append("System.arraycopy(new ")
+				.append(array.getClass().getCanonicalName()).append(" {");
+		appendElements(out, array, offset, length);
+		out.append("}, 0, ").append(variable).append(", ").append(offset)
+				.append(", ").append(length).append(')');
+	}
+
+	/**
+	 * Checks if the elements of the array can be written Base64 encoded.
+	 *
+	 * @param component
+	 *            the component type of the array
+	 * @return true for all primitive types except boolean
+	 */
+	static boolean isEncodable(Class<?> component) {
+		return component.isPrimitive() && component != Boolean.TYPE;
+	}
+
+	/**
+	 * @return the size of an element in bytes
+	 */
+	private static int elementBytes(Class<?> component) {
+		if (component == Byte.TYPE) {
+			return 1;
+		} else if (component == Short.TYPE || component == Character.TYPE) {
+			return 2;
+		} else if (component == Integer.TYPE || component == Float.TYPE) {
+			return 4;
+		}
+		return 8;
+	}
+
+	/**
+	 * @return the amount of elements that are encoded into one literal
+	 */
+	static int elementsPerChunk(Class<?> component) {
+		return ENCODED_CHUNK_BYTES / elementBytes(component);
+	}
+
+	/**
+	 * Writes a statement that decodes a part of the array into the array
+	 * variable, e.g.
+	 *
+	 * java.nio.ByteBuffer.wrap(java.util.Base64.getDecoder().decode("..."))
+	 * .asIntBuffer().get(intArray0, 0, 8192)
+	 *
+	 * The semicolon is not written.
+	 *
+	 * @param out
+	 *            the target for the code
+	 * @param variable
+	 *            the name of the array variable
+	 * @param array
+	 *            the array
+	 * @param offset
+	 *            the first element to decode
+	 * @param length
+	 *            the amount of elements to decode
+	 * @throws IOException
+	 *             if the code can not be written
+	 */
+	static void appendDecode(CodeWriter out, String variable, Object array,
+			int offset, int length) throws IOException {
+		Class<?> component = array.getClass().getComponentType();
+		ByteBuffer bytes = ByteBuffer
+				.allocate(length * elementBytes(component));
+		String view;
+		if (component == Byte.TYPE) {
+			bytes.put((byte[]) array, offset, length);
+			view = null;
+		} else if (component == Short.TYPE) {
+			bytes.asShortBuffer().put((short[]) array, offset, length);
+			view = "asShortBuffer";
+		} else if (component == Character.TYPE) {
+			bytes.asCharBuffer().put((char[]) array, offset, length);
+			view = "asCharBuffer";
+		} else if (component == Integer.TYPE) {
+			bytes.asIntBuffer().put((int[]) array, offset, length);
+			view = "asIntBuffer";
+		} else if (component == Float.TYPE) {
+			bytes.asFloatBuffer().put((float[]) array, offset, length);
+			view = "asFloatBuffer";
+		} else if (component == Long.TYPE) {
+			bytes.asLongBuffer().put((long[]) array, offset, length);
+			view = "asLongBuffer";
+		} else if (component == Double.TYPE) {
+			bytes.asDoubleBuffer().put((double[]) array, offset, length);
+			view = "asDoubleBuffer";
+		} else {
+			throw new IllegalArgumentException("Type "
+					+ array.getClass().getCanonicalName()
+					+ " can not be encoded.");
+		}
+		String encoded = Base64.getEncoder().encodeToString(bytes.array());
+		if (view == null) {
+			out.append("System.arraycopy(java.util.Base64.getDecoder().decode(\"")
+					.append(encoded).append("\"), 0, ").append(variable)
+					.append(", ").append(offset).append(", ").append(length)
+					.append(')');
+		} else {
+			out.append(
+					"java.nio.ByteBuffer.wrap(java.util.Base64.getDecoder().decode(\"")
+					.append(encoded).append("\")).").append(view)
+					.append("().get(").append(variable).append(", ")
+					.append(offset).append(", ").append(length).append(')');
+		}
+	}
+}
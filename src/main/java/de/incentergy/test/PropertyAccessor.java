@@ -0,0 +1,444 @@
+package de.incentergy.test;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads a property from a bean. The getter is bound once with the
+ * {@link LambdaMetafactory} into a functional interface so reading it is as
+ * fast as a direct call. Primitive getters are bound to primitive functional
+ * interfaces so their values are not boxed:
+ *
+ * <ul>
+ * <li>int, short, byte and char are read with {@link #getInt(Object)}</li>
+ * <li>long is read with {@link #getLong(Object)}</li>
+ * <li>float and double are read with {@link #getDouble(Object)}</li>
+ * <li>boolean is read with {@link #getBoolean(Object)}</li>
+ * </ul>
+ *
+ * If a getter can not be bound e.g. because its class is not public, the
+ * accessor falls back to {@link Method#invoke(Object, Object...)}.
+ *
+ * In field access mode a field is read directly with a {@link MethodHandle}
+ * from {@link MethodHandles.Lookup#unreflectGetter(Field)}, see
+ * {@link #of(Field)}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+abstract class PropertyAccessor {
+
+	private static final Logger log = Logger
+			.getLogger(PropertyAccessor.class.getName());
+
+	/**
+	 * Binds the given getter.
+	 *
+	 * @param readMethod
+	 *            the getter to bind
+	 * @return the accessor for the getter
+	 */
+	static PropertyAccessor of(Method readMethod) {
+		if (isBindable(readMethod)) {
+			try {
+				return bind(readMethod);
+			} catch (Throwable e) {
+				log.log(Level.FINE, "Could not bind " + readMethod
+						+ " falling back to reflection", e);
+			}
+		}
+		return new ReflectiveAccessor(readMethod);
+	}
+
+	/**
+	 * Binds a getter for the given field. Non public fields are made
+	 * accessible.
+	 *
+	 * @param field
+	 *            the field to read
+	 * @return the accessor for the field
+	 * @throws IllegalAccessException
+	 *             if the field can not be made accessible
+	 */
+	static PropertyAccessor of(Field field) throws IllegalAccessException {
+		try {
+			field.setAccessible(true);
+		} catch (RuntimeException e) {
+			// e.g. the module of the class is not open for us
+			IllegalAccessException exception = new IllegalAccessException(
+					"Could not make " + field + " accessible");
+			exception.initCause(e);
+			throw exception;
+		}
+		return new FieldAccessor(field.getType(),
+				MethodHandles.lookup().unreflectGetter(field));
+	}
+
+	/**
+	 * Checks if the method is public, is declared in a public class and the
+	 * class is visible from our class loader. The generated lambda class is
+	 * defined in our class loader so it must be able to see the bean class.
+	 */
+	private static boolean isBindable(Method readMethod) {
+		Class<?> declaringClass = readMethod.getDeclaringClass();
+		if (!Modifier.isPublic(readMethod.getModifiers())
+				|| !Modifier.isPublic(declaringClass.getModifiers())) {
+			return false;
+		}
+		try {
+			return Class.forName(declaringClass.getName(), false,
+					PropertyAccessor.class.getClassLoader()) == declaringClass;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	private static PropertyAccessor bind(Method readMethod) throws Throwable {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle getter = lookup.unreflect(readMethod);
+		Class<?> beanClass = readMethod.getDeclaringClass();
+		Class<?> type = readMethod.getReturnType();
+		if (type == Integer.TYPE || type == Short.TYPE || type == Byte.TYPE
+				|| type == Character.TYPE) {
+			return new IntAccessor(type, (ToIntFunction<?>) metafactory(
+					lookup, getter, ToIntFunction.class, "applyAsInt",
+					int.class, beanClass));
+		} else if (type == Long.TYPE) {
+			return new LongAccessor((ToLongFunction<?>) metafactory(lookup,
+					getter, ToLongFunction.class, "applyAsLong", long.class,
+					beanClass));
+		} else if (type == Double.TYPE || type == Float.TYPE) {
+			return new DoubleAccessor(type, (ToDoubleFunction<?>) metafactory(
+					lookup, getter, ToDoubleFunction.class, "applyAsDouble",
+					double.class, beanClass));
+		} else if (type == Boolean.TYPE) {
+			return new BooleanAccessor((Predicate<?>) metafactory(lookup,
+					getter, Predicate.class, "test", boolean.class,
+					beanClass));
+		}
+		return new ObjectAccessor((Function<?, ?>) metafactory(lookup, getter,
+				Function.class, "apply", Object.class, beanClass));
+	}
+
+	private static Object metafactory(MethodHandles.Lookup lookup,
+			MethodHandle getter, Class<?> functionalInterface, String name,
+			Class<?> returnType, Class<?> beanClass) throws Throwable {
+		CallSite callSite = LambdaMetafactory.metafactory(lookup, name,
+				MethodType.methodType(functionalInterface),
+				MethodType.methodType(returnType, Object.class), getter,
+				MethodType.methodType(returnType, beanClass));
+		return callSite.getTarget().invoke();
+	}
+
+	/**
+	 * Reads the value of the property. Primitive values are boxed.
+	 *
+	 * @param bean
+	 *            the bean to read from
+	 * @return the value
+	 * @throws InvocationTargetException
+	 *             if the getter throws an exception
+	 * @throws IllegalAccessException
+	 *             if the getter is not accessible
+	 */
+	abstract Object get(Object bean)
+			throws InvocationTargetException, IllegalAccessException;
+
+	/**
+	 * Reads an int, short, byte or char property.
+	 *
+	 * @param bean
+	 *            the bean to read from
+	 * @return the value widened to an int
+	 * @throws InvocationTargetException
+	 *             if the getter throws an exception
+	 * @throws IllegalAccessException
+	 *             if the getter is not accessible
+	 */
+	int getInt(Object bean)
+			throws InvocationTargetException, IllegalAccessException {
+		Object value = get(bean);
+		if (value instanceof Character) {
+			return (Character) value;
+		}
+		return ((Number) value).intValue();
+	}
+
+	/**
+	 * Reads a long property.
+	 *
+	 * @param bean
+	 *            the bean to read from
+	 * @return the value
+	 * @throws InvocationTargetException
+	 *             if the getter throws an exception
+	 * @throws IllegalAccessException
+	 *             if the getter is not accessible
+	 */
+	long getLong(Object bean)
+			throws InvocationTargetException, IllegalAccessException {
+		return ((Number) get(bean)).longValue();
+	}
+
+	/**
+	 * Reads a double or float property.
+	 *
+	 * @param bean
+	 *            the bean to read from
+	 * @return the value widened to a double
+	 * @throws InvocationTargetException
+	 *             if the getter throws an exception
+	 * @throws IllegalAccessException
+	 *             if the getter is not accessible
+	 */
+	double getDouble(Object bean)
+			throws InvocationTargetException, IllegalAccessException {
+		return ((Number) get(bean)).doubleValue();
+	}
+
+	/**
+	 * Reads a boolean property.
+	 *
+	 * @param bean
+	 *            the bean to read from
+	 * @return the value
+	 * @throws InvocationTargetException
+	 *             if the getter throws an exception
+	 * @throws IllegalAccessException
+	 *             if the getter is not accessible
+	 */
+	boolean getBoolean(Object bean)
+			throws InvocationTargetException, IllegalAccessException {
+		return (Boolean) get(bean);
+	}
+
+	/**
+	 * Falls back to reflection.
+	 */
+	private static final class ReflectiveAccessor extends PropertyAccessor {
+		private final Method readMethod;
+
+		ReflectiveAccessor(Method readMethod) {
+			this.readMethod = readMethod;
+		}
+
+		@Override
+		Object get(Object bean)
+				throws InvocationTargetException, IllegalAccessException {
+			return readMethod.invoke(bean);
+		}
+	}
+
+	/**
+	 * Reads a field with a method handle. A primitive field has a second
+	 * handle that widens the value instead of boxing it.
+	 */
+	private static final class FieldAccessor extends PropertyAccessor {
+		private final MethodHandle getter;
+		private final MethodHandle primitiveGetter;
+
+		FieldAccessor(Class<?> type, MethodHandle getter) {
+			this.getter = getter
+					.asType(MethodType.methodType(Object.class, Object.class));
+			if (type == Integer.TYPE || type == Short.TYPE
+					|| type == Byte.TYPE || type == Character.TYPE) {
+				type = Integer.TYPE;
+			} else if (type == Float.TYPE) {
+				type = Double.TYPE;
+			}
+			this.primitiveGetter = type.isPrimitive() ? getter
+					.asType(MethodType.methodType(type, Object.class)) : null;
+		}
+
+		@Override
+		Object get(Object bean) throws InvocationTargetException {
+			try {
+				return (Object) getter.invokeExact(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+
+		@Override
+		int getInt(Object bean) throws InvocationTargetException {
+			try {
+				return (int) primitiveGetter.invokeExact(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+
+		@Override
+		long getLong(Object bean) throws InvocationTargetException {
+			try {
+				return (long) primitiveGetter.invokeExact(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+
+		@Override
+		double getDouble(Object bean) throws InvocationTargetException {
+			try {
+				return (double) primitiveGetter.invokeExact(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+
+		@Override
+		boolean getBoolean(Object bean) throws InvocationTargetException {
+			try {
+				return (boolean) primitiveGetter.invokeExact(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+
+	/**
+	 * The bound functions do not wrap exceptions of the getter, so they are
+	 * wrapped here the same way reflection does it.
+	 */
+	private static final class ObjectAccessor extends PropertyAccessor {
+		private final Function<Object, ?> function;
+
+		@SuppressWarnings("unchecked")
+		ObjectAccessor(Function<?, ?> function) {
+			this.function = (Function<Object, ?>) function;
+		}
+
+		@Override
+		Object get(Object bean) throws InvocationTargetException {
+			try {
+				return function.apply(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+
+	private static final class IntAccessor extends PropertyAccessor {
+		private final Class<?> type;
+		private final ToIntFunction<Object> function;
+
+		@SuppressWarnings("unchecked")
+		IntAccessor(Class<?> type, ToIntFunction<?> function) {
+			this.type = type;
+			this.function = (ToIntFunction<Object>) function;
+		}
+
+		@Override
+		Object get(Object bean) throws InvocationTargetException {
+			int value = getInt(bean);
+			// box with the declared type of the getter
+			if (type == Byte.TYPE) {
+				return (byte) value;
+			} else if (type == Short.TYPE) {
+				return (short) value;
+			} else if (type == Character.TYPE) {
+				return (char) value;
+			}
+			return value;
+		}
+
+		@Override
+		int getInt(Object bean) throws InvocationTargetException {
+			try {
+				return function.applyAsInt(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+
+	private static final class LongAccessor extends PropertyAccessor {
+		private final ToLongFunction<Object> function;
+
+		@SuppressWarnings("unchecked")
+		LongAccessor(ToLongFunction<?> function) {
+			this.function = (ToLongFunction<Object>) function;
+		}
+
+		@Override
+		Object get(Object bean) throws InvocationTargetException {
+			return getLong(bean);
+		}
+
+		@Override
+		long getLong(Object bean) throws InvocationTargetException {
+			try {
+				return function.applyAsLong(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+
+	private static final class DoubleAccessor extends PropertyAccessor {
+		private final Class<?> type;
+		private final ToDoubleFunction<Object> function;
+
+		@SuppressWarnings("unchecked")
+		DoubleAccessor(Class<?> type, ToDoubleFunction<?> function) {
+			this.type = type;
+			this.function = (ToDoubleFunction<Object>) function;
+		}
+
+		@Override
+		Object get(Object bean) throws InvocationTargetException {
+			double value = getDouble(bean);
+			if (type == Float.TYPE) {
+				return (float) value;
+			}
+			return value;
+		}
+
+		@Override
+		double getDouble(Object bean) throws InvocationTargetException {
+			try {
+				return function.applyAsDouble(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+
+	private static final class BooleanAccessor extends PropertyAccessor {
+		private final Predicate<Object> predicate;
+
+		@SuppressWarnings("unchecked")
+		BooleanAccessor(Predicate<?> predicate) {
+			this.predicate = (Predicate<Object>) predicate;
+		}
+
+		@Override
+		Object get(Object bean) throws InvocationTargetException {
+			return getBoolean(bean);
+		}
+
+		@Override
+		boolean getBoolean(Object bean) throws InvocationTargetException {
+			try {
+				return predicate.test(bean);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+}
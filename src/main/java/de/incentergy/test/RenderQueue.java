@@ -0,0 +1,95 @@
+package de.incentergy.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the writing of captured graphs, see {@link CapturedGraph}, on an
+ * executor. At most a given amount of graphs are captured but not yet
+ * written. If the queue is full the thread that captures the next graph
+ * waits, so a slow target slows down the producers instead of filling the
+ * heap with snapshots.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+final class RenderQueue {
+
+	/**
+	 * The default amount of graphs that are captured but not yet written
+	 */
+	static final int DEFAULT_MAX_PENDING = 64;
+
+	private static volatile RenderQueue defaultQueue;
+
+	private final Executor executor;
+
+	private final Semaphore permits;
+
+	RenderQueue(Executor executor, int maxPending) {
+		this.executor = executor;
+		this.permits = new Semaphore(maxPending);
+	}
+
+	/**
+	 * @return the queue that is used if the configuration has no render
+	 *         executor. It writes with one daemon thread per processor.
+	 */
+	static RenderQueue getDefault() {
+		RenderQueue queue = defaultQueue;
+		if (queue == null) {
+			synchronized (RenderQueue.class) {
+				queue = defaultQueue;
+				if (queue == null) {
+					int threads = Runtime.getRuntime().availableProcessors();
+					AtomicInteger count = new AtomicInteger();
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(
+							threads, threads, 60, TimeUnit.SECONDS,
+							new LinkedBlockingQueue<>(), r -> {
+								Thread thread = new Thread(r,
+										"object2code-render-"
+												+ count.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							});
+					executor.allowCoreThreadTimeOut(true);
+					queue = new RenderQueue(executor, DEFAULT_MAX_PENDING);
+					defaultQueue = queue;
+				}
+			}
+		}
+		return queue;
+	}
+
+	/**
+	 * Runs a task after the given one on the executor of this queue. Waits
+	 * while the queue is full.
+	 *
+	 * @param previous
+	 *            the task that has to be finished first, its result is
+	 *            ignored
+	 * @param task
+	 *            the task to run
+	 * @return the result of the task
+	 */
+	<T> CompletableFuture<T> submit(CompletableFuture<?> previous,
+			Supplier<T> task) {
+		permits.acquireUninterruptibly();
+		try {
+			return previous.handle((result, e) -> null)
+					.thenApplyAsync(ignored -> task.get(), executor)
+					.whenComplete((result, e) -> permits.release());
+		} catch (RuntimeException e) {
+			// the executor rejected the task
+			permits.release();
+			throw e;
+		}
+	}
+}
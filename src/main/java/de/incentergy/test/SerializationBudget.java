@@ -0,0 +1,202 @@
+package de.incentergy.test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The immutable limits of a single serialization. When a limit is exceeded
+ * the serializer does not fail, it writes the objects that do not fit as
+ * null /* truncated *&#47; and stops filling the objects that are still
+ * open. The code stays compilable and
+ * {@link Object2CodeObjectOutputStream#getTruncation()} reports what was
+ * cut.
+ *
+ * SerializerConfig config = SerializerConfig.builder()
+ * .budget(SerializationBudget.builder().maxObjects(10000).maxDepth(20)
+ * .timeout(2, TimeUnit.SECONDS).build())
+ * .build();
+ *
+ * The limits are checked whenever an object is visited. The time is only
+ * checked every {@link #TIME_CHECK_INTERVAL} visited objects.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class SerializationBudget {
+
+	/**
+	 * After how many visited objects the time is checked
+	 */
+	public static final int TIME_CHECK_INTERVAL = 256;
+
+	/**
+	 * The limits of a budget.
+	 */
+	public enum Limit {
+		/**
+		 * The amount of chars of the code
+		 */
+		CHARS,
+		/**
+		 * The amount of objects that got a variable
+		 */
+		OBJECTS,
+		/**
+		 * The depth of an object in the graph, the root has depth 0
+		 */
+		DEPTH,
+		/**
+		 * The time since the serialization started
+		 */
+		TIME
+	}
+
+	private final long maxChars;
+
+	private final int maxObjects;
+
+	private final int maxDepth;
+
+	private final long timeoutNanos;
+
+	private SerializationBudget(Builder builder) {
+		this.maxChars = builder.maxChars;
+		this.maxObjects = builder.maxObjects;
+		this.maxDepth = builder.maxDepth;
+		this.timeoutNanos = builder.timeoutNanos;
+	}
+
+	/**
+	 * @return a new builder without limits
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return the maximal amount of chars of the code
+	 */
+	public long getMaxChars() {
+		return maxChars;
+	}
+
+	/**
+	 * @return the maximal amount of objects that get a variable
+	 */
+	public int getMaxObjects() {
+		return maxObjects;
+	}
+
+	/**
+	 * @return the maximal depth of an object in the graph
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the maximal duration of a serialization in nanoseconds
+	 */
+	public long getTimeoutNanos() {
+		return timeoutNanos;
+	}
+
+	/**
+	 * Builds a {@link SerializationBudget}. All limits are unlimited by
+	 * default.
+	 */
+	public static final class Builder {
+
+		private long maxChars = Long.MAX_VALUE;
+
+		private int maxObjects = Integer.MAX_VALUE;
+
+		private int maxDepth = Integer.MAX_VALUE;
+
+		private long timeoutNanos = Long.MAX_VALUE;
+
+		private Builder() {
+		}
+
+		/**
+		 * Limits the size of the code. The code of the object that is written
+		 * when the limit is reached is completed, so the code can be slightly
+		 * larger.
+		 *
+		 * @param maxChars
+		 *            the maximal amount of chars, not negative
+		 * @return this builder
+		 */
+		public Builder maxChars(long maxChars) {
+			if (maxChars < 0) {
+				throw new IllegalArgumentException(
+						"The amount of chars must not be negative but was "
+								+ maxChars);
+			}
+			this.maxChars = maxChars;
+			return this;
+		}
+
+		/**
+		 * Limits the amount of objects that get a variable. Literals like
+		 * Strings and boxed values do not count.
+		 *
+		 * @param maxObjects
+		 *            the maximal amount of objects, not negative
+		 * @return this builder
+		 */
+		public Builder maxObjects(int maxObjects) {
+			if (maxObjects < 0) {
+				throw new IllegalArgumentException(
+						"The amount of objects must not be negative but was "
+								+ maxObjects);
+			}
+			this.maxObjects = maxObjects;
+			return this;
+		}
+
+		/**
+		 * Limits the depth of the objects in the graph. The root has depth 0,
+		 * the items of a collection and the values of a bean are one deeper
+		 * than the collection or the bean. Deeper objects are truncated, but
+		 * the rest of the graph is still written.
+		 *
+		 * @param maxDepth
+		 *            the maximal depth, not negative
+		 * @return this builder
+		 */
+		public Builder maxDepth(int maxDepth) {
+			if (maxDepth < 0) {
+				throw new IllegalArgumentException(
+						"The depth must not be negative but was " + maxDepth);
+			}
+			this.maxDepth = maxDepth;
+			return this;
+		}
+
+		/**
+		 * Limits the time of a serialization.
+		 *
+		 * @param timeout
+		 *            the maximal duration, not negative
+		 * @param unit
+		 *            the unit of the duration
+		 * @return this builder
+		 */
+		public Builder timeout(long timeout, TimeUnit unit) {
+			if (timeout < 0) {
+				throw new IllegalArgumentException(
+						"The timeout must not be negative but was " + timeout);
+			}
+			this.timeoutNanos = unit.toNanos(timeout);
+			return this;
+		}
+
+		/**
+		 * @return the immutable budget
+		 */
+		public SerializationBudget build() {
+			return new SerializationBudget(this);
+		}
+	}
+}
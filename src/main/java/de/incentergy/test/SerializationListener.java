@@ -0,0 +1,75 @@
+package de.incentergy.test;
+
+/**
+ * Is notified about the work of the serializer. A listener is registered with
+ * {@link SerializerConfig.Builder#listener(SerializationListener)}. If no
+ * listener is registered the serializer does not measure anything.
+ *
+ * A listener of a shared configuration is called by many threads at the same
+ * time and has to be thread safe. The methods are called on the hot path and
+ * should return quickly. All methods do nothing by default, see
+ * {@link SerializationStats} for a listener that collects statistics.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public interface SerializationListener {
+
+	/**
+	 * Called for every object that is written for the first time.
+	 *
+	 * @param clazz
+	 *            the class of the object
+	 * @param depth
+	 *            the depth of the object in the graph, the root has depth 0
+	 */
+	default void objectVisited(Class<?> clazz, int depth) {
+	}
+
+	/**
+	 * Called for every object that is written as a reference to the variable
+	 * of an earlier written object.
+	 *
+	 * @param clazz
+	 *            the class of the object
+	 */
+	default void backReference(Class<?> clazz) {
+	}
+
+	/**
+	 * Called after every statement.
+	 *
+	 * @param clazz
+	 *            the class of the object the statement belongs to
+	 * @param chars
+	 *            the length of the statement
+	 */
+	default void codeWritten(Class<?> clazz, long chars) {
+	}
+
+	/**
+	 * Called after a getter was called.
+	 *
+	 * @param clazz
+	 *            the class of the bean
+	 * @param property
+	 *            the name of the property
+	 * @param nanos
+	 *            the time spent in the getter
+	 */
+	default void propertyRead(Class<?> clazz, String property, long nanos) {
+	}
+
+	/**
+	 * Called before the properties of a bean are written.
+	 *
+	 * @param clazz
+	 *            the class of the bean
+	 * @param cached
+	 *            true if the class was introspected before, false if it is
+	 *            introspected now
+	 */
+	default void introspection(Class<?> clazz, boolean cached) {
+	}
+}
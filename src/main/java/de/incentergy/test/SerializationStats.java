@@ -0,0 +1,199 @@
+package de.incentergy.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A {@link SerializationListener} that collects statistics. It is thread
+ * safe, so it can be shared by all threads that use a configuration.
+ *
+ * SerializationStats stats = new SerializationStats();
+ *
+ * SerializerConfig config = SerializerConfig.builder().listener(stats)
+ * .build();
+ *
+ * Serialize.object2code(myBean, config);
+ *
+ * System.out.println(stats.getTable());
+ *
+ * The statistics can also be published as MXBean with
+ * {@link #registerMBean(String)}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public class SerializationStats
+		implements SerializationListener, SerializationStatsMXBean {
+
+	private final ConcurrentMap<String, LongAdder> objectsPerClass = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, LongAdder> charsPerClass = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, LongAdder> getterNanosPerProperty = new ConcurrentHashMap<>();
+
+	private final LongAdder introspectionHits = new LongAdder();
+
+	private final LongAdder introspectionMisses = new LongAdder();
+
+	private final LongAdder backReferences = new LongAdder();
+
+	private final AtomicInteger maxDepth = new AtomicInteger();
+
+	private static void add(ConcurrentMap<String, LongAdder> map, String key,
+			long value) {
+		LongAdder adder = map.get(key);
+		if (adder == null) {
+			adder = map.computeIfAbsent(key, k -> new LongAdder());
+		}
+		adder.add(value);
+	}
+
+	@Override
+	public void objectVisited(Class<?> clazz, int depth) {
+		add(objectsPerClass, clazz.getName(), 1);
+		int max = maxDepth.get();
+		while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+			max = maxDepth.get();
+		}
+	}
+
+	@Override
+	public void backReference(Class<?> clazz) {
+		backReferences.increment();
+	}
+
+	@Override
+	public void codeWritten(Class<?> clazz, long chars) {
+		add(charsPerClass, clazz.getName(), chars);
+	}
+
+	@Override
+	public void propertyRead(Class<?> clazz, String property, long nanos) {
+		add(getterNanosPerProperty, clazz.getName() + "#" + property, nanos);
+	}
+
+	@Override
+	public void introspection(Class<?> clazz, boolean cached) {
+		if (cached) {
+			introspectionHits.increment();
+		} else {
+			introspectionMisses.increment();
+		}
+	}
+
+	private static Map<String, Long> snapshot(
+			ConcurrentMap<String, LongAdder> map) {
+		Map<String, Long> snapshot = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : map.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().sum());
+		}
+		return snapshot;
+	}
+
+	@Override
+	public Map<String, Long> getObjectsPerClass() {
+		return snapshot(objectsPerClass);
+	}
+
+	@Override
+	public Map<String, Long> getCharsPerClass() {
+		return snapshot(charsPerClass);
+	}
+
+	@Override
+	public Map<String, Long> getGetterNanosPerProperty() {
+		return snapshot(getterNanosPerProperty);
+	}
+
+	@Override
+	public long getIntrospectionHits() {
+		return introspectionHits.sum();
+	}
+
+	@Override
+	public long getIntrospectionMisses() {
+		return introspectionMisses.sum();
+	}
+
+	@Override
+	public long getBackReferences() {
+		return backReferences.sum();
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return maxDepth.get();
+	}
+
+	@Override
+	public String getTable() {
+		StringBuilder table = new StringBuilder();
+		Map<String, Long> chars = getCharsPerClass();
+		table.append(String.format("%-60s %12s %14s%n", "class", "objects",
+				"chars"));
+		for (Map.Entry<String, Long> entry : getObjectsPerClass()
+				.entrySet()) {
+			Long c = chars.get(entry.getKey());
+			table.append(String.format("%-60s %12d %14d%n", entry.getKey(),
+					entry.getValue(), c == null ? 0 : c));
+		}
+		table.append(String.format("%n%-60s %12s%n", "property",
+				"getter ms"));
+		for (Map.Entry<String, Long> entry : getGetterNanosPerProperty()
+				.entrySet()) {
+			table.append(String.format("%-60s %12.3f%n", entry.getKey(),
+					entry.getValue() / 1e6));
+		}
+		table.append(String.format("%n%-60s %12d%n", "introspection hits",
+				getIntrospectionHits()));
+		table.append(String.format("%-60s %12d%n", "introspection misses",
+				getIntrospectionMisses()));
+		table.append(String.format("%-60s %12d%n", "back references",
+				getBackReferences()));
+		table.append(String.format("%-60s %12d%n", "max depth",
+				getMaxDepth()));
+		return table.toString();
+	}
+
+	@Override
+	public void reset() {
+		objectsPerClass.clear();
+		charsPerClass.clear();
+		getterNanosPerProperty.clear();
+		introspectionHits.reset();
+		introspectionMisses.reset();
+		backReferences.reset();
+		maxDepth.set(0);
+	}
+
+	/**
+	 * Registers the statistics at the platform MBean server.
+	 *
+	 * @param name
+	 *            the object name e.g.
+	 *            de.incentergy.test:type=SerializationStats
+	 * @return the object name the statistics are registered with
+	 * @throws JMException
+	 *             if the name is invalid or already registered
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		return objectName;
+	}
+
+	@Override
+	public String toString() {
+		return getTable();
+	}
+}
@@ -0,0 +1,59 @@
+package de.incentergy.test;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link SerializationStats}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public interface SerializationStatsMXBean {
+
+	/**
+	 * @return the amount of written objects per class name
+	 */
+	Map<String, Long> getObjectsPerClass();
+
+	/**
+	 * @return the amount of written chars per class name
+	 */
+	Map<String, Long> getCharsPerClass();
+
+	/**
+	 * @return the nanoseconds spent in getters per class name and property
+	 *         e.g. de.example.Order#price
+	 */
+	Map<String, Long> getGetterNanosPerProperty();
+
+	/**
+	 * @return how often the introspection of a class was found in the cache
+	 */
+	long getIntrospectionHits();
+
+	/**
+	 * @return how often a class had to be introspected
+	 */
+	long getIntrospectionMisses();
+
+	/**
+	 * @return how often an object was written as back reference
+	 */
+	long getBackReferences();
+
+	/**
+	 * @return the maximal depth of a written object
+	 */
+	int getMaxDepth();
+
+	/**
+	 * @return all statistics as text table
+	 */
+	String getTable();
+
+	/**
+	 * Sets all statistics to zero.
+	 */
+	void reset();
+}
@@ -1,7 +1,7 @@
 package de.incentergy.test;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +17,12 @@ public class Serialize {
     private static final Logger log = Logger.getLogger(Serialize.class
             .getName());
 
+    /**
+     * The name of the classes that are compiled by
+     * {@link #object2supplier(Object)}
+     */
+    private static final String SNAPSHOT_CLASS_NAME = "de.incentergy.test.generated.Snapshot";
+
     /**
      * This function serializes an object directly to code. You can use a static
      * import to use it.
@@ -29,14 +35,146 @@ public class Serialize {
      * @return a string containing the java code for creating the object
      */
     public static String object2code(Object o) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        return object2code(o, Object2CodeObjectOutputStream.getDefaultConfig());
+    }
+
+    /**
+     * This function serializes an object directly to code with the given
+     * configuration.
+     * 
+     * @param o the object to serialze
+     * @param config the configuration to use
+     * @return a string containing the java code for creating the object
+     */
+    public static String object2code(Object o, SerializerConfig config) {
+        StringBuilder code = new StringBuilder();
         try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
-                byteArrayOutputStream)) {
+                code, config)) {
             object2CodeObjectOutputStream.writeObject(o);
-            return byteArrayOutputStream.toString();
+            return code.toString();
         } catch (SecurityException e) {
             log.log(Level.WARNING, "Excetion was thrown", e);
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * This function captures the values of an object on the calling thread
+     * and writes the code in the background, see
+     * {@link Object2CodeObjectOutputStream#writeObjectAsync(Object)}.
+     * 
+     * @param o the object to serialze
+     * @return the future of the java code for creating the object
+     */
+    public static CompletableFuture<String> object2codeAsync(Object o) {
+        return object2codeAsync(o,
+                Object2CodeObjectOutputStream.getDefaultConfig());
+    }
+
+    /**
+     * This function captures the values of an object on the calling thread
+     * and writes the code in the background with the given configuration.
+     * 
+     * @param o the object to serialze
+     * @param config the configuration to use
+     * @return the future of the java code for creating the object
+     */
+    public static CompletableFuture<String> object2codeAsync(Object o,
+            SerializerConfig config) {
+        StringBuilder code = new StringBuilder();
+        Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+                code, config);
+        return object2CodeObjectOutputStream.writeObjectAsync(o).thenApply(
+                v -> {
+                    object2CodeObjectOutputStream.close();
+                    return code.toString();
+                });
+    }
+
+    /**
+     * This function serializes an object to a complete class. The object is
+     * created by the static build() method of the class.
+     * 
+     * @param o the object to serialze
+     * @param className the fully qualified name of the class
+     * @return a string containing the java code of the class
+     */
+    public static String object2class(Object o, String className) {
+        return object2class(o, className,
+                Object2CodeObjectOutputStream.getDefaultConfig());
+    }
+
+    /**
+     * This function serializes an object to a complete class with the given
+     * configuration.
+     * 
+     * @param o the object to serialze
+     * @param className the fully qualified name of the class
+     * @param config the configuration to use
+     * @return a string containing the java code of the class
+     */
+    public static String object2class(Object o, String className,
+            SerializerConfig config) {
+        StringBuilder code = new StringBuilder();
+        try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+                code, config)) {
+            object2CodeObjectOutputStream.writeClass(o, className);
+            return code.toString();
+        }
+    }
+
+    /**
+     * This function serializes an object to a class, compiles it in memory
+     * and returns a supplier that rebuilds the object. Identical snapshots
+     * are compiled only once, see {@link SnapshotCompiler#getDefault()}.
+     * 
+     * Supplier&lt;MyBean&gt; fixture = object2supplier(myBean);
+     * 
+     * MyBean copy = fixture.get();
+     * 
+     * @param o the object to serialze
+     * @param <T> the type of the object
+     * @return a supplier that builds a new copy of the object on every call
+     */
+    public static <T> Supplier<T> object2supplier(T o) {
+        return object2supplier(o,
+                Object2CodeObjectOutputStream.getDefaultConfig());
+    }
+
+    /**
+     * This function serializes an object to a class with the given
+     * configuration, compiles it in memory and returns a supplier that
+     * rebuilds the object.
+     * 
+     * @param o the object to serialze
+     * @param config the configuration to use
+     * @param <T> the type of the object
+     * @return a supplier that builds a new copy of the object on every call
+     */
+    public static <T> Supplier<T> object2supplier(T o, SerializerConfig config) {
+        return object2supplier(o, config, SnapshotCompiler.getDefault());
+    }
+
+    /**
+     * This function serializes an object to a class with the given
+     * configuration and compiles it with the given compiler, e.g. one that
+     * caches the byte code in a directory.
+     * 
+     * @param o the object to serialze
+     * @param config the configuration to use
+     * @param compiler the compiler and its cache
+     * @param <T> the type of the object
+     * @return a supplier that builds a new copy of the object on every call
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Supplier<T> object2supplier(T o, SerializerConfig config,
+            SnapshotCompiler compiler) {
+        String source = object2class(o, SNAPSHOT_CLASS_NAME, config);
+        ClassLoader parent = o.getClass().getClassLoader();
+        if (parent == null) {
+            parent = Thread.currentThread().getContextClassLoader();
+        }
+        return (Supplier<T>) compiler.compile(SNAPSHOT_CLASS_NAME, source,
+                parent);
+    }
 }
@@ -0,0 +1,921 @@
+package de.incentergy.test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * The immutable configuration of an {@link Object2CodeObjectOutputStream}. A
+ * configuration can be shared by any number of threads without locking.
+ *
+ * SerializerConfig config = SerializerConfig.builder()
+ * .includeFieldForClass(MyBean.class, "name")
+ * .addCustomConstructorGenerator(GregorianCalendar.class, (c) -&gt;
+ * "Calendar.getInstance()") .build();
+ *
+ * new Object2CodeObjectOutputStream(System.out, config).writeObject(myBean);
+ *
+ * If a {@link ForkJoinPool} is set with {@link Builder#parallel(ForkJoinPool)}
+ * the items of a large root collection or map are written in parallel. The
+ * code is the same as the code that is written sequentially.
+ *
+ * The configuration also caches the {@link ClassPlan} of every class that is
+ * written with it.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class SerializerConfig {
+
+	/**
+	 * The default amount of items of a root that are written by one task.
+	 */
+	public static final int DEFAULT_PARALLEL_CHUNK_SIZE = 1024;
+
+	/**
+	 * The default maximal amount of statements in one method of a class
+	 * written with {@link Object2CodeObjectOutputStream#writeClass(Object,
+	 * String)}. It keeps the methods below the size up to which HotSpot
+	 * compiles methods.
+	 */
+	public static final int DEFAULT_MAX_STATEMENTS_PER_METHOD = 500;
+
+	/**
+	 * This map contains Functions that can generate constructors for classes
+	 */
+	private final Map<Class<?>, Function<Object, String>> class2constructorGenerator;
+
+	/**
+	 * This map can contain for a class the names of the only fields that
+	 * should be serialized.
+	 */
+	private final Map<Class<?>, Set<String>> class2fieldIncludes;
+
+	/**
+	 * This list contains functions that are applied to all objects before
+	 * processing e.g. it is possible to unwrap HibernateProxies
+	 */
+	private final List<Function<Object, Object>> processors;
+
+	/**
+	 * The processors in the order they were added
+	 */
+	private final Processor[] processorChain;
+
+	/**
+	 * The processors that are applied to null
+	 */
+	private final Processor[] nullProcessors;
+
+	/**
+	 * The processors whose type matches a class, in the order they were
+	 * added. It is empty for most classes, e.g. for boxed values and Strings
+	 * if no processor targets them.
+	 */
+	private final ClassValue<Processor[]> class2processors = new ClassValue<Processor[]>() {
+		@Override
+		protected Processor[] computeValue(Class<?> type) {
+			return matching(type);
+		}
+	};
+
+	/**
+	 * The pool for writing large roots in parallel or null
+	 */
+	private final ForkJoinPool parallelPool;
+
+	/**
+	 * The amount of items of a root that are written by one task
+	 */
+	private final int parallelChunkSize;
+
+	/**
+	 * The maximal amount of statements in one method of a class
+	 */
+	private final int maxStatementsPerMethod;
+
+	/**
+	 * If collections and maps are presized and filled in bulk
+	 */
+	private final boolean compactCollections;
+
+	/**
+	 * The length from which primitive arrays are written Base64 encoded or 0
+	 */
+	private final int base64ArrayThreshold;
+
+	/**
+	 * How often a literal is written before it is hoisted into a constant or
+	 * 0
+	 */
+	private final int constantThreshold;
+
+	/**
+	 * If setters are skipped for values that equal the default of the class
+	 */
+	private final boolean elideDefaults;
+
+	/**
+	 * The listener that is notified about the work of the serializer or null
+	 */
+	private final SerializationListener listener;
+
+	/**
+	 * The limits of every serialization or null
+	 */
+	private final SerializationBudget budget;
+
+	/**
+	 * If the fields of beans are read instead of their getters
+	 */
+	private final boolean fieldAccess;
+
+	/**
+	 * The queue for writing captured graphs or null for the default queue
+	 */
+	private final RenderQueue renderQueue;
+
+	/**
+	 * The filter of the written paths or null
+	 */
+	private final PathFilter pathFilter;
+
+	/**
+	 * Recognizes lazy associations that are not loaded or null
+	 */
+	private final LazinessDetector lazinessDetector;
+
+	/**
+	 * The plans of all classes written with this configuration.
+	 */
+	private final ClassValue<ClassPlan> plans = new ClassValue<ClassPlan>() {
+		@Override
+		protected ClassPlan computeValue(Class<?> type) {
+			Class<?> generatorType = resolveConstructorGeneratorType(type);
+			return new ClassPlan(type, class2fieldIncludes.get(type),
+					fieldAccess,
+					generatorType != null
+							? class2constructorGenerator.get(generatorType)
+							: null,
+					generatorType);
+		}
+	};
+
+	private SerializerConfig(Builder builder) {
+		this.class2constructorGenerator = Collections
+				.unmodifiableMap(new HashMap<>(builder.class2constructorGenerator));
+		Map<Class<?>, Set<String>> class2fieldIncludes = new HashMap<>();
+		for (Map.Entry<Class<?>, Set<String>> entry : builder.class2fieldIncludes
+				.entrySet()) {
+			class2fieldIncludes.put(entry.getKey(), Collections
+					.unmodifiableSet(new HashSet<>(entry.getValue())));
+		}
+		this.class2fieldIncludes = Collections
+				.unmodifiableMap(class2fieldIncludes);
+		this.processorChain = builder.processors
+				.toArray(new Processor[builder.processors.size()]);
+		List<Function<Object, Object>> processors = new ArrayList<>();
+		for (Processor processor : processorChain) {
+			processors.add(processor.type == Object.class
+					? processor.function
+					: o -> processor.type.isInstance(o)
+							? processor.function.apply(o)
+							: o);
+		}
+		this.processors = Collections.unmodifiableList(processors);
+		this.nullProcessors = matching(null);
+		this.parallelPool = builder.parallelPool;
+		this.parallelChunkSize = builder.parallelChunkSize;
+		this.maxStatementsPerMethod = builder.maxStatementsPerMethod;
+		this.compactCollections = builder.compactCollections;
+		this.base64ArrayThreshold = builder.base64ArrayThreshold;
+		this.constantThreshold = builder.constantThreshold;
+		this.elideDefaults = builder.elideDefaults;
+		this.listener = builder.listener;
+		this.budget = builder.budget;
+		this.fieldAccess = builder.fieldAccess;
+		this.renderQueue = builder.renderQueue;
+		this.pathFilter = builder.pathFilter;
+		this.lazinessDetector = builder.lazinessDetector;
+	}
+
+	/**
+	 * @return a builder for an empty configuration
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return a builder that is initialized with this configuration
+	 */
+	public Builder toBuilder() {
+		Builder builder = new Builder();
+		builder.class2constructorGenerator.putAll(class2constructorGenerator);
+		for (Map.Entry<Class<?>, Set<String>> entry : class2fieldIncludes
+				.entrySet()) {
+			builder.class2fieldIncludes.put(entry.getKey(),
+					new HashSet<>(entry.getValue()));
+		}
+		builder.processors.addAll(Arrays.asList(processorChain));
+		builder.parallelPool = parallelPool;
+		builder.parallelChunkSize = parallelChunkSize;
+		builder.maxStatementsPerMethod = maxStatementsPerMethod;
+		builder.compactCollections = compactCollections;
+		builder.base64ArrayThreshold = base64ArrayThreshold;
+		builder.constantThreshold = constantThreshold;
+		builder.elideDefaults = elideDefaults;
+		builder.listener = listener;
+		builder.budget = budget;
+		builder.fieldAccess = fieldAccess;
+		builder.renderQueue = renderQueue;
+		builder.pathFilter = pathFilter;
+		builder.lazinessDetector = lazinessDetector;
+		return builder;
+	}
+
+	/**
+	 * Returns the custom constructor generator for the class. A generator
+	 * that was added for the class itself is used first, then the generator
+	 * of the nearest super class and then the generator of the nearest
+	 * interface. Interfaces are searched breadth first, the interfaces of
+	 * the class before the interfaces of its super class and interfaces of
+	 * the same distance in the order they are declared. The result is
+	 * cached per class.
+	 *
+	 * @param clazz
+	 *            the class to get the generator for
+	 * @return the generator or null if neither the class nor one of its
+	 *         super types has one
+	 */
+	public Function<Object, String> getConstructorGenerator(Class<?> clazz) {
+		return getPlan(clazz).getConstructorGenerator();
+	}
+
+	/**
+	 * Searches the generator of a class as described in
+	 * {@link #getConstructorGenerator(Class)}.
+	 *
+	 * @return the type the generator was added for or null
+	 */
+	private Class<?> resolveConstructorGeneratorType(Class<?> clazz) {
+		if (class2constructorGenerator.isEmpty()) {
+			return null;
+		}
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			if (class2constructorGenerator.containsKey(c)) {
+				return c;
+			}
+		}
+		Deque<Class<?>> pending = new ArrayDeque<>();
+		Set<Class<?>> seen = new HashSet<>();
+		pending.add(clazz);
+		while (!pending.isEmpty()) {
+			Class<?> c = pending.poll();
+			if (c.isInterface() && class2constructorGenerator.containsKey(c)) {
+				return c;
+			}
+			for (Class<?> i : c.getInterfaces()) {
+				if (seen.add(i)) {
+					pending.add(i);
+				}
+			}
+			if (c.getSuperclass() != null) {
+				pending.add(c.getSuperclass());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the includes for the class.
+	 *
+	 * @param clazz
+	 *            the class to get the includes for
+	 * @return the names of the included fields or null if all fields should
+	 *         be included
+	 */
+	public Set<String> getFieldIncludes(Class<?> clazz) {
+		return class2fieldIncludes.get(clazz);
+	}
+
+	/**
+	 * @return the processors that are applied to all objects, a processor
+	 *         for a type returns all other objects unchanged
+	 */
+	public List<Function<Object, Object>> getProcessors() {
+		return processors;
+	}
+
+	/**
+	 * Applies the processors of this configuration to an object. Only the
+	 * processors whose type matches the class of the object are called. If a
+	 * processor returns an object of another class the remaining processors
+	 * of that class are applied. Lazy associations that are not loaded are
+	 * not processed.
+	 *
+	 * @param o
+	 *            the object to process
+	 * @return the processed object
+	 */
+	Object process(Object o) {
+		if (processorChain.length == 0 || isUninitialized(o)) {
+			return o;
+		}
+		int next = 0;
+		while (true) {
+			Class<?> clazz = o != null ? o.getClass() : null;
+			Processor[] chain = clazz != null ? class2processors.get(clazz)
+					: nullProcessors;
+			int i = 0;
+			while (i < chain.length && chain[i].index < next) {
+				i++;
+			}
+			if (i == chain.length) {
+				return o;
+			}
+			for (; i < chain.length; i++) {
+				o = chain[i].function.apply(o);
+				next = chain[i].index + 1;
+				if ((o != null ? o.getClass() : null) != clazz) {
+					// continue with the processors of the new class
+					break;
+				}
+			}
+			if (i == chain.length) {
+				return o;
+			}
+		}
+	}
+
+	/**
+	 * @return the processors for instances of the class or for null
+	 */
+	private Processor[] matching(Class<?> clazz) {
+		List<Processor> matching = new ArrayList<>();
+		for (Processor processor : processorChain) {
+			if (clazz != null ? processor.type.isAssignableFrom(clazz)
+					: processor.type == Object.class) {
+				matching.add(processor);
+			}
+		}
+		return matching.toArray(new Processor[matching.size()]);
+	}
+
+	/**
+	 * @return the pool for writing large roots in parallel or null if
+	 *         everything is written sequentially
+	 */
+	public ForkJoinPool getParallelPool() {
+		return parallelPool;
+	}
+
+	/**
+	 * @return the amount of items of a root collection or map that are
+	 *         written by one task
+	 */
+	public int getParallelChunkSize() {
+		return parallelChunkSize;
+	}
+
+	/**
+	 * @return the maximal amount of statements in one method of a class
+	 */
+	public int getMaxStatementsPerMethod() {
+		return maxStatementsPerMethod;
+	}
+
+	/**
+	 * @return true if collections and maps are presized and filled in bulk
+	 */
+	public boolean isCompactCollections() {
+		return compactCollections;
+	}
+
+	/**
+	 * @return the length from which primitive arrays are written Base64
+	 *         encoded or 0 if they are always written as literals
+	 */
+	public int getBase64ArrayThreshold() {
+		return base64ArrayThreshold;
+	}
+
+	/**
+	 * @return how often a literal is written before it is hoisted into a
+	 *         constant or 0 if no constants are used
+	 */
+	public int getConstantThreshold() {
+		return constantThreshold;
+	}
+
+	/**
+	 * @return true if setters are skipped for values that equal the default
+	 *         of the class
+	 */
+	public boolean isElideDefaults() {
+		return elideDefaults;
+	}
+
+	/**
+	 * @return the listener that is notified about the work of the serializer
+	 *         or null
+	 */
+	public SerializationListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the limits of every serialization or null
+	 */
+	public SerializationBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return true if the fields of beans are read instead of their getters
+	 */
+	public boolean isFieldAccess() {
+		return fieldAccess;
+	}
+
+	/**
+	 * @return the filter of the written paths or null if the complete graph
+	 *         is written
+	 */
+	public PathFilter getPathFilter() {
+		return pathFilter;
+	}
+
+	/**
+	 * @return the detector of lazy associations that are not loaded or null
+	 */
+	public LazinessDetector getLazinessDetector() {
+		return lazinessDetector;
+	}
+
+	/**
+	 * Checks if a value is a lazy association that is not loaded and must
+	 * not be walked.
+	 *
+	 * @param o
+	 *            the value or null
+	 * @return true if the value is not loaded
+	 */
+	boolean isUninitialized(Object o) {
+		return o != null && lazinessDetector != null
+				&& lazinessDetector.isUninitialized(o);
+	}
+
+	/**
+	 * @return the queue that writes the graphs of
+	 *         {@link Object2CodeObjectOutputStream#writeObjectAsync(Object)}
+	 */
+	RenderQueue getRenderQueue() {
+		return renderQueue != null ? renderQueue : RenderQueue.getDefault();
+	}
+
+	/**
+	 * Returns the cached plan for the given class.
+	 *
+	 * @param clazz
+	 *            the class to get the plan for
+	 * @return the plan
+	 */
+	ClassPlan getPlan(Class<?> clazz) {
+		return plans.get(clazz);
+	}
+
+	/**
+	 * A processor and the type of the objects it processes.
+	 */
+	private static final class Processor {
+		private final Class<?> type;
+		private final Function<Object, Object> function;
+		/**
+		 * The position in the order the processors were added
+		 */
+		private final int index;
+
+		Processor(Class<?> type, Function<Object, Object> function,
+				int index) {
+			this.type = type;
+			this.function = function;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Builds a {@link SerializerConfig}. A builder is not thread safe.
+	 */
+	public static final class Builder {
+
+		private final Map<Class<?>, Function<Object, String>> class2constructorGenerator = new HashMap<>();
+
+		private final Map<Class<?>, Set<String>> class2fieldIncludes = new HashMap<>();
+
+		private final List<Processor> processors = new ArrayList<>();
+
+		private ForkJoinPool parallelPool;
+
+		private int parallelChunkSize = DEFAULT_PARALLEL_CHUNK_SIZE;
+
+		private int maxStatementsPerMethod = DEFAULT_MAX_STATEMENTS_PER_METHOD;
+
+		private boolean compactCollections;
+
+		private int base64ArrayThreshold;
+
+		private int constantThreshold;
+
+		private boolean elideDefaults;
+
+		private SerializationListener listener;
+
+		private SerializationBudget budget;
+
+		private boolean fieldAccess;
+
+		private RenderQueue renderQueue;
+
+		private PathFilter pathFilter;
+
+		private LazinessDetector lazinessDetector = HibernateLazinessDetector
+				.getDefault();
+
+		private Builder() {
+		}
+
+		/**
+		 * Only include this field for the class.
+		 *
+		 * @param clazz
+		 *            the class for that we are adding a field
+		 * @param field
+		 *            the name of the field that we should include
+		 * @return this builder
+		 */
+		public Builder includeFieldForClass(Class<?> clazz, String field) {
+			Set<String> includes = class2fieldIncludes.get(clazz);
+			if (includes == null) {
+				includes = new HashSet<>();
+				class2fieldIncludes.put(clazz, includes);
+			}
+			includes.add(field);
+			return this;
+		}
+
+		/**
+		 * Removes all the includes for the class.
+		 *
+		 * @param clazz
+		 *            the class for that we should remove all fields
+		 * @return this builder
+		 */
+		public Builder removeAllIncludesForClass(Class<?> clazz) {
+			class2fieldIncludes.remove(clazz);
+			return this;
+		}
+
+		/**
+		 * Adds a custom constructor generator for a specified class. It is
+		 * also used for the subclasses and implementations of the class that
+		 * have no generator of their own, see
+		 * {@link SerializerConfig#getConstructorGenerator(Class)}.
+		 *
+		 * @param clazz
+		 *            the class typically without not args constructors
+		 * @param function
+		 *            the function to use
+		 * @param <T>
+		 *            the class this constructor should be used for
+		 * @return this builder
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> Builder addCustomConstructorGenerator(Class<T> clazz,
+				Function<T, String> function) {
+			class2constructorGenerator.put(clazz,
+					(Function<Object, String>) function);
+			return this;
+		}
+
+		/**
+		 * Removes the custom constructor generator for the specified class.
+		 *
+		 * @param clazz
+		 *            the class for that we should remove the custom
+		 *            constructor
+		 * @return this builder
+		 */
+		public Builder removeCustomConstructorGenerator(Class<?> clazz) {
+			class2constructorGenerator.remove(clazz);
+			return this;
+		}
+
+		/**
+		 * Adds a processor to process classes before serializing. It is
+		 * called for every value including null, boxed values and Strings.
+		 *
+		 * @param f
+		 *            processor to add
+		 * @return this builder
+		 */
+		public Builder addProcessor(Function<Object, Object> f) {
+			return addProcessor(Object.class, f);
+		}
+
+		/**
+		 * Adds a processor that is only called for instances of the given
+		 * type, e.g. addProcessor(HibernateProxy.class, p -&gt;
+		 * p.getHibernateLazyInitializer().getImplementation()). The
+		 * processors of a class are looked up once, so values of all other
+		 * classes are not slowed down.
+		 *
+		 * @param type
+		 *            the class or interface of the processed objects
+		 * @param f
+		 *            processor to add
+		 * @param <T>
+		 *            the type of the processed objects
+		 * @return this builder
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> Builder addProcessor(Class<T> type,
+				Function<? super T, ?> f) {
+			processors.add(new Processor(type,
+					(Function<Object, Object>) f, processors.size()));
+			return this;
+		}
+
+		/**
+		 * Clear processors.
+		 *
+		 * @return this builder
+		 */
+		public Builder clearProcessor() {
+			processors.clear();
+			return this;
+		}
+
+		/**
+		 * Writes the items of root collections and maps that have more
+		 * items than the chunk size in parallel in the given pool. The
+		 * getters and processors must return the same objects when they are
+		 * called more than once and must be thread safe.
+		 *
+		 * @param pool
+		 *            the pool to use or null to write everything
+		 *            sequentially
+		 * @return this builder
+		 */
+		public Builder parallel(ForkJoinPool pool) {
+			this.parallelPool = pool;
+			return this;
+		}
+
+		/**
+		 * Sets the amount of items of a root collection or map that are
+		 * written by one task.
+		 *
+		 * @param chunkSize
+		 *            the amount of items, at least 1
+		 * @return this builder
+		 */
+		public Builder parallelChunkSize(int chunkSize) {
+			if (chunkSize < 1) {
+				throw new IllegalArgumentException(
+						"The chunk size must be at least 1 but was "
+								+ chunkSize);
+			}
+			this.parallelChunkSize = chunkSize;
+			return this;
+		}
+
+		/**
+		 * Sets the maximal amount of statements in one method of a class
+		 * written with
+		 * {@link Object2CodeObjectOutputStream#writeClass(Object, String)}.
+		 *
+		 * @param maxStatements
+		 *            the amount of statements, at least 1
+		 * @return this builder
+		 */
+		public Builder maxStatementsPerMethod(int maxStatements) {
+			if (maxStatements < 1) {
+				throw new IllegalArgumentException(
+						"The amount of statements must be at least 1 but was "
+								+ maxStatements);
+			}
+			this.maxStatementsPerMethod = maxStatements;
+			return this;
+		}
+
+		/**
+		 * Writes collections and maps compactly. The collections and maps of
+		 * the JDK whose int constructor takes the initial capacity, e.g.
+		 * ArrayList or HashMap, are created with their size. Runs of items
+		 * that need no own declaration, i.e. primitives, Strings, enums and
+		 * already written objects, are added with one addAll statement per
+		 * run e.g.
+		 *
+		 * list0.addAll(java.util.Arrays.asList(1, 2, 3));
+		 *
+		 * and runs of such entries are put with an array and a loop. Other
+		 * items are still added one by one. Large roots are not written in
+		 * parallel in this mode.
+		 *
+		 * @param compact
+		 *            true to write collections and maps compactly
+		 * @return this builder
+		 */
+		public Builder compactCollections(boolean compact) {
+			this.compactCollections = compact;
+			return this;
+		}
+
+		/**
+		 * Writes primitive arrays with at least the given amount of elements
+		 * Base64 encoded instead of as array literal. The elements are
+		 * decoded into the array when the generated code runs. This keeps
+		 * large arrays compact and below the size limits of methods and
+		 * constants. boolean arrays are always written as literals.
+		 *
+		 * @param minLength
+		 *            the minimal length of an encoded array or 0 to write all
+		 *            arrays as literals
+		 * @return this builder
+		 */
+		public Builder base64ArrayThreshold(int minLength) {
+			if (minLength < 0) {
+				throw new IllegalArgumentException(
+						"The length must not be negative but was "
+								+ minLength);
+			}
+			this.base64ArrayThreshold = minLength;
+			return this;
+		}
+
+		/**
+		 * Hoists repeated Strings, BigDecimals and boxed values into
+		 * constants. When a literal was written as often as the threshold it
+		 * is declared as constant, e.g.
+		 *
+		 * final java.lang.String STRING_0 = "EUR";
+		 *
+		 * and all later uses refer to the constant. In a class written with
+		 * {@link Object2CodeObjectOutputStream#writeClass(Object, String)}
+		 * the constants are static final fields. Large roots are not written
+		 * in parallel in this mode.
+		 *
+		 * @param threshold
+		 *            how often a literal is written before it is hoisted, at
+		 *            least 1, or 0 to use no constants
+		 * @return this builder
+		 */
+		public Builder constantThreshold(int threshold) {
+			if (threshold < 0) {
+				throw new IllegalArgumentException(
+						"The threshold must not be negative but was "
+								+ threshold);
+			}
+			this.constantThreshold = threshold;
+			return this;
+		}
+
+		/**
+		 * Skips the setters of properties whose values equal the values of a
+		 * freshly constructed instance. The defaults are read once per class
+		 * from a prototype that is created with the no-args constructor. Only
+		 * primitive values, Strings, boxed values, BigDecimals and enums are
+		 * compared.
+		 *
+		 * @param elide
+		 *            true to skip default values
+		 * @return this builder
+		 */
+		public Builder elideDefaults(boolean elide) {
+			this.elideDefaults = elide;
+			return this;
+		}
+
+		/**
+		 * Sets the listener that is notified about the work of the
+		 * serializer, e.g. a {@link SerializationStats}. Without a listener
+		 * nothing is measured.
+		 *
+		 * @param listener
+		 *            the thread safe listener or null
+		 * @return this builder
+		 */
+		public Builder listener(SerializationListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		/**
+		 * Limits the size, the amount of objects, the depth and the time of
+		 * every serialization. Objects that exceed the budget are written as
+		 * null /* truncated *&#47;. Large roots are not written in parallel
+		 * with a budget.
+		 *
+		 * @param budget
+		 *            the limits or null to write complete graphs
+		 * @return this builder
+		 */
+		public Builder budget(SerializationBudget budget) {
+			this.budget = budget;
+			return this;
+		}
+
+		/**
+		 * Reads the fields of beans instead of calling their getters, so
+		 * getters that compute values, load lazily or copy collections are
+		 * never called. All fields of the class and its super classes are
+		 * written except static and transient fields. A field is written
+		 * with its setter if it has one, otherwise it is assigned with
+		 * {@link FieldAccess#set(Object, Class, String, Object)}. The
+		 * includes of {@link #includeFieldForClass(Class, String)} are field
+		 * names in this mode.
+		 *
+		 * @param fieldAccess
+		 *            true to read fields
+		 * @return this builder
+		 */
+		public Builder fieldAccess(boolean fieldAccess) {
+			this.fieldAccess = fieldAccess;
+			return this;
+		}
+
+		/**
+		 * Sets the executor that writes the graphs captured by
+		 * {@link Object2CodeObjectOutputStream#writeObjectAsync(Object)} and
+		 * {@link Serialize#object2codeAsync(Object, SerializerConfig)}. If
+		 * the given amount of graphs is captured but not yet written, the
+		 * next capture waits. Without an executor one daemon thread per
+		 * processor writes at most
+		 * 64 pending graphs.
+		 *
+		 * @param executor
+		 *            the executor that writes the graphs
+		 * @param maxPending
+		 *            the maximal amount of pending graphs, at least 1
+		 * @return this builder
+		 */
+		public Builder renderExecutor(Executor executor, int maxPending) {
+			if (maxPending < 1) {
+				throw new IllegalArgumentException(
+						"The amount of pending graphs must be at least 1 but was "
+								+ maxPending);
+			}
+			this.renderQueue = new RenderQueue(executor, maxPending);
+			return this;
+		}
+
+		/**
+		 * Writes only the parts of the graph that the filter selects by their
+		 * paths from the root. Skipped properties are not read if their
+		 * declared type already decides it.
+		 *
+		 * @param pathFilter
+		 *            the filter or null to write complete graphs
+		 * @return this builder
+		 */
+		public Builder pathFilter(PathFilter pathFilter) {
+			this.pathFilter = pathFilter;
+			return this;
+		}
+
+		/**
+		 * Sets the detector of lazy associations that are not loaded. They
+		 * are not walked, so writing a graph of entities does not load them
+		 * from the database. By default the lazy collections and proxies of
+		 * Hibernate are recognized, see
+		 * {@link HibernateLazinessDetector#getDefault()}.
+		 *
+		 * @param lazinessDetector
+		 *            the detector or null to walk all values
+		 * @return this builder
+		 */
+		public Builder lazinessDetector(LazinessDetector lazinessDetector) {
+			this.lazinessDetector = lazinessDetector;
+			return this;
+		}
+
+		/**
+		 * @return the immutable configuration
+		 */
+		public SerializerConfig build() {
+			return new SerializerConfig(this);
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package de.incentergy.test;
+
+import java.beans.IntrospectionException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.incentergy.test.ClassPlan.Construction;
+import de.incentergy.test.ClassPlan.Kind;
+import de.incentergy.test.ClassPlan.PropertyPlan;
+
+/**
+ * Caches the code of object graphs by their content. Before a graph is
+ * written a cheap walk computes a 128 bit hash of its structure: the
+ * classes, the values of the properties, items, entries and elements and
+ * which objects are shared. No code is built for the hash. If the hash was
+ * seen before the earlier code is returned, so graphs that are written over
+ * and over, e.g. reference data, are only written once.
+ *
+ * SnapshotCache cache = new SnapshotCache(config, 1000, 10000000);
+ *
+ * String code = cache.object2code(countries);
+ *
+ * The cache is bounded by the amount of graphs and by the sum of the lengths
+ * of their code. The least recently used code is evicted first. The cache is
+ * thread safe. A listener of the configuration is only notified when a graph
+ * is written.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class SnapshotCache {
+
+	private static final Logger log = Logger
+			.getLogger(SnapshotCache.class.getName());
+
+	private static final long NULL = 0x6a09e667f3bcc908L;
+
+	private static final long NEW_OBJECT = 0xbb67ae8584caa73bL;
+
+	private static final long BACK_REFERENCE = 0x3c6ef372fe94f82bL;
+
+	private static final long PRUNED = 0xa54ff53a5f1d36f1L;
+
+	private static final long UNINITIALIZED = 0x1f83d9abfb41bd6bL;
+
+	private static final long NO_CONSTRUCTOR = 0x5be0cd19137e2179L;
+
+	/**
+	 * The hashes of the class names
+	 */
+	private static final ClassValue<Long> classHashes = new ClassValue<Long>() {
+		@Override
+		protected Long computeValue(Class<?> type) {
+			Hash hash = new Hash();
+			hash.add(type.getName());
+			return hash.h1 ^ hash.h2;
+		}
+	};
+
+	private final SerializerConfig config;
+
+	private final int maxEntries;
+
+	private final long maxChars;
+
+	/**
+	 * The code by the hash of the graph in the order of the last access
+	 */
+	private final LinkedHashMap<Hash, String> entries = new LinkedHashMap<>(
+			16, 0.75f, true);
+
+	private long chars;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param config
+	 *            the configuration the graphs are written with
+	 * @param maxEntries
+	 *            the maximal amount of cached graphs
+	 * @param maxChars
+	 *            the maximal sum of the lengths of the cached code
+	 */
+	public SnapshotCache(SerializerConfig config, int maxEntries,
+			long maxChars) {
+		if (maxEntries < 1 || maxChars < 1) {
+			throw new IllegalArgumentException(
+					"The cache must have room for at least one graph");
+		}
+		this.config = config;
+		this.maxEntries = maxEntries;
+		this.maxChars = maxChars;
+	}
+
+	/**
+	 * Returns the code of the graph, see
+	 * {@link Serialize#object2code(Object, SerializerConfig)}. The code is
+	 * taken from the cache if a graph with the same content was written
+	 * before.
+	 *
+	 * @param o
+	 *            the object to serialize
+	 * @return a string containing the java code for creating the object
+	 */
+	public String object2code(Object o) {
+		Hash hash;
+		try {
+			hash = hash(o);
+		} catch (IntrospectionException | ReflectiveOperationException
+				| RuntimeException e) {
+			log.log(Level.FINE, "Could not hash the graph", e);
+			misses.increment();
+			return Serialize.object2code(o, config);
+		}
+		synchronized (entries) {
+			String code = entries.get(hash);
+			if (code != null) {
+				hits.increment();
+				return code;
+			}
+		}
+		misses.increment();
+		String code = Serialize.object2code(o, config);
+		put(hash, code);
+		return code;
+	}
+
+	private void put(Hash hash, String code) {
+		if (code.length() > maxChars) {
+			return;
+		}
+		synchronized (entries) {
+			String previous = entries.put(hash, code);
+			if (previous != null) {
+				chars -= previous.length();
+			}
+			chars += code.length();
+			Iterator<String> eldest = entries.values().iterator();
+			while (entries.size() > maxEntries || chars > maxChars) {
+				chars -= eldest.next().length();
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * @return how often the code was taken from the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return how often a graph was written
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return how many graphs were evicted
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the amount of cached graphs
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return the sum of the lengths of the cached code
+	 */
+	public long getChars() {
+		synchronized (entries) {
+			return chars;
+		}
+	}
+
+	/**
+	 * Removes all graphs, the counters are kept.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			chars = 0;
+		}
+	}
+
+	/**
+	 * Walks the graph in the order of discovery and hashes every value.
+	 * Objects are numbered when they are discovered, a shared object is
+	 * hashed as reference to its number. So two graphs with the same hash
+	 * are equal up to the identity of their objects, except for hash
+	 * collisions. Values that the path filter skips are hashed as skipped
+	 * and not read.
+	 */
+	private Hash hash(Object root) throws IntrospectionException,
+			ReflectiveOperationException {
+		PathFilter pathFilter = config.getPathFilter();
+		return new Walk(pathFilter).run(root,
+				pathFilter != null ? pathFilter.start() : null);
+	}
+
+	/**
+	 * The state of one walk over a graph.
+	 */
+	private final class Walk {
+		private final Hash hash = new Hash();
+		private final Map<Object, Integer> numbers = new IdentityHashMap<>();
+		private final Deque<Object> pending = new ArrayDeque<>();
+		/**
+		 * The states of the path filter for the content of the queued
+		 * objects or null if nothing is filtered
+		 */
+		private final Map<Object, PathFilter.State> paths;
+
+		Walk(PathFilter pathFilter) {
+			this.paths = pathFilter != null ? new IdentityHashMap<>() : null;
+		}
+
+		Hash run(Object root, PathFilter.State start)
+				throws IntrospectionException, ReflectiveOperationException {
+			// the root is always written
+			accepted(config.process(root), start);
+			while (!pending.isEmpty()) {
+				Object o = pending.poll();
+				PathFilter.State path = paths != null ? paths.get(o) : null;
+				PathFilter.State elements = path != null ? path.element()
+						: null;
+				Class<?> clazz = o.getClass();
+				ClassPlan plan = config.getPlan(clazz);
+				switch (plan.getKind()) {
+				case COLLECTION:
+					Collection<?> collection = (Collection<?>) o;
+					hash.add(collection.size());
+					for (Object item : collection) {
+						value(item, elements);
+					}
+					break;
+				case MAP:
+					Map<?, ?> map = (Map<?, ?>) o;
+					hash.add(map.size());
+					PathFilter.State keys = path != null ? path.key() : null;
+					for (Entry<?, ?> entry : map.entrySet()) {
+						value(entry.getKey(), keys);
+						value(entry.getValue(), elements);
+					}
+					break;
+				case ARRAY:
+					array(o, elements);
+					break;
+				default:
+					if (plan.getConstruction() == Construction.GENERATOR) {
+						hash.add(plan.getConstructorGenerator().apply(o));
+						break;
+					} else if (plan
+							.getConstruction() == Construction.NONE) {
+						// the writer writes null without reading the
+						// properties
+						hash.add(NO_CONSTRUCTOR);
+						break;
+					}
+					List<PropertyPlan> properties = plan.getProperties(false);
+					for (PropertyPlan property : properties) {
+						PathFilter.State propertyPath = path != null
+								? path.property(property.getName())
+								: null;
+						if (propertyPath != null
+								&& propertyPath.prunes(property.getType())) {
+							hash.add(PRUNED);
+						} else if (property.getKind() != Kind.PRIMITIVE) {
+							value(property.getAccessor().get(o), propertyPath);
+						} else if (propertyPath == null || propertyPath
+								.accept(property.getType()) != null) {
+							hash.add(property.getPrimitive(o));
+						} else {
+							hash.add(PRUNED);
+						}
+					}
+					break;
+				}
+			}
+			return hash;
+		}
+
+		/**
+		 * Hashes a value directly or numbers a new object and queues it.
+		 */
+		private void value(Object o, PathFilter.State path) {
+			o = config.process(o);
+			if (path != null) {
+				path = path.accept(o == null ? null : o.getClass());
+				if (path == null) {
+					hash.add(PRUNED);
+					return;
+				}
+			}
+			accepted(o, path);
+		}
+
+		/**
+		 * Hashes a processed value that the path filter accepted.
+		 */
+		private void accepted(Object o, PathFilter.State path) {
+			if (o == null) {
+				hash.add(NULL);
+				return;
+			}
+			if (config.isUninitialized(o)) {
+				// the content is not read, so it is not loaded
+				hash.add(UNINITIALIZED);
+				return;
+			}
+			Class<?> clazz = o.getClass();
+			hash.add(classHashes.get(clazz));
+			switch (config.getPlan(clazz).getKind()) {
+			case PRIMITIVE:
+				if (o instanceof Double || o instanceof Float) {
+					hash.add(Double
+							.doubleToLongBits(((Number) o).doubleValue()));
+				} else if (o instanceof BigDecimal) {
+					// the complete value as it is written
+					hash.add(((BigDecimal) o).toString());
+				} else if (o instanceof Number) {
+					hash.add(((Number) o).longValue());
+				} else if (o instanceof Character) {
+					hash.add((Character) o);
+				} else {
+					hash.add((Boolean) o ? 1 : 0);
+				}
+				return;
+			case STRING:
+				hash.add((String) o);
+				return;
+			case ENUM:
+				hash.add(((Enum<?>) o).ordinal());
+				return;
+			default:
+				break;
+			}
+			Integer number = numbers.get(o);
+			if (number != null) {
+				hash.add(BACK_REFERENCE);
+				hash.add(number);
+				return;
+			}
+			numbers.put(o, numbers.size());
+			hash.add(NEW_OBJECT);
+			pending.add(o);
+			if (paths != null) {
+				paths.put(o, path);
+			}
+		}
+
+		/**
+		 * Hashes the elements of an array, primitive elements are not boxed.
+		 */
+		private void array(Object array, PathFilter.State elements) {
+			if (array instanceof Object[]) {
+				Object[] a = (Object[]) array;
+				hash.add(a.length);
+				for (Object element : a) {
+					value(element, elements);
+				}
+			} else if (array instanceof int[]) {
+				int[] a = (int[]) array;
+				hash.add(a.length);
+				for (int element : a) {
+					hash.add(element);
+				}
+			} else if (array instanceof long[]) {
+				long[] a = (long[]) array;
+				hash.add(a.length);
+				for (long element : a) {
+					hash.add(element);
+				}
+			} else if (array instanceof byte[]) {
+				byte[] a = (byte[]) array;
+				hash.add(a.length);
+				for (byte element : a) {
+					hash.add(element);
+				}
+			} else if (array instanceof short[]) {
+				short[] a = (short[]) array;
+				hash.add(a.length);
+				for (short element : a) {
+					hash.add(element);
+				}
+			} else if (array instanceof char[]) {
+				char[] a = (char[]) array;
+				hash.add(a.length);
+				for (char element : a) {
+					hash.add(element);
+				}
+			} else if (array instanceof double[]) {
+				double[] a = (double[]) array;
+				hash.add(a.length);
+				for (double element : a) {
+					hash.add(Double.doubleToLongBits(element));
+				}
+			} else if (array instanceof float[]) {
+				float[] a = (float[]) array;
+				hash.add(a.length);
+				for (float element : a) {
+					hash.add(Float.floatToIntBits(element));
+				}
+			} else {
+				boolean[] a = (boolean[]) array;
+				hash.add(a.length);
+				for (boolean element : a) {
+					hash.add(element ? 1 : 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Two independent 64 bit hashes that are used as the key of the cache.
+	 */
+	private static final class Hash {
+		private long h1 = 0x510e527fade682d1L;
+		private long h2 = 0x9b05688c2b3e6c1fL;
+
+		void add(long value) {
+			h1 = (h1 ^ value) * 0x9e3779b97f4a7c15L;
+			h1 ^= h1 >>> 29;
+			h2 = Long.rotateLeft(h2 + value * 0xc2b2ae3d27d4eb4fL, 31)
+					* 0x165667b19e3779f9L;
+		}
+
+		void add(String s) {
+			add(s.length());
+			for (int i = 0; i < s.length(); i++) {
+				add(s.charAt(i));
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (h1 ^ (h1 >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Hash)) {
+				return false;
+			}
+			Hash other = (Hash) obj;
+			return h1 == other.h1 && h2 == other.h2;
+		}
+	}
+}
@@ -0,0 +1,476 @@
+package de.incentergy.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles classes written with
+ * {@link Object2CodeObjectOutputStream#writeClass(Object, String)} in memory
+ * and loads them in their own class loader. The byte code of the most
+ * recently used sources is cached in memory, keyed by the SHA-256 hash of the
+ * source, so an identical snapshot is compiled only once. A compiler with a cache directory also keeps the
+ * byte code on disk for other JVMs. The directory is created readable only
+ * by its owner and a cached class is only loaded if the directory and the
+ * file belong to the current user and nobody else can write them.
+ *
+ * The generated code is compiled against the class path of the JVM, see
+ * the system property java.class.path, and loaded with the class loader of
+ * the root of the graph as parent.
+ *
+ * Compiling needs the JDK, on a plain JRE there is no
+ * {@link ToolProvider#getSystemJavaCompiler()}.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class SnapshotCompiler {
+
+	private static final Logger log = Logger
+			.getLogger(SnapshotCompiler.class.getName());
+
+	/**
+	 * The default amount of classes that are kept in memory
+	 */
+	public static final int DEFAULT_MAX_CLASSES = 64;
+
+	private static final SnapshotCompiler defaultCompiler = new SnapshotCompiler(
+			null);
+
+	/**
+	 * The permissions of the cache directory on POSIX file systems
+	 */
+	private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions
+			.fromString("rwx------");
+
+	/**
+	 * The directory of the cache on disk or null
+	 */
+	private final Path cacheDirectory;
+
+	private final int maxClasses;
+
+	/**
+	 * The compiled classes by the hash of their source in the order of the
+	 * last access. Every entry keeps its class loader alive, so the least
+	 * recently used ones are dropped, the cache on disk still has them.
+	 */
+	private final LinkedHashMap<String, Compiled> compiled = new LinkedHashMap<>(
+			16, 0.75f, true);
+
+	/**
+	 * Creates a compiler with its own cache that keeps
+	 * {@link #DEFAULT_MAX_CLASSES} classes in memory.
+	 *
+	 * @param cacheDirectory
+	 *            the directory for the compiled classes or null to cache
+	 *            them only in memory, it is created readable only by the
+	 *            current user
+	 */
+	public SnapshotCompiler(Path cacheDirectory) {
+		this(cacheDirectory, DEFAULT_MAX_CLASSES);
+	}
+
+	/**
+	 * Creates a compiler with its own cache.
+	 *
+	 * @param cacheDirectory
+	 *            the directory for the compiled classes or null to cache
+	 *            them only in memory, it is created readable only by the
+	 *            current user
+	 * @param maxClasses
+	 *            the maximal amount of classes that are kept in memory
+	 */
+	public SnapshotCompiler(Path cacheDirectory, int maxClasses) {
+		if (maxClasses < 1) {
+			throw new IllegalArgumentException(
+					"The cache must have room for at least one class");
+		}
+		this.cacheDirectory = cacheDirectory;
+		this.maxClasses = maxClasses;
+	}
+
+	/**
+	 * @return the shared compiler that keeps the last
+	 *         {@link #DEFAULT_MAX_CLASSES} classes only in memory
+	 */
+	public static SnapshotCompiler getDefault() {
+		return defaultCompiler;
+	}
+
+	/**
+	 * Compiles and loads a class written with
+	 * {@link Object2CodeObjectOutputStream#writeClass(Object, String)} and
+	 * returns a supplier that calls its build() method. Every call of the
+	 * supplier builds a new graph.
+	 *
+	 * @param className
+	 *            the fully qualified name of the class
+	 * @param source
+	 *            the source of the class
+	 * @param parent
+	 *            the class loader that knows the classes of the graph
+	 * @return the supplier of the rebuilt graph
+	 */
+	public Supplier<Object> compile(String className, String source,
+			ClassLoader parent) {
+		Class<?> clazz = load(className, source, parent);
+		return () -> {
+			// build() assigns static fields
+			synchronized (clazz) {
+				try {
+					return clazz.getMethod("build").invoke(null);
+				} catch (ReflectiveOperationException e) {
+					log.log(Level.WARNING, "Exception was thrown", e);
+					throw new RuntimeException(
+							"Could not build the object with " + className
+									+ ". Please see the warnings in the log.");
+				}
+			}
+		};
+	}
+
+	/**
+	 * Compiles a class or takes it from the cache and loads it.
+	 *
+	 * @param className
+	 *            the fully qualified name of the class
+	 * @param source
+	 *            the source of the class
+	 * @param parent
+	 *            the class loader that knows the classes of the graph
+	 * @return the loaded class
+	 */
+	Class<?> load(String className, String source, ClassLoader parent) {
+		String hash = hash(source);
+		Compiled c;
+		synchronized (compiled) {
+			c = compiled.get(hash);
+			if (c == null) {
+				c = new Compiled();
+				compiled.put(hash, c);
+				Iterator<Compiled> eldest = compiled.values().iterator();
+				while (compiled.size() > maxClasses) {
+					eldest.next();
+					eldest.remove();
+				}
+			}
+		}
+		synchronized (c) {
+			if (c.classes == null) {
+				c.classes = readCache(hash, className);
+			}
+			if (c.classes == null) {
+				c.classes = compile(className, source);
+				writeCache(hash, className, c.classes);
+			}
+			if (c.clazz == null || c.parent != parent) {
+				try {
+					c.clazz = new SnapshotClassLoader(parent, c.classes)
+							.loadClass(className);
+					c.parent = parent;
+				} catch (ClassNotFoundException e) {
+					log.log(Level.WARNING, "Exception was thrown", e);
+					throw new RuntimeException("Could not load " + className
+							+ ". Please see the warnings in the log.");
+				}
+			}
+			return c.clazz;
+		}
+	}
+
+	/**
+	 * @return the amount of different sources that are cached in memory
+	 */
+	public int getCachedClassCount() {
+		synchronized (compiled) {
+			return compiled.size();
+		}
+	}
+
+	/**
+	 * Clears the cache in memory. The cache on disk is kept.
+	 */
+	public void clear() {
+		synchronized (compiled) {
+			compiled.clear();
+		}
+	}
+
+	private static String hash(String source) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+					.digest(source.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+						.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Compiles the source in memory.
+	 *
+	 * @return the byte code of all classes by their binary names
+	 */
+	private static Map<String, byte[]> compile(String className,
+			String source) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new IllegalStateException(
+					"There is no Java compiler, the JVM has to be a JDK.");
+		}
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		Map<String, ByteArrayOutputStream> outputs = new HashMap<>();
+		try (StandardJavaFileManager standardFileManager = compiler
+				.getStandardFileManager(diagnostics, null,
+						StandardCharsets.UTF_8);
+				JavaFileManager fileManager = new MemoryFileManager(
+						standardFileManager, outputs)) {
+			JavaFileObject file = new SourceFile(className, source);
+			boolean success = compiler.getTask(null, fileManager, diagnostics,
+					Arrays.asList("-classpath",
+							System.getProperty("java.class.path"),
+							"-proc:none"),
+					null, Collections.singletonList(file)).call();
+			if (!success) {
+				log.warning("Could not compile " + className + ": "
+						+ diagnostics.getDiagnostics());
+				throw new RuntimeException("Could not compile " + className
+						+ ". Please see the warnings in the log.");
+			}
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Exception was thrown", e);
+			throw new RuntimeException("Could not compile " + className
+					+ ". Please see the warnings in the log.");
+		}
+		Map<String, byte[]> classes = new HashMap<>();
+		for (Map.Entry<String, ByteArrayOutputStream> entry : outputs
+				.entrySet()) {
+			classes.put(entry.getKey(), entry.getValue().toByteArray());
+		}
+		return classes;
+	}
+
+	/**
+	 * Reads the byte code from the cache on disk. Only the class itself is
+	 * cached on disk because written classes have no nested classes.
+	 *
+	 * @return the byte code or null if it is not cached
+	 */
+	private Map<String, byte[]> readCache(String hash, String className) {
+		if (cacheDirectory == null) {
+			return null;
+		}
+		Path file = cacheDirectory.resolve(hash + ".class");
+		if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+			return null;
+		}
+		try {
+			if (!isPrivate(cacheDirectory) || !isPrivate(file)) {
+				log.warning("Ignoring " + file
+						+ " because it does not belong to the current user or others can write it.");
+				return null;
+			}
+			return Collections.singletonMap(className,
+					Files.readAllBytes(file));
+		} catch (IOException e) {
+			log.log(Level.FINE, "Could not read " + file, e);
+			return null;
+		}
+	}
+
+	private void writeCache(String hash, String className,
+			Map<String, byte[]> classes) {
+		byte[] bytes = classes.get(className);
+		if (cacheDirectory == null || bytes == null || classes.size() != 1) {
+			return;
+		}
+		try {
+			createPrivateDirectory();
+			Path temp = Files.createTempFile(cacheDirectory, hash, ".tmp");
+			Files.write(temp, bytes);
+			// other JVMs see the file either complete or not at all
+			Files.move(temp, cacheDirectory.resolve(hash + ".class"),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not cache " + className, e);
+		}
+	}
+
+	/**
+	 * Creates the cache directory so that only its owner can read and write
+	 * it.
+	 */
+	private void createPrivateDirectory() throws IOException {
+		if (Files.isDirectory(cacheDirectory, LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		Path parent = cacheDirectory.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		if (cacheDirectory.getFileSystem().supportedFileAttributeViews()
+				.contains("posix")) {
+			try {
+				Files.createDirectory(cacheDirectory,
+						PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+			} catch (FileAlreadyExistsException e) {
+				// created concurrently, it is checked before it is read
+			}
+		} else {
+			Files.createDirectories(cacheDirectory);
+		}
+	}
+
+	/**
+	 * Checks that a file belongs to the current user and that no other user
+	 * can write it. Symbolic links are not followed.
+	 */
+	private static boolean isPrivate(Path path) throws IOException {
+		UserPrincipal user = path.getFileSystem()
+				.getUserPrincipalLookupService()
+				.lookupPrincipalByName(System.getProperty("user.name"));
+		if (!user.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS))) {
+			return false;
+		}
+		if (!path.getFileSystem().supportedFileAttributeViews()
+				.contains("posix")) {
+			return true;
+		}
+		Set<PosixFilePermission> permissions = Files
+				.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+		return !permissions.contains(PosixFilePermission.GROUP_WRITE)
+				&& !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+	}
+
+	/**
+	 * The cached byte code of a source and the class that was loaded last.
+	 */
+	private static final class Compiled {
+		private Map<String, byte[]> classes;
+		private ClassLoader parent;
+		private Class<?> clazz;
+	}
+
+	/**
+	 * A source that is kept in memory.
+	 */
+	private static final class SourceFile extends SimpleJavaFileObject {
+		private final String source;
+
+		SourceFile(String className, String source) {
+			super(URI.create("string:///" + className.replace('.', '/')
+					+ Kind.SOURCE.extension), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	/**
+	 * A class file that is kept in memory.
+	 */
+	private static final class ClassFile extends SimpleJavaFileObject {
+		private final ByteArrayOutputStream bytes;
+
+		ClassFile(String className, ByteArrayOutputStream bytes) {
+			super(URI.create("bytes:///" + className.replace('.', '/')
+					+ Kind.CLASS.extension), Kind.CLASS);
+			this.bytes = bytes;
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Writes the compiled classes into memory.
+	 */
+	private static final class MemoryFileManager
+			extends ForwardingJavaFileManager<JavaFileManager> {
+		private final Map<String, ByteArrayOutputStream> outputs;
+
+		MemoryFileManager(JavaFileManager fileManager,
+				Map<String, ByteArrayOutputStream> outputs) {
+			super(fileManager);
+			this.outputs = outputs;
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location,
+				String className, Kind kind, FileObject sibling) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			outputs.put(className, bytes);
+			return new ClassFile(className, bytes);
+		}
+	}
+
+	/**
+	 * Defines the compiled classes. All other classes are loaded by the
+	 * parent.
+	 */
+	private static final class SnapshotClassLoader extends ClassLoader {
+		private final Map<String, byte[]> classes;
+
+		SnapshotClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+			super(parent);
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> findClass(String name)
+				throws ClassNotFoundException {
+			byte[] bytes = classes.get(name);
+			if (bytes == null) {
+				throw new ClassNotFoundException(name);
+			}
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package de.incentergy.test;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.incentergy.test.SerializationBudget.Limit;
+
+/**
+ * Reports what was cut from a serialization because a
+ * {@link SerializationBudget} was exceeded.
+ *
+ * @author <a href="mailto:manuel.blechschmidt@incentergy.de">Manuel
+ *         Blechschmidt</a>
+ *
+ */
+public final class Truncation {
+
+	private final Set<Limit> exceeded = EnumSet.noneOf(Limit.class);
+
+	private final Map<String, Long> truncatedObjects = new TreeMap<>();
+
+	private final Map<String, Long> incompleteObjects = new TreeMap<>();
+
+	/**
+	 * Records that a limit was exceeded.
+	 */
+	void exceed(Limit limit) {
+		exceeded.add(limit);
+	}
+
+	/**
+	 * Records an object that was written as null.
+	 */
+	void truncate(Class<?> clazz) {
+		truncatedObjects.merge(clazz.getName(), 1L, Long::sum);
+	}
+
+	/**
+	 * Records an object whose content was not written completely.
+	 */
+	void leaveIncomplete(Class<?> clazz) {
+		incompleteObjects.merge(clazz.getName(), 1L, Long::sum);
+	}
+
+	/**
+	 * @return true if anything was cut
+	 */
+	public boolean isTruncated() {
+		return !exceeded.isEmpty();
+	}
+
+	/**
+	 * @return the limits that were exceeded
+	 */
+	public Set<Limit> getExceeded() {
+		return Collections.unmodifiableSet(exceeded);
+	}
+
+	/**
+	 * @return the amount of objects that were written as null per class
+	 */
+	public Map<String, Long> getTruncatedObjects() {
+		return Collections.unmodifiableMap(truncatedObjects);
+	}
+
+	/**
+	 * @return the amount of beans, collections, maps and arrays per class
+	 *         whose properties, items or elements were not written completely
+	 */
+	public Map<String, Long> getIncompleteObjects() {
+		return Collections.unmodifiableMap(incompleteObjects);
+	}
+
+	@Override
+	public String toString() {
+		return "Truncation [exceeded=" + exceeded + ", truncatedObjects="
+				+ truncatedObjects + ", incompleteObjects="
+				+ incompleteObjects + "]";
+	}
+}
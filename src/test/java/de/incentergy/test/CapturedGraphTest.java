@@ -0,0 +1,78 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CapturedGraphTest {
+
+	private static List<Object> newGraph() {
+		TestBean testBean = new TestBean();
+		testBean.setMyInt(5);
+		testBean.setMyString("a");
+		testBean.setMyBigDecimal(new BigDecimal("2.5"));
+		testBean.setMyEnum(TestBean.MyEnum.MY_ENUM_VALUE);
+		testBean.setMyString2TestBeanMap(new LinkedHashMap<>());
+		testBean.getMyString2TestBeanMap().put("self", testBean);
+		List<Object> list = new ArrayList<>();
+		list.add(testBean);
+		list.add(new int[] { 1, 2 });
+		list.add(new Object[] { "b", null, list });
+		list.add(testBean);
+		return list;
+	}
+
+	@Test
+	public void testToCode() {
+		List<Object> list = newGraph();
+		SerializerConfig config = SerializerConfig.builder()
+				.compactCollections(true).build();
+		String expected = Serialize.object2code(list, config);
+
+		CapturedGraph graph = CapturedGraph.capture(list, config);
+		list.clear();
+		assertEquals(4, graph.getNodeCount());
+		assertEquals(expected, graph.toCode(config));
+		assertEquals(expected, graph.toCode(config));
+		assertEquals(expected.length(), graph.getCodeLength(config));
+		assertEquals("5", CapturedGraph.capture(5, config).toCode(config));
+	}
+
+	@Test
+	public void testSerialize() throws Exception {
+		List<Object> list = newGraph();
+		SerializerConfig config = SerializerConfig.builder().build();
+		CapturedGraph graph = CapturedGraph.capture(list, config);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(graph);
+		}
+		CapturedGraph copy;
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()))) {
+			copy = (CapturedGraph) in.readObject();
+		}
+		assertEquals(Serialize.object2code(list, config), copy.toCode(config));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentProperties() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("a", new TestLinkedBean());
+		CapturedGraph graph = CapturedGraph.capture(map,
+				SerializerConfig.builder().build());
+		graph.toCode(SerializerConfig.builder()
+				.includeFieldForClass(TestLinkedBean.class, "value").build());
+	}
+}
@@ -0,0 +1,50 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CodeWriterTest {
+
+	@Test
+	public void testEncodeWithSmallThreshold() throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		// the surrogate pair of the emoji is split by the buffer boundary
+		String code = "String s0 = \"Grüße 😀\";\n";
+		try (CodeWriter codeWriter = new CodeWriter(byteArrayOutputStream,
+				StandardCharsets.UTF_8, 19)) {
+			codeWriter.append(code).append(-1234567890).append(' ')
+					.append(Integer.MIN_VALUE);
+		}
+		assertEquals(code + "-1234567890 " + Integer.MIN_VALUE,
+				new String(byteArrayOutputStream.toByteArray(),
+						StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testDrainOnlyAtThreshold() throws IOException {
+		StringWriter stringWriter = new StringWriter();
+		CodeWriter codeWriter = new CodeWriter(stringWriter, 16);
+		codeWriter.append("0123456789");
+		assertEquals("", stringWriter.toString());
+		codeWriter.append("0123456789");
+		assertEquals("0123456789012345", stringWriter.toString());
+		codeWriter.drain();
+		assertEquals("01234567890123456789", stringWriter.toString());
+	}
+
+	@Test
+	public void testWriteToAppendable() throws IOException {
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code)) {
+			object2CodeObjectOutputStream.writeObject("Grüße");
+			assertEquals("\"Grüße\"", code.toString());
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HibernateLazinessDetectorTest {
+
+	public interface FakePersistentCollection {
+		boolean wasInitialized();
+	}
+
+	public interface FakeLazyInitializer {
+		boolean isUninitialized();
+	}
+
+	public interface FakeProxy {
+		FakeLazyInitializer getHibernateLazyInitializer();
+	}
+
+	/**
+	 * A lazy list that fails if it is read before it is loaded.
+	 */
+	public static class FakeLazyList extends AbstractList<String>
+			implements FakePersistentCollection {
+		private final List<String> items;
+		private boolean initialized;
+
+		FakeLazyList(String... items) {
+			this.items = Arrays.asList(items);
+		}
+
+		@Override
+		public boolean wasInitialized() {
+			return initialized;
+		}
+
+		private void check() {
+			if (!initialized) {
+				throw new IllegalStateException("lazy loading");
+			}
+		}
+
+		@Override
+		public String get(int index) {
+			check();
+			return items.get(index);
+		}
+
+		@Override
+		public int size() {
+			check();
+			return items.size();
+		}
+	}
+
+	/**
+	 * A proxy that fails if a getter is called.
+	 */
+	public static class FakeLinkedBeanProxy extends TestLinkedBean
+			implements FakeProxy {
+		@Override
+		public FakeLazyInitializer getHibernateLazyInitializer() {
+			return () -> true;
+		}
+
+		@Override
+		public int getValue() {
+			throw new IllegalStateException("lazy loading");
+		}
+
+		@Override
+		public TestLinkedBean getNext() {
+			throw new IllegalStateException("lazy loading");
+		}
+	}
+
+	private static SerializerConfig config() {
+		return SerializerConfig.builder()
+				.lazinessDetector(new HibernateLazinessDetector(
+						Collections
+								.singleton(FakePersistentCollection.class.getName()),
+						Collections.singleton(FakeProxy.class.getName())))
+				.build();
+	}
+
+	@Test
+	public void testUninitializedCollection() {
+		FakeLazyList lazyList = new FakeLazyList("a");
+		TestBean testBean = new TestBean();
+		testBean.setMyStringCollection(lazyList);
+		SerializerConfig config = config();
+
+		String code = Serialize.object2code(testBean, config);
+		assertFalse(code.contains("setMyStringCollection"));
+		assertEquals(code,
+				CapturedGraph.capture(testBean, config).toCode(config));
+		assertEquals(code,
+				new SnapshotCache(config, 10, 100000).object2code(testBean));
+
+		lazyList.initialized = true;
+		code = Serialize.object2code(testBean, config);
+		assertTrue(code.contains("setMyStringCollection"));
+		assertTrue(code.contains(".add(\"a\");"));
+	}
+
+	@Test
+	public void testUninitializedProxy() {
+		TestLinkedBean bean = new TestLinkedBean();
+		bean.setNext(new FakeLinkedBeanProxy());
+		List<Object> list = new ArrayList<>();
+		list.add(bean);
+		list.add(bean.getNext());
+		SerializerConfig config = config();
+
+		String code = Serialize.object2code(list, config);
+		assertFalse(code.contains("setNext"));
+		assertTrue(code.contains(
+				"arrayList0.add(" + ObjectGraphWriter.UNINITIALIZED + ");"));
+		assertEquals(code,
+				CapturedGraph.capture(list, config).toCode(config));
+	}
+
+	@Test
+	public void testDefault() {
+		HibernateLazinessDetector detector = HibernateLazinessDetector
+				.getDefault();
+		assertFalse(detector.isUninitialized(new ArrayList<>()));
+		assertFalse(detector.isUninitialized(new FakeLazyList()));
+		assertTrue(SerializerConfig.builder().build()
+				.getLazinessDetector() == detector);
+	}
+}
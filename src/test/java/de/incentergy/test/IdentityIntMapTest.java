@@ -0,0 +1,37 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class IdentityIntMapTest {
+
+	@Test
+	public void testPutAndGetByIdentity() {
+		IdentityIntMap map = new IdentityIntMap();
+		String a = new String("a");
+		String equalToA = new String("a");
+		assertEquals(IdentityIntMap.MISSING, map.put(a, 1));
+		assertEquals(1, map.get(a));
+		assertEquals(IdentityIntMap.MISSING, map.get(equalToA));
+		assertEquals(1, map.put(a, 2));
+		assertEquals(2, map.get(a));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testResize() {
+		IdentityIntMap map = new IdentityIntMap();
+		Object[] objects = new Object[100000];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = new Object();
+			map.put(objects[i], i);
+		}
+		assertEquals(objects.length, map.size());
+		for (int i = 0; i < objects.length; i++) {
+			assertEquals(i, map.get(objects[i]));
+		}
+		map.clear();
+		assertEquals(IdentityIntMap.MISSING, map.get(objects[0]));
+	}
+}
@@ -1,17 +1,27 @@
 package de.incentergy.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import de.incentergy.test.TestBean.MyInnerClass;
@@ -32,6 +42,23 @@ public class Object2CodeObjectOutputStreamTest {
 		}
 	}
 
+	@Test
+	public void testWritePrintStream() {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				new PrintStream(byteArrayOutputStream))) {
+			object2CodeObjectOutputStream.writeObject(5);
+		}
+		assertEquals("5", byteArrayOutputStream.toString());
+		byteArrayOutputStream.reset();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				new PrintStream(byteArrayOutputStream),
+				SerializerConfig.builder().build())) {
+			object2CodeObjectOutputStream.writeObject(6);
+		}
+		assertEquals("6", byteArrayOutputStream.toString());
+	}
+
 	@Test
 	public void testWriteList() throws SecurityException, IOException {
 		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
@@ -99,7 +126,7 @@ public class Object2CodeObjectOutputStreamTest {
 			// log.info(code);
 			assertEquals(
 					"de.incentergy.test.TestBean testBean0 = new de.incentergy.test.TestBean();\n"
-							+ "testBean0.setMyBigDecimal(new BigDecimal(\"123.4567890123\"));\n"
+							+ "testBean0.setMyBigDecimal(new java.math.BigDecimal(\"123.4567890123\"));\n"
 							+ "testBean0.setMyBoolean(true);\n"
 							+ "testBean0.setMyByte((byte) 82);\n"
 							+ "testBean0.setMyChar('k');\n"
@@ -187,4 +214,586 @@ public class Object2CodeObjectOutputStreamTest {
 			assertEquals("1", code);
 		}
 	}
+
+	@Test
+	public void testWriteObjectWithIncludes()
+			throws SecurityException, IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				byteArrayOutputStream)) {
+			MyInnerClass myInnerClass = new MyInnerClass();
+			myInnerClass.setValue("Inner String");
+
+			// the plan of the class is cached by the first write
+			object2CodeObjectOutputStream.writeObject(myInnerClass);
+			byteArrayOutputStream.reset();
+
+			Object2CodeObjectOutputStream.includeFieldForClass(
+					MyInnerClass.class, "otherValue");
+			object2CodeObjectOutputStream.writeObject(myInnerClass);
+			assertEquals("de.incentergy.test.TestBean.MyInnerClass myInnerClass0 = new de.incentergy.test.TestBean.MyInnerClass();\n",
+					byteArrayOutputStream.toString());
+
+			Object2CodeObjectOutputStream
+					.removeAllIncludesForClass(MyInnerClass.class);
+			byteArrayOutputStream.reset();
+			object2CodeObjectOutputStream.writeObject(myInnerClass);
+			assertEquals("de.incentergy.test.TestBean.MyInnerClass myInnerClass0 = new de.incentergy.test.TestBean.MyInnerClass();\n"
+					+ "myInnerClass0.setValue(\"Inner String\");\n",
+					byteArrayOutputStream.toString());
+		}
+	}
+
+	@Test
+	public void testWriteNestedList() throws SecurityException, IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				byteArrayOutputStream)) {
+			List<Object> outer = new ArrayList<>();
+			List<Object> inner = new ArrayList<>();
+			inner.add(null);
+			outer.add(inner);
+			outer.add(inner);
+			object2CodeObjectOutputStream.writeObject(outer);
+			assertEquals("java.util.ArrayList arrayList0 = new java.util.ArrayList();\n"
+					+ "java.util.ArrayList arrayList1 = new java.util.ArrayList();\n"
+					+ "arrayList1.add(null);\n"
+					+ "arrayList0.add(arrayList1);\n"
+					+ "arrayList0.add(arrayList1);\n",
+					byteArrayOutputStream.toString());
+		}
+	}
+
+	@Test
+	public void testWriteDeepGraph() throws SecurityException, IOException {
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code)) {
+			// deep enough to overflow the stack with recursion
+			TestLinkedBean root = new TestLinkedBean();
+			TestLinkedBean current = root;
+			for (int i = 1; i < 200000; i++) {
+				TestLinkedBean next = new TestLinkedBean();
+				next.setValue(i);
+				current.setNext(next);
+				current = next;
+			}
+			object2CodeObjectOutputStream.writeObject(root);
+			assertTrue(code.toString().startsWith(
+					"de.incentergy.test.TestLinkedBean testLinkedBean0 = new de.incentergy.test.TestLinkedBean();\n"
+							+ "de.incentergy.test.TestLinkedBean testLinkedBean1 = new de.incentergy.test.TestLinkedBean();\n"));
+			assertTrue(code.toString()
+					.endsWith("testLinkedBean0.setNext(testLinkedBean1);\n"
+							+ "testLinkedBean0.setValue(0);\n"));
+		}
+	}
+
+	@Test
+	public void testWriteEqualButDistinctObjects()
+			throws SecurityException, IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				byteArrayOutputStream)) {
+			List<Object> list = new ArrayList<>();
+			list.add(new ArrayList<>());
+			list.add(new ArrayList<>());
+			object2CodeObjectOutputStream.writeObject(list);
+			assertEquals("java.util.ArrayList arrayList0 = new java.util.ArrayList();\n"
+					+ "java.util.ArrayList arrayList1 = new java.util.ArrayList();\n"
+					+ "arrayList0.add(arrayList1);\n"
+					+ "java.util.ArrayList arrayList2 = new java.util.ArrayList();\n"
+					+ "arrayList0.add(arrayList2);\n",
+					byteArrayOutputStream.toString());
+		}
+	}
+
+	@Test
+	public void testWriteListInParallel() {
+		List<Object> list = new ArrayList<>();
+		TestLinkedBean shared = new TestLinkedBean();
+		shared.setValue(-1);
+		for (int i = 0; i < 50; i++) {
+			TestLinkedBean bean = new TestLinkedBean();
+			bean.setValue(i);
+			// references across chunks to earlier and later items
+			bean.setNext(i % 2 == 0 ? shared : (TestLinkedBean) list.get(i - 1));
+			list.add(bean);
+			list.add(i % 7 == 0 ? shared : "item" + i);
+		}
+		assertParallelEqualsSequential(list);
+	}
+
+	@Test
+	public void testWriteInParallelReadsOnce() {
+		List<Object> list = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			TestLinkedBean bean = new TestLinkedBean();
+			bean.setValue(i);
+			bean.setNext(new TestLinkedBean());
+			list.add(bean);
+			list.add(new int[] { i, -i });
+		}
+		AtomicInteger processed = new AtomicInteger();
+		SerializerConfig config = SerializerConfig.builder()
+				.addProcessor(TestLinkedBean.class, bean -> {
+					processed.incrementAndGet();
+					return bean;
+				}).build();
+		String sequential = Serialize.object2code(list, config);
+		processed.set(0);
+		CapturedGraph.capture(list, config);
+		int calls = processed.getAndSet(0);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(sequential, Serialize.object2code(list, config
+					.toBuilder().parallel(pool).parallelChunkSize(3).build()));
+		} finally {
+			pool.shutdown();
+		}
+		// the graph is captured once and not read again by the tasks
+		assertEquals(calls, processed.get());
+	}
+
+	@Test
+	public void testWriteMapInParallel() {
+		Map<Object, Object> map = new LinkedHashMap<>();
+		TestLinkedBean shared = new TestLinkedBean();
+		for (int i = 0; i < 50; i++) {
+			TestLinkedBean bean = new TestLinkedBean();
+			bean.setValue(i);
+			bean.setNext(shared);
+			map.put(bean, i % 3 == 0 ? shared : new ArrayList<>());
+		}
+		assertParallelEqualsSequential(map);
+	}
+
+	@Test
+	public void testWriteCompactCollections() {
+		List<Object> list = new ArrayList<>();
+		list.add(1);
+		list.add("a");
+		TestLinkedBean bean = new TestLinkedBean();
+		list.add(bean);
+		list.add(TestBean.MyEnum.MY_ENUM_VALUE);
+		list.add(bean);
+		list.add(null);
+		Map<Object, Object> map = new LinkedHashMap<>();
+		map.put("x", 1);
+		map.put("y", bean);
+		map.put(bean, new ArrayList<>());
+		map.put("z", 2);
+		list.add(map);
+		SerializerConfig config = SerializerConfig.builder()
+				.compactCollections(true).build();
+		assertEquals("java.util.ArrayList arrayList0 = new java.util.ArrayList(7);\n"
+				+ "de.incentergy.test.TestLinkedBean testLinkedBean0 = new de.incentergy.test.TestLinkedBean();\n"
+				+ "testLinkedBean0.setValue(0);\n"
+				+ "arrayList0.addAll(java.util.Arrays.asList(1, \"a\"));\n"
+				+ "arrayList0.add(testLinkedBean0);\n"
+				+ "java.util.LinkedHashMap linkedHashMap0 = new java.util.LinkedHashMap(6);\n"
+				+ "java.util.ArrayList arrayList1 = new java.util.ArrayList(0);\n"
+				+ "{ Object[] keysAndValues = { \"x\", 1, \"y\", testLinkedBean0 }; for (int i = 0; i < keysAndValues.length; i += 2) linkedHashMap0.put(keysAndValues[i], keysAndValues[i + 1]); }\n"
+				+ "linkedHashMap0.put(testLinkedBean0, arrayList1);\n"
+				+ "linkedHashMap0.put(\"z\", 2);\n"
+				+ "arrayList0.addAll(java.util.Arrays.asList(de.incentergy.test.TestBean.MyEnum.MY_ENUM_VALUE, testLinkedBean0, null));\n"
+				+ "arrayList0.add(linkedHashMap0);\n",
+				Serialize.object2code(list, config));
+	}
+
+	@Test
+	public void testWriteCompactQueues() {
+		SerializerConfig config = SerializerConfig.builder()
+				.compactCollections(true).build();
+		// the int constructors reject 0 or bound the queue
+		assertEquals(
+				"java.util.PriorityQueue priorityQueue0 = new java.util.PriorityQueue();\n",
+				Serialize.object2code(new PriorityQueue<>(), config));
+		LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+		queue.add("a");
+		queue.add("b");
+		assertEquals(
+				"java.util.concurrent.LinkedBlockingQueue linkedBlockingQueue0 = new java.util.concurrent.LinkedBlockingQueue();\n"
+						+ "linkedBlockingQueue0.addAll(java.util.Arrays.asList(\"a\", \"b\"));\n",
+				Serialize.object2code(queue, config));
+		assertEquals(
+				"java.util.IdentityHashMap identityHashMap0 = new java.util.IdentityHashMap(0);\n",
+				Serialize.object2code(new IdentityHashMap<>(), config));
+	}
+
+	@Test
+	public void testWritePrimitiveArray() {
+		assertEquals("int[] intArray0 = new int[] {1, -2, 3};\n",
+				Serialize.object2code(new int[] { 1, -2, 3 }));
+		assertEquals("double[] doubleArray0 = new double[] {0.5, Double.NaN};\n",
+				Serialize.object2code(new double[] { 0.5, Double.NaN }));
+	}
+
+	@Test
+	public void testWriteMultiDimensionalArray() {
+		int[] shared = { 1 };
+		int[][] array = { shared, { 2 }, null, shared };
+		assertEquals("int[][] intArrayArray0 = new int[4][];\n"
+				+ "int[] intArray0 = new int[] {1};\n"
+				+ "intArrayArray0[0] = intArray0;\n"
+				+ "int[] intArray1 = new int[] {2};\n"
+				+ "intArrayArray0[1] = intArray1;\n"
+				+ "intArrayArray0[3] = intArray0;\n",
+				Serialize.object2code(array));
+	}
+
+	@Test
+	public void testWriteObjectArray() {
+		TestLinkedBean bean = new TestLinkedBean();
+		Object[] array = { bean, "a", bean };
+		assertEquals("java.lang.Object[] objectArray0 = new java.lang.Object[3];\n"
+				+ "de.incentergy.test.TestLinkedBean testLinkedBean0 = new de.incentergy.test.TestLinkedBean();\n"
+				+ "testLinkedBean0.setValue(0);\n"
+				+ "objectArray0[0] = testLinkedBean0;\n"
+				+ "objectArray0[1] = \"a\";\n"
+				+ "objectArray0[2] = testLinkedBean0;\n",
+				Serialize.object2code(array));
+	}
+
+	@Test
+	public void testWriteBase64Array() {
+		SerializerConfig config = SerializerConfig.builder()
+				.base64ArrayThreshold(2).build();
+		assertEquals("long[] longArray0 = new long[2];\n"
+				+ "java.nio.ByteBuffer.wrap(java.util.Base64.getDecoder().decode(\"AAAAAAAAAAH//////////g==\")).asLongBuffer().get(longArray0, 0, 2);\n",
+				Serialize.object2code(new long[] { 1, -2 }, config));
+		assertEquals("byte[] byteArray0 = new byte[] {7};\n",
+				Serialize.object2code(new byte[] { 7 }, config));
+		assertEquals("byte[] byteArray0 = new byte[3];\n"
+				+ "System.arraycopy(java.util.Base64.getDecoder().decode(\"AQL/\"), 0, byteArray0, 0, 3);\n",
+				Serialize.object2code(new byte[] { 1, 2, -1 }, config));
+	}
+
+	@Test
+	public void testWriteConstants() {
+		List<Object> list = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			TestBean bean = new TestBean();
+			bean.setMyString("EUR");
+			bean.setMyBigDecimal(new BigDecimal("0.19"));
+			list.add(bean);
+		}
+		list.add(1000);
+		list.add(1000);
+		list.add(1);
+		list.add(1);
+		SerializerConfig config = SerializerConfig.builder()
+				.includeFieldForClass(TestBean.class, "myString")
+				.includeFieldForClass(TestBean.class, "myBigDecimal")
+				.constantThreshold(2).build();
+		assertEquals("java.util.ArrayList arrayList0 = new java.util.ArrayList();\n"
+				+ "de.incentergy.test.TestBean testBean0 = new de.incentergy.test.TestBean();\n"
+				+ "testBean0.setMyBigDecimal(new java.math.BigDecimal(\"0.19\"));\n"
+				+ "testBean0.setMyString(\"EUR\");\n"
+				+ "arrayList0.add(testBean0);\n"
+				+ "de.incentergy.test.TestBean testBean1 = new de.incentergy.test.TestBean();\n"
+				+ "final java.math.BigDecimal BIG_DECIMAL_0 = new java.math.BigDecimal(\"0.19\");\n"
+				+ "testBean1.setMyBigDecimal(BIG_DECIMAL_0);\n"
+				+ "final java.lang.String STRING_0 = \"EUR\";\n"
+				+ "testBean1.setMyString(STRING_0);\n"
+				+ "arrayList0.add(testBean1);\n"
+				+ "de.incentergy.test.TestBean testBean2 = new de.incentergy.test.TestBean();\n"
+				+ "testBean2.setMyBigDecimal(BIG_DECIMAL_0);\n"
+				+ "testBean2.setMyString(STRING_0);\n"
+				+ "arrayList0.add(testBean2);\n"
+				+ "arrayList0.add(1000);\n"
+				+ "final java.lang.Integer INTEGER_0 = 1000;\n"
+				+ "arrayList0.add(INTEGER_0);\n"
+				+ "arrayList0.add(1);\n"
+				+ "arrayList0.add(1);\n",
+				Serialize.object2code(list, config));
+	}
+
+	@Test
+	public void testWriteWithDepthBudget() {
+		TestLinkedBean root = new TestLinkedBean();
+		root.setNext(new TestLinkedBean());
+		root.getNext().setNext(new TestLinkedBean());
+		SerializerConfig config = SerializerConfig.builder()
+				.budget(SerializationBudget.builder().maxDepth(1).build())
+				.build();
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code, config)) {
+			object2CodeObjectOutputStream.writeObject(root);
+			assertEquals("de.incentergy.test.TestLinkedBean testLinkedBean0 = new de.incentergy.test.TestLinkedBean();\n"
+					+ "de.incentergy.test.TestLinkedBean testLinkedBean1 = new de.incentergy.test.TestLinkedBean();\n"
+					+ "testLinkedBean1.setNext(null /* truncated */);\n"
+					+ "testLinkedBean1.setValue(0);\n"
+					+ "testLinkedBean0.setNext(testLinkedBean1);\n"
+					+ "testLinkedBean0.setValue(0);\n", code.toString());
+			Truncation truncation = object2CodeObjectOutputStream
+					.getTruncation();
+			assertEquals(EnumSet.of(SerializationBudget.Limit.DEPTH),
+					truncation.getExceeded());
+			assertEquals(Long.valueOf(1), truncation.getTruncatedObjects()
+					.get(TestLinkedBean.class.getName()));
+			assertTrue(truncation.getIncompleteObjects().isEmpty());
+		}
+	}
+
+	@Test
+	public void testWriteWithObjectBudget() {
+		List<Object> list = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			list.add(new ArrayList<>());
+		}
+		SerializerConfig config = SerializerConfig.builder()
+				.budget(SerializationBudget.builder().maxObjects(3).build())
+				.build();
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code, config)) {
+			object2CodeObjectOutputStream.writeObject(list);
+			assertEquals("java.util.ArrayList arrayList0 = new java.util.ArrayList();\n"
+					+ "java.util.ArrayList arrayList1 = new java.util.ArrayList();\n"
+					+ "arrayList0.add(arrayList1);\n"
+					+ "java.util.ArrayList arrayList2 = new java.util.ArrayList();\n"
+					+ "arrayList0.add(arrayList2);\n"
+					+ "arrayList0.add(null /* truncated */);\n",
+					code.toString());
+			Truncation truncation = object2CodeObjectOutputStream
+					.getTruncation();
+			assertTrue(truncation.isTruncated());
+			assertEquals(EnumSet.of(SerializationBudget.Limit.OBJECTS),
+					truncation.getExceeded());
+			assertEquals(Long.valueOf(1), truncation.getIncompleteObjects()
+					.get(ArrayList.class.getName()));
+		}
+	}
+
+	@Test
+	public void testWriteWithTimeBudget() {
+		List<Object> list = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			list.add("item" + i);
+		}
+		SerializerConfig config = SerializerConfig.builder()
+				.budget(SerializationBudget.builder()
+						.timeout(0, TimeUnit.NANOSECONDS).build())
+				.build();
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code, config)) {
+			object2CodeObjectOutputStream.writeObject(list);
+			// the time is checked for the first time at the 256th object
+			assertTrue(code.toString().endsWith(
+					"arrayList0.add(\"item253\");\narrayList0.add(null /* truncated */);\n"));
+			assertEquals(EnumSet.of(SerializationBudget.Limit.TIME),
+					object2CodeObjectOutputStream.getTruncation()
+							.getExceeded());
+		}
+	}
+
+	@Test
+	public void testWriteWithCharBudgetOnReusedStream() {
+		List<Object> list = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			list.add("item" + i);
+		}
+		SerializerConfig config = SerializerConfig.builder()
+				.budget(SerializationBudget.builder().maxChars(200).build())
+				.build();
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code, config)) {
+			object2CodeObjectOutputStream.writeObject(list);
+			object2CodeObjectOutputStream.flush();
+			String first = code.toString();
+			code.setLength(0);
+			// the size of every write is limited on its own
+			object2CodeObjectOutputStream.writeObject(list);
+			object2CodeObjectOutputStream.flush();
+			assertTrue(first.contains("arrayList0.add(\"item0\");"));
+			assertEquals(first, code.toString());
+		}
+	}
+
+	@Test
+	public void testWriteWithFieldAccess() {
+		TestFieldBean bean = new TestFieldBean();
+		bean.setValue(3);
+		bean.assignId(42);
+		bean.addName("a");
+		SerializerConfig config = SerializerConfig.builder().fieldAccess(true)
+				.build();
+		assertEquals("de.incentergy.test.TestFieldBean testFieldBean0 = new de.incentergy.test.TestFieldBean();\n"
+				+ "testFieldBean0.setValue(3);\n"
+				+ "de.incentergy.test.FieldAccess.set(testFieldBean0, de.incentergy.test.TestFieldBean.class, \"id\", 42l);\n"
+				+ "java.util.ArrayList arrayList0 = new java.util.ArrayList();\n"
+				+ "arrayList0.add(\"a\");\n"
+				+ "de.incentergy.test.FieldAccess.set(testFieldBean0, de.incentergy.test.TestFieldBean.class, \"names\", arrayList0);\n",
+				Serialize.object2code(bean, config));
+	}
+
+	@Test
+	public void testWriteObjectAsync() {
+		int[] shared = { 1, 2 };
+		List<Object> list = new ArrayList<>();
+		list.add(shared);
+		list.add(shared);
+		list.add(new Object[] { "a", null, list });
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("a", new TestLinkedBean());
+		map.put("b", map.get("a"));
+		list.add(map);
+		list.add(new GregorianCalendar(2020, 0, 1));
+		SerializerConfig config = SerializerConfig.builder()
+				.compactCollections(true).constantThreshold(2)
+				.addCustomConstructorGenerator(GregorianCalendar.class,
+						c -> "new java.util.GregorianCalendar(2020, 0, 1)")
+				.build();
+		StringBuilder expected = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				expected, config)) {
+			object2CodeObjectOutputStream.writeObject(5);
+			object2CodeObjectOutputStream.writeObject(list);
+			object2CodeObjectOutputStream.writeObject("c");
+		}
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code, config)) {
+			object2CodeObjectOutputStream.writeObjectAsync(5);
+			object2CodeObjectOutputStream.writeObjectAsync(list);
+			// the captured graph is not changed
+			shared[0] = 3;
+			list.add("d");
+			object2CodeObjectOutputStream.writeObject("c");
+		}
+		assertEquals(expected.toString(), code.toString());
+	}
+
+	@Test
+	public void testWriteIncremental() {
+		List<Object> list = new ArrayList<>();
+		TestLinkedBean bean = new TestLinkedBean();
+		list.add(bean);
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("a", 1);
+		map.put("b", 2);
+		list.add(map);
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code)) {
+			object2CodeObjectOutputStream.setIncremental(true);
+			object2CodeObjectOutputStream.writeObject(list);
+			code.setLength(0);
+
+			// nothing changed
+			object2CodeObjectOutputStream.writeObject(list);
+			assertEquals("", code.toString());
+
+			bean.setValue(5);
+			bean.setNext(new TestLinkedBean());
+			map.remove("a");
+			map.put("b", 3);
+			list.add("c");
+			object2CodeObjectOutputStream.writeObject(list);
+			assertEquals("arrayList0.add(\"c\");\n"
+					+ "de.incentergy.test.TestLinkedBean testLinkedBean1 = new de.incentergy.test.TestLinkedBean();\n"
+					+ "testLinkedBean1.setValue(0);\n"
+					+ "testLinkedBean0.setNext(testLinkedBean1);\n"
+					+ "testLinkedBean0.setValue(5);\n"
+					+ "linkedHashMap0.remove(\"a\");\n"
+					+ "linkedHashMap0.put(\"b\", 3);\n", code.toString());
+			code.setLength(0);
+
+			// the new bean is known now
+			bean.getNext().setValue(6);
+			list.remove(0);
+			object2CodeObjectOutputStream.writeObject(list);
+			assertEquals("arrayList0.clear();\n"
+					+ "arrayList0.add(linkedHashMap0);\n"
+					+ "arrayList0.add(\"c\");\n", code.toString());
+		}
+	}
+
+	/**
+	 * A bean whose getter returns a new value on every call.
+	 */
+	public static class Counter {
+		private int value;
+
+		public int getValue() {
+			return ++value;
+		}
+
+		public void setValue(int value) {
+			this.value = value;
+		}
+	}
+
+	@Test
+	public void testWriteIncrementalWithoutBudget() {
+		List<Object> list = new ArrayList<>();
+		list.add(new TestLinkedBean());
+		list.add(new TestLinkedBean());
+		SerializerConfig config = SerializerConfig.builder()
+				.budget(SerializationBudget.builder().maxObjects(1).build())
+				.build();
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code, config)) {
+			object2CodeObjectOutputStream.setIncremental(true);
+			object2CodeObjectOutputStream.writeObject(list);
+			assertFalse(code.toString().contains("truncated"));
+			assertTrue(code.toString().contains("testLinkedBean1"));
+			assertFalse(object2CodeObjectOutputStream.getTruncation()
+					.isTruncated());
+		}
+	}
+
+	@Test
+	public void testWriteIncrementalComparedPrimitive() {
+		Counter counter = new Counter();
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code)) {
+			object2CodeObjectOutputStream.setIncremental(true);
+			object2CodeObjectOutputStream.writeObject(counter);
+			code.setLength(0);
+			// the value that was compared is written, the getter is not
+			// called again
+			object2CodeObjectOutputStream.writeObject(counter);
+			assertEquals("counter0.setValue(3);\n", code.toString());
+		}
+	}
+
+	@Test
+	public void testWriteManyIncrementalSnapshots() {
+		TestLinkedBean bean = new TestLinkedBean();
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code)) {
+			object2CodeObjectOutputStream.setIncremental(true);
+			// every snapshot references the root of the first snapshot
+			for (int i = 0; i < 20000; i++) {
+				bean.setNext(new TestLinkedBean());
+				code.setLength(0);
+				object2CodeObjectOutputStream.writeObject(bean);
+			}
+			assertEquals(
+					"de.incentergy.test.TestLinkedBean testLinkedBean20000 = new de.incentergy.test.TestLinkedBean();\n"
+							+ "testLinkedBean20000.setValue(0);\n"
+							+ "testLinkedBean0.setNext(testLinkedBean20000);\n",
+					code.toString());
+		}
+	}
+
+	private static void assertParallelEqualsSequential(Object o) {
+		SerializerConfig config = SerializerConfig.builder().build();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			SerializerConfig parallel = config.toBuilder().parallel(pool)
+					.parallelChunkSize(3).build();
+			assertEquals(Serialize.object2code(o, config),
+					Serialize.object2code(o, parallel));
+		} finally {
+			pool.shutdown();
+		}
+	}
 }
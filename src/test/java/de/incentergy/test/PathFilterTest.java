@@ -0,0 +1,174 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PathFilterTest {
+
+	public static class Session {
+		private String token = "secret";
+
+		public String getToken() {
+			return token;
+		}
+
+		public void setToken(String token) {
+			this.token = token;
+		}
+	}
+
+	public static class Item {
+		private String sku;
+		private int amount;
+
+		public String getSku() {
+			return sku;
+		}
+
+		public void setSku(String sku) {
+			this.sku = sku;
+		}
+
+		public int getAmount() {
+			return amount;
+		}
+
+		public void setAmount(int amount) {
+			this.amount = amount;
+		}
+	}
+
+	public static class Order {
+		private String name;
+		private List<Item> items = new ArrayList<>();
+		private Session session = new Session();
+		private int sessionReads;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public List<Item> getItems() {
+			return items;
+		}
+
+		public void setItems(List<Item> items) {
+			this.items = items;
+		}
+
+		public Session getSession() {
+			sessionReads++;
+			return session;
+		}
+
+		public void setSession(Session session) {
+			this.session = session;
+		}
+	}
+
+	private static Order newOrder() {
+		Order order = new Order();
+		order.setName("order");
+		for (int i = 1; i <= 2; i++) {
+			Item item = new Item();
+			item.setSku("sku" + i);
+			item.setAmount(i);
+			order.getItems().add(item);
+		}
+		return order;
+	}
+
+	private static SerializerConfig config(PathFilter pathFilter) {
+		return SerializerConfig.builder().pathFilter(pathFilter).build();
+	}
+
+	@Test
+	public void testInclude() {
+		Order order = newOrder();
+		String code = Serialize.object2code(order, config(
+				PathFilter.builder().include("items[*].sku").build()));
+		assertTrue(code.contains("item0.setSku(\"sku1\");"));
+		assertTrue(code.contains("item1.setSku(\"sku2\");"));
+		assertTrue(code.contains("order0.setItems(arrayList0);"));
+		assertFalse(code.contains("setAmount"));
+		assertFalse(code.contains("setName"));
+		assertEquals(0, order.sessionReads);
+	}
+
+	@Test
+	public void testExclude() {
+		Order order = newOrder();
+		String code = Serialize.object2code(order,
+				config(PathFilter.builder().exclude("session")
+						.exclude("items[*].amount").build()));
+		assertEquals(0, order.sessionReads);
+		assertFalse(code.contains("Session"));
+		assertFalse(code.contains("setAmount"));
+		assertTrue(code.contains("order0.setName(\"order\");"));
+		assertTrue(code.contains("item1.setSku(\"sku2\");"));
+	}
+
+	@Test
+	public void testExcludeType() {
+		Order order = newOrder();
+		String code = Serialize.object2code(order, config(
+				PathFilter.builder().exclude("**", Session.class).build()));
+		assertEquals(0, order.sessionReads);
+		assertFalse(code.contains("Session"));
+		assertTrue(code.contains("setAmount"));
+	}
+
+	@Test
+	public void testExcludeWinsOverInclude() {
+		Order order = newOrder();
+		String code = Serialize.object2code(order,
+				config(PathFilter.builder().include("**")
+						.exclude("items[*]").build()));
+		assertTrue(code.contains("order0.setItems(arrayList0);"));
+		assertFalse(code.contains("PathFilterTest.Item"));
+		assertTrue(code.contains("session0.setToken(\"secret\");"));
+	}
+
+	@Test
+	public void testCapturedAndIncremental() {
+		Order order = newOrder();
+		SerializerConfig config = config(PathFilter.builder()
+				.include("items[*].sku").include("name").build());
+		String expected = Serialize.object2code(order, config);
+		assertEquals(expected,
+				CapturedGraph.capture(order, config).toCode(config));
+		assertEquals(expected,
+				new SnapshotCache(config, 10, 100000).object2code(order));
+		assertEquals(0, order.sessionReads);
+
+		StringBuilder code = new StringBuilder();
+		try (Object2CodeObjectOutputStream object2CodeObjectOutputStream = new Object2CodeObjectOutputStream(
+				code, config)) {
+			object2CodeObjectOutputStream.setIncremental(true);
+			object2CodeObjectOutputStream.writeObject(order);
+			code.setLength(0);
+
+			order.getItems().get(0).setAmount(5);
+			order.getItems().get(1).setSku("changed");
+			order.setSession(new Session());
+			object2CodeObjectOutputStream.writeObject(order);
+			assertEquals("item1.setSku(\"changed\");\n", code.toString());
+		}
+		assertEquals(0, order.sessionReads);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPath() {
+		PathFilter.builder().include("items..sku");
+	}
+}
@@ -0,0 +1,52 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Test;
+
+public class PropertyAccessorTest {
+
+	static class PackagePrivateBean {
+		public int getMyInt() {
+			return 42;
+		}
+	}
+
+	@Test
+	public void testPrimitiveAccessors() throws Exception {
+		TestBean testBean = new TestBean();
+		testBean.setMyByte((byte) -3);
+		testBean.setMyChar('k');
+		testBean.setMyLong(656l);
+		testBean.setMyFloat(2.3f);
+		testBean.setMyBoolean(true);
+
+		assertEquals(-3, PropertyAccessor
+				.of(TestBean.class.getMethod("getMyByte")).getInt(testBean));
+		assertEquals('k', PropertyAccessor
+				.of(TestBean.class.getMethod("getMyChar")).get(testBean));
+		assertEquals(656l, PropertyAccessor
+				.of(TestBean.class.getMethod("getMyLong")).getLong(testBean));
+		assertEquals(2.3f, PropertyAccessor
+				.of(TestBean.class.getMethod("getMyFloat")).get(testBean));
+		assertTrue(PropertyAccessor
+				.of(TestBean.class.getMethod("isMyBoolean"))
+				.getBoolean(testBean));
+	}
+
+	@Test
+	public void testReflectiveFallback() throws Exception {
+		assertEquals(42,
+				PropertyAccessor
+						.of(PackagePrivateBean.class.getMethod("getMyInt"))
+						.getInt(new PackagePrivateBean()));
+	}
+
+	@Test(expected = InvocationTargetException.class)
+	public void testGetterExceptionIsWrapped() throws Exception {
+		PropertyAccessor.of(TestBean.class.getMethod("getMyInt")).get(null);
+	}
+}
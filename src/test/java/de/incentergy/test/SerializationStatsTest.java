@@ -0,0 +1,42 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SerializationStatsTest {
+
+	@Test
+	public void testCountsObjectsAndBackReferences() {
+		TestLinkedBean first = new TestLinkedBean();
+		TestLinkedBean second = new TestLinkedBean();
+		TestLinkedBean third = new TestLinkedBean();
+		first.setNext(second);
+		second.setNext(third);
+		third.setNext(first);
+
+		SerializationStats stats = new SerializationStats();
+		SerializerConfig config = SerializerConfig.builder().listener(stats)
+				.build();
+		String code = Serialize.object2code(first, config);
+
+		String name = TestLinkedBean.class.getName();
+		assertEquals(Long.valueOf(3), stats.getObjectsPerClass().get(name));
+		assertEquals(1, stats.getBackReferences());
+		assertEquals(2, stats.getMaxDepth());
+		assertEquals(code.length(),
+				stats.getCharsPerClass().get(name).longValue());
+		assertEquals(3, stats.getIntrospectionHits()
+				+ stats.getIntrospectionMisses());
+		Map<String, Long> nanos = stats.getGetterNanosPerProperty();
+		assertTrue(nanos.containsKey(name + "#next"));
+		assertTrue(nanos.containsKey(name + "#value"));
+
+		stats.reset();
+		assertTrue(stats.getObjectsPerClass().isEmpty());
+		assertEquals(0, stats.getMaxDepth());
+	}
+}
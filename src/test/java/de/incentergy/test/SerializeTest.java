@@ -1,12 +1,33 @@
 package de.incentergy.test;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static de.incentergy.test.Serialize.object2class;
 import static de.incentergy.test.Serialize.object2code;
+import static de.incentergy.test.Serialize.object2codeAsync;
+import static de.incentergy.test.Serialize.object2supplier;
 
 public class SerializeTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testObject2code() {
 		TestBean testBean = new TestBean();
@@ -24,4 +45,174 @@ public class SerializeTest {
 						+ "testBean0.setMyShort((short)0);\n" + "", s);
 	}
 
+	@Test
+	public void testObject2codeWithoutDefaults() {
+		TestBean testBean = new TestBean();
+		testBean.setMyInt(5);
+		testBean.setMyString("a");
+
+		String s = object2code(testBean,
+				SerializerConfig.builder().elideDefaults(true).build());
+		assertEquals(
+				"de.incentergy.test.TestBean testBean0 = new de.incentergy.test.TestBean();\n"
+						+ "testBean0.setMyInt(5);\n"
+						+ "testBean0.setMyString(\"a\");\n", s);
+	}
+
+	@Test
+	public void testObject2class() {
+		List<Object> list = new ArrayList<>();
+		list.add(1);
+		list.add(new ArrayList<>());
+		list.add("a");
+
+		String s = object2class(list, "com.example.Fixture", SerializerConfig
+				.builder().maxStatementsPerMethod(2).build());
+		assertEquals("package com.example;\n\n"
+				+ "public class Fixture {\n"
+				+ "\n"
+				+ "\tprivate static void build0() {\n"
+				+ "\t\tarrayList0 = new java.util.ArrayList();\n"
+				+ "\t\tarrayList0.add(1);\n"
+				+ "\t}\n"
+				+ "\n"
+				+ "\tprivate static void build1() {\n"
+				+ "\t\tarrayList1 = new java.util.ArrayList();\n"
+				+ "\t\tarrayList0.add(arrayList1);\n"
+				+ "\t}\n"
+				+ "\n"
+				+ "\tprivate static void build2() {\n"
+				+ "\t\tarrayList0.add(\"a\");\n"
+				+ "\t}\n"
+				+ "\n"
+				+ "\tpublic static java.util.ArrayList build() {\n"
+				+ "\t\tbuild0();\n"
+				+ "\t\tbuild1();\n"
+				+ "\t\tbuild2();\n"
+				+ "\t\treturn arrayList0;\n"
+				+ "\t}\n"
+				+ "\n"
+				+ "\tprivate static java.util.ArrayList arrayList0;\n"
+				+ "\tprivate static java.util.ArrayList arrayList1;\n"
+				+ "}\n", s);
+	}
+
+	@Test
+	public void testObject2classWithLiteral() {
+		assertEquals("public class Fixture {\n"
+				+ "\n"
+				+ "\tpublic static Object build() {\n"
+				+ "\t\treturn 5;\n"
+				+ "\t}\n"
+				+ "}\n", object2class(5, "Fixture"));
+	}
+
+
+	@Test
+	public void testObject2supplier() {
+		TestLinkedBean first = new TestLinkedBean();
+		first.setValue(1);
+		first.setNext(new TestLinkedBean());
+		first.getNext().setValue(2);
+		first.getNext().setNext(first);
+
+		Supplier<TestLinkedBean> supplier = object2supplier(first,
+				Object2CodeObjectOutputStream.getDefaultConfig(),
+				new SnapshotCompiler(folder.getRoot().toPath()));
+		TestLinkedBean copy = supplier.get();
+		assertNotSame(first, copy);
+		assertEquals(1, copy.getValue());
+		assertEquals(2, copy.getNext().getValue());
+		assertEquals(copy, copy.getNext().getNext());
+		assertNotSame(copy, supplier.get());
+	}
+
+	@Test
+	public void testObject2supplierLargeGraphs() {
+		SnapshotCompiler compiler = new SnapshotCompiler(null);
+		List<BigDecimal> decimals = new ArrayList<>();
+		decimals.add(new BigDecimal("1.5"));
+		assertEquals(decimals, object2supplier(decimals,
+				Object2CodeObjectOutputStream.getDefaultConfig(), compiler)
+						.get());
+
+		// more code than fits into a single method
+		List<String> strings = new ArrayList<>();
+		for (int i = 0; i < 200000; i++) {
+			strings.add("item" + i % 100);
+		}
+		assertEquals(strings, object2supplier(strings,
+				SerializerConfig.builder().compactCollections(true).build(),
+				compiler).get());
+
+		int[] ints = new int[20000];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = i * 7;
+		}
+		assertArrayEquals(ints, object2supplier(ints,
+				Object2CodeObjectOutputStream.getDefaultConfig(), compiler)
+						.get());
+	}
+
+	@Test
+	public void testObject2codeAsync() throws Exception {
+		TestBean testBean = new TestBean();
+		testBean.setMyInt(5);
+		testBean.setMyBigDecimal(new BigDecimal("1.5"));
+		testBean.setMyEnum(TestBean.MyEnum.MY_ENUM_VALUE);
+		testBean.setMyStringCollection(new ArrayList<>());
+		testBean.getMyStringCollection().add("a");
+		testBean.setMyString2TestBeanMap(new HashMap<>());
+		testBean.getMyString2TestBeanMap().put("self", testBean);
+		testBean.setMyTestBean(new TestBean());
+		testBean.getMyTestBean().setMyTestBean(testBean);
+		String expected = object2code(testBean);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			SerializerConfig config = SerializerConfig.builder()
+					.renderExecutor(executor, 1).build();
+			List<String> codes = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				codes.add(object2codeAsync(testBean, config).get());
+			}
+			assertEquals(expected, codes.get(0));
+			assertEquals(expected, codes.get(2));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testObject2codeAsyncCapturesOnCall() throws Exception {
+		TestBean testBean = new TestBean();
+		testBean.setMyString("before");
+		testBean.setMyStringCollection(new ArrayList<>());
+		testBean.getMyStringCollection().add("a");
+		String expected = object2code(testBean);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// the executor writes only after the bean was changed
+			CountDownLatch changed = new CountDownLatch(1);
+			executor.execute(() -> {
+				try {
+					changed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			SerializerConfig config = SerializerConfig.builder()
+					.renderExecutor(executor, 2).build();
+			CompletableFuture<String> code = object2codeAsync(testBean,
+					config);
+			testBean.setMyString("after");
+			testBean.getMyStringCollection().add("b");
+			assertFalse(code.isDone());
+			changed.countDown();
+			assertEquals(expected, code.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
@@ -0,0 +1,129 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.incentergy.test.TestBean.MyInnerClass;
+
+public class SerializerConfigTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testBuilderDoesNotChangeBuiltConfig() {
+		SerializerConfig.Builder builder = SerializerConfig.builder()
+				.includeFieldForClass(MyInnerClass.class, "value");
+		SerializerConfig config = builder.build();
+		builder.removeAllIncludesForClass(MyInnerClass.class);
+
+		assertEquals(1, config.getFieldIncludes(MyInnerClass.class).size());
+		assertNull(builder.build().getFieldIncludes(MyInnerClass.class));
+	}
+
+	@Test
+	public void testConcurrentSerializationWithDifferentConfigs()
+			throws Exception {
+		MyInnerClass myInnerClass = new MyInnerClass();
+		myInnerClass.setValue("Inner String");
+		SerializerConfig all = SerializerConfig.builder().build();
+		SerializerConfig none = SerializerConfig.builder()
+				.includeFieldForClass(MyInnerClass.class, "otherValue")
+				.build();
+		String declaration = "de.incentergy.test.TestBean.MyInnerClass myInnerClass0 = new de.incentergy.test.TestBean.MyInnerClass();\n";
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> futures = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				SerializerConfig config = i % 2 == 0 ? all : none;
+				futures.add(executorService.submit(
+						() -> Serialize.object2code(myInnerClass, config)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				assertEquals(i % 2 == 0
+						? declaration
+								+ "myInnerClass0.setValue(\"Inner String\");\n"
+						: declaration, futures.get(i).get());
+			}
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void testProcessorForType() {
+		List<Object> processed = new ArrayList<>();
+		SerializerConfig config = SerializerConfig.builder()
+				.addProcessor(MyInnerClass.class, inner -> {
+					processed.add(inner);
+					return inner.getValue();
+				}).addProcessor(CharSequence.class, s -> s + "!")
+				.addProcessor(MyInnerClass.class, inner -> "unreachable")
+				.build();
+		MyInnerClass myInnerClass = new MyInnerClass();
+		myInnerClass.setValue("a");
+
+		assertEquals(5, config.process(5));
+		assertNull(config.process(null));
+		assertEquals("b!", config.process("b"));
+		// the String of the first processor is processed as String
+		assertEquals("a!", config.process(myInnerClass));
+		assertEquals(1, processed.size());
+		assertEquals(5, config.getProcessors().get(1).apply(5));
+
+		SerializerConfig copy = config.toBuilder()
+				.addProcessor(Integer.class, i -> i + 1).build();
+		assertEquals(6, copy.process(5));
+		assertEquals("a!", copy.process(myInnerClass));
+	}
+
+	@Test
+	public void testConstructorGeneratorOfSuperType() {
+		SerializerConfig config = SerializerConfig.builder()
+				.addCustomConstructorGenerator(Calendar.class,
+						c -> "java.util.Calendar.getInstance()")
+				.addCustomConstructorGenerator(Comparable.class,
+						c -> "comparable")
+				.addCustomConstructorGenerator(CharSequence.class,
+						c -> "charSequence")
+				.addCustomConstructorGenerator(Date.class, d -> "date")
+				.addCustomConstructorGenerator(Timestamp.class,
+						t -> "timestamp")
+				.build();
+
+		// declared with the type of the generator, so the code compiles
+		assertEquals(
+				"java.util.Calendar gregorianCalendar0 = java.util.Calendar.getInstance();\n",
+				Serialize.object2code(new GregorianCalendar(), config));
+		assertTrue(Serialize
+				.object2supplier(new GregorianCalendar(), config,
+						new SnapshotCompiler(folder.getRoot().toPath()))
+				.get() instanceof Calendar);
+		// the exact class before the super class
+		assertEquals("timestamp", config.getConstructorGenerator(
+				Timestamp.class).apply(new Timestamp(0)));
+		// the super class before the interfaces
+		assertEquals("date", config.getConstructorGenerator(
+				java.sql.Date.class).apply(new java.sql.Date(0)));
+		// interfaces in the order they are declared
+		assertEquals("comparable",
+				config.getConstructorGenerator(String.class).apply(""));
+		assertNull(config.getConstructorGenerator(MyInnerClass.class));
+	}
+}
@@ -0,0 +1,112 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SnapshotCacheTest {
+
+	private static List<TestLinkedBean> graph(int value, boolean shared) {
+		TestLinkedBean a = new TestLinkedBean();
+		a.setValue(value);
+		TestLinkedBean b = new TestLinkedBean();
+		a.setNext(b);
+		b.setNext(shared ? a : new TestLinkedBean());
+		List<TestLinkedBean> list = new ArrayList<>();
+		list.add(a);
+		list.add(b);
+		return list;
+	}
+
+	@Test
+	public void testReturnsCodeOfEqualGraphs() {
+		SerializerConfig config = SerializerConfig.builder().build();
+		SnapshotCache cache = new SnapshotCache(config, 10, 100000);
+
+		String code = cache.object2code(graph(1, true));
+		assertEquals(Serialize.object2code(graph(1, true), config), code);
+		assertSame(code, cache.object2code(graph(1, true)));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// other values and other sharing are other graphs
+		assertNotEquals(code, cache.object2code(graph(2, true)));
+		assertNotEquals(code, cache.object2code(graph(1, false)));
+		assertEquals(3, cache.size());
+		assertEquals(3, cache.getMisses());
+	}
+
+	/**
+	 * A bean without no-args constructor that counts the calls of its
+	 * getter.
+	 */
+	public static class NoConstructorBean {
+		private final int[] calls;
+
+		public NoConstructorBean(int[] calls) {
+			this.calls = calls;
+		}
+
+		public int getValue() {
+			return ++calls[0];
+		}
+
+		public void setValue(int value) {
+			// only read
+		}
+	}
+
+	@Test
+	public void testSkipsPropertiesOfBeansWithoutConstructor() {
+		SerializerConfig config = SerializerConfig.builder().build();
+		SnapshotCache cache = new SnapshotCache(config, 10, 100000);
+		int[] calls = new int[1];
+		List<Object> list = new ArrayList<>();
+		list.add(new NoConstructorBean(calls));
+
+		String code = Serialize.object2code(list, config);
+		assertEquals(code, cache.object2code(list));
+		assertSame(cache.object2code(list), cache.object2code(list));
+		// the writer writes null, so no getter is called
+		assertEquals(0, calls[0]);
+	}
+
+	@Test
+	public void testDistinguishesBigDecimals() {
+		SerializerConfig config = SerializerConfig.builder().build();
+		SnapshotCache cache = new SnapshotCache(config, 10, 100000);
+		List<Object> small = new ArrayList<>();
+		small.add(new BigDecimal("31"));
+		List<Object> large = new ArrayList<>();
+		large.add(new BigDecimal("4294967296"));
+
+		cache.object2code(small);
+		assertEquals(Serialize.object2code(large, config),
+				cache.object2code(large));
+		assertEquals(0, cache.getHits());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		SerializerConfig config = SerializerConfig.builder().build();
+		SnapshotCache cache = new SnapshotCache(config, 2, 100000);
+		cache.object2code(graph(1, true));
+		cache.object2code(graph(2, true));
+		cache.object2code(graph(1, true));
+		cache.object2code(graph(3, true));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+
+		// 2 was evicted, 1 was used more recently
+		cache.object2code(graph(1, true));
+		assertEquals(2, cache.getHits());
+		cache.object2code(graph(2, true));
+		assertEquals(4, cache.getMisses());
+	}
+}
@@ -0,0 +1,101 @@
+package de.incentergy.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotCompilerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCompilesIdenticalSourcesOnce() throws Exception {
+		TestLinkedBean bean = new TestLinkedBean();
+		bean.setValue(7);
+		String source = Serialize.object2class(bean, "test.Fixture");
+		Path cache = folder.getRoot().toPath();
+		ClassLoader loader = getClass().getClassLoader();
+
+		SnapshotCompiler compiler = new SnapshotCompiler(cache);
+		Class<?> clazz = compiler.load("test.Fixture", source, loader);
+		assertSame(clazz, compiler.load("test.Fixture", source, loader));
+		assertEquals(1, compiler.getCachedClassCount());
+		File[] files = folder.getRoot().listFiles();
+		assertEquals(1, files.length);
+		assertTrue(files[0].getName().endsWith(".class"));
+
+		// another compiler reads the byte code from the disk
+		long modified = Files.getLastModifiedTime(files[0].toPath())
+				.toMillis();
+		SnapshotCompiler other = new SnapshotCompiler(cache);
+		Class<?> loaded = other.load("test.Fixture", source, loader);
+		assertNotSame(clazz, loaded);
+		assertEquals(modified,
+				Files.getLastModifiedTime(files[0].toPath()).toMillis());
+		assertEquals(7, ((TestLinkedBean) other
+				.compile("test.Fixture", source, loader).get()).getValue());
+	}
+
+	@Test
+	public void testKeepsRecentlyUsedClasses() {
+		TestLinkedBean first = new TestLinkedBean();
+		first.setValue(1);
+		TestLinkedBean second = new TestLinkedBean();
+		second.setValue(2);
+		String firstSource = Serialize.object2class(first, "test.Fixture");
+		String secondSource = Serialize.object2class(second, "test.Fixture");
+		ClassLoader loader = getClass().getClassLoader();
+
+		SnapshotCompiler compiler = new SnapshotCompiler(null, 1);
+		Class<?> clazz = compiler.load("test.Fixture", firstSource, loader);
+		compiler.load("test.Fixture", secondSource, loader);
+		assertEquals(1, compiler.getCachedClassCount());
+		// the first class was dropped and is compiled again
+		assertNotSame(clazz,
+				compiler.load("test.Fixture", firstSource, loader));
+		assertEquals(1, compiler.getCachedClassCount());
+	}
+
+	@Test
+	public void testIgnoresCacheThatOthersCanWrite() throws Exception {
+		Assume.assumeTrue(folder.getRoot().toPath().getFileSystem()
+				.supportedFileAttributeViews().contains("posix"));
+		TestLinkedBean bean = new TestLinkedBean();
+		bean.setValue(7);
+		String source = Serialize.object2class(bean, "test.Fixture");
+		Path cache = folder.getRoot().toPath().resolve("cache");
+		ClassLoader loader = getClass().getClassLoader();
+
+		new SnapshotCompiler(cache).load("test.Fixture", source, loader);
+		assertEquals(PosixFilePermissions.fromString("rwx------"),
+				Files.getPosixFilePermissions(cache));
+		File[] files = cache.toFile().listFiles();
+		assertEquals(1, files.length);
+		Set<PosixFilePermission> permissions = Files
+				.getPosixFilePermissions(files[0].toPath());
+		assertFalse(permissions.contains(PosixFilePermission.GROUP_WRITE));
+		assertFalse(permissions.contains(PosixFilePermission.OTHERS_WRITE));
+
+		// a class that others could have replaced is compiled again
+		Files.write(files[0].toPath(), new byte[] { 0 });
+		permissions.add(PosixFilePermission.OTHERS_WRITE);
+		Files.setPosixFilePermissions(files[0].toPath(), permissions);
+		assertEquals(7, ((TestLinkedBean) new SnapshotCompiler(cache)
+				.compile("test.Fixture", source, loader).get()).getValue());
+	}
+}
@@ -0,0 +1,37 @@
+package de.incentergy.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A bean whose getters do not return its fields.
+ */
+public class TestFieldBean extends TestLinkedBean {
+	public static final int CONSTANT = 1;
+
+	private long id;
+	private transient String cache = "cached";
+	private List<String> names = new ArrayList<>();
+
+	public long getId() {
+		return id;
+	}
+
+	public String getCache() {
+		return cache;
+	}
+
+	public List<String> getNames() {
+		// a defensive copy
+		return Collections.unmodifiableList(new ArrayList<>(names));
+	}
+
+	public void addName(String name) {
+		names.add(name);
+	}
+
+	public void assignId(long id) {
+		this.id = id;
+	}
+}
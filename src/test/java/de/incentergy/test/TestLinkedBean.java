@@ -0,0 +1,26 @@
+package de.incentergy.test;
+
+/**
+ * A bean that can be chained to build deep object graphs.
+ */
+public class TestLinkedBean {
+	private int value;
+	private TestLinkedBean next;
+
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		this.value = value;
+	}
+
+	public TestLinkedBean getNext() {
+		return next;
+	}
+
+	public void setNext(TestLinkedBean next) {
+		this.next = next;
+	}
+
+}